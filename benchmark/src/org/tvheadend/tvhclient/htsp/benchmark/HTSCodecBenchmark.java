@@ -0,0 +1,159 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.tvheadend.tvhclient.htsp.HTSFrameReader;
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+
+/**
+ * Decoding and encoding of single messages. The parse benchmarks only read
+ * the method, like the dispatcher in HTSService does, the read benchmarks
+ * also decode every field.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HTSCodecBenchmark {
+
+    // Same sizes as in HTSConnection
+    private static final int RECEIVE_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_FRAME_SIZE = 32 * 1024 * 1024;
+
+    @Param({ HTSPayloads.CHANNEL_ADD, HTSPayloads.EVENT_ADD, HTSPayloads.MUXPKT, HTSPayloads.FILE_READ })
+    public String payload;
+
+    private HTSMessage msg;
+    private ByteBuffer frame;
+    private ByteBuffer out;
+    private FrameChannel channel;
+    private HTSFrameReader reader;
+
+    @Setup
+    public void setup() throws IOException {
+        msg = HTSPayloads.create(payload);
+        frame = HTSPayloads.frame(msg);
+        out = ByteBuffer.allocate(msg.frameLength());
+        channel = new FrameChannel(frame);
+        reader = new HTSFrameReader(RECEIVE_BUFFER_SIZE, MAX_FRAME_SIZE);
+    }
+
+    @Benchmark
+    public Object parse() throws IOException {
+        HTSMessage received = HTSMessage.parse(frame.duplicate());
+        return received.getMethod();
+    }
+
+    @Benchmark
+    public void parseAndRead(Blackhole bh) throws IOException {
+        HTSMessage received = HTSMessage.parse(frame.duplicate());
+        for (Map.Entry<String, Object> entry : received.entrySet()) {
+            bh.consume(entry.getValue());
+        }
+    }
+
+    /**
+     * Goes through HTSFrameReader like the connection does, which reads
+     * frames larger than the receive buffer into a buffer of their own.
+     */
+    @Benchmark
+    public Object readFrame() throws IOException {
+        channel.rewind();
+        HTSMessage received = null;
+        while (received == null) {
+            if (reader.read(channel) < 0) {
+                throw new IOException("Frame incomplete");
+            }
+            received = reader.next();
+        }
+        return received.getMethod();
+    }
+
+    @Benchmark
+    public int frameLength() throws IOException {
+        return msg.frameLength();
+    }
+
+    @Benchmark
+    public ByteBuffer serialize() throws IOException {
+        out.clear();
+        msg.serialize(out);
+        return out;
+    }
+
+    /**
+     * Hands out the same frame again after every rewind, as much as fits
+     * into the destination like a socket would. Nothing is allocated per
+     * read so only the reader shows up in the allocation rate.
+     */
+    private static class FrameChannel implements ReadableByteChannel {
+
+        private final ByteBuffer frame;
+
+        FrameChannel(ByteBuffer frame) {
+            this.frame = frame.duplicate();
+        }
+
+        void rewind() {
+            frame.position(0);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!frame.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(dst.remaining(), frame.remaining());
+            int limit = frame.limit();
+            frame.limit(frame.position() + n);
+            dst.put(frame);
+            frame.limit(limit);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
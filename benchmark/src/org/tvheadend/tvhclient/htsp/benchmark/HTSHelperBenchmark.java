@@ -0,0 +1,96 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.view.EventView;
+import org.tvheadend.tvhclient.htsp.view.EventsView;
+
+/**
+ * The accessors that turn list and map fields into Java collections, read
+ * from received messages. The list benchmarks reuse one message, the ones
+ * that walk a getEvents reply parse it again for every call since nested
+ * maps are only decoded once per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HTSHelperBenchmark {
+
+    private HTSMessage channelAdd;
+    private HTSMessage eventIds;
+    private ByteBuffer events;
+
+    @Setup
+    public void setup() throws IOException {
+        channelAdd = HTSPayloads.received(HTSPayloads.create(HTSPayloads.CHANNEL_ADD));
+        eventIds = HTSPayloads.received(HTSPayloads.eventIds(1000));
+        events = HTSPayloads.frame(HTSPayloads.events(100));
+    }
+
+    @Benchmark
+    public List<Integer> getIntList() {
+        return channelAdd.getIntList("tags");
+    }
+
+    @Benchmark
+    public List<Long> getLongList() {
+        return eventIds.getLongList("eventIds");
+    }
+
+    @Benchmark
+    public void getMapList(Blackhole bh) throws IOException {
+        HTSMessage reply = HTSMessage.parse(events.duplicate());
+        for (Object obj : reply.getList("events")) {
+            HTSMessage event = (HTSMessage) obj;
+            bh.consume(event.getLong("eventId"));
+            bh.consume(event.getString("title"));
+            bh.consume(event.getDate("start"));
+        }
+    }
+
+    @Benchmark
+    public void getEventViews(Blackhole bh) throws IOException {
+        EventsView reply = new EventsView(HTSMessage.parse(events.duplicate()));
+        for (EventView event : reply.getEvents()) {
+            bh.consume(event.getEventId());
+            bh.consume(event.getTitle());
+            bh.consume(event.getStart());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+
+/**
+ * Synthetic messages that look like the ones a server sends during the
+ * initial sync and while streaming. The content is generated from a fixed
+ * seed so every run measures the same bytes.
+ */
+public class HTSPayloads {
+
+    public static final String CHANNEL_ADD = "channelAdd";
+    public static final String EVENT_ADD = "eventAdd";
+    public static final String MUXPKT = "muxpkt";
+    public static final String FILE_READ = "fileRead";
+
+    // A muxpkt usually carries seven TS packets
+    private static final int MUXPKT_PAYLOAD_SIZE = 188 * 7;
+
+    // The size of the blocks HTSFileInputStream asks for
+    private static final int FILE_READ_SIZE = 8 * 1024 * 1024;
+
+    private static final String WORDS = "Die Sendung zeigt Berichte aus aller Welt über Politik, "
+            + "Wirtschaft, Kultur und Sport. Im Anschluss folgen das Wetter und eine Vorschau "
+            + "auf das Programm des nächsten Tages. ";
+
+    public static HTSMessage create(String name) {
+        Random random = new Random(42);
+        if (CHANNEL_ADD.equals(name)) {
+            return channelAdd(random, 1);
+        } else if (EVENT_ADD.equals(name)) {
+            return eventAdd(random, 1);
+        } else if (MUXPKT.equals(name)) {
+            return muxpkt(random);
+        } else if (FILE_READ.equals(name)) {
+            return fileRead(random);
+        }
+        throw new IllegalArgumentException("Unknown payload " + name);
+    }
+
+    public static HTSMessage channelAdd(Random random, int id) {
+        HTSMessage msg = new HTSMessage();
+        msg.setMethod("channelAdd");
+        msg.putField("channelId", id);
+        msg.putField("channelNumber", id);
+        msg.putField("channelName", "Das Erste HD " + id);
+        msg.putField("channelIcon", "http://192.168.1.2:9981/imagecache/" + id);
+        msg.putField("eventId", 1000000 + random.nextInt(1000000));
+        msg.putField("nextEventId", 1000000 + random.nextInt(1000000));
+        List<Long> tags = new ArrayList<Long>();
+        for (int i = 0; i < 12; i++) {
+            tags.add((long) random.nextInt(1 << 20));
+        }
+        msg.putField("tags", tags);
+        List<HTSMessage> services = new ArrayList<HTSMessage>();
+        for (int i = 0; i < 2; i++) {
+            HTSMessage service = new HTSMessage();
+            service.putField("name", "DVB-S2/Astra 19.2E/11493H/Das Erste HD");
+            service.putField("type", "HDTV");
+            services.add(service);
+        }
+        msg.putField("services", services);
+        return msg;
+    }
+
+    public static HTSMessage eventAdd(Random random, int id) {
+        long start = 1400000000L + random.nextInt(7 * 24 * 3600);
+        HTSMessage msg = new HTSMessage();
+        msg.setMethod("eventAdd");
+        msg.putField("eventId", id);
+        msg.putField("channelId", 1 + random.nextInt(200));
+        msg.putField("start", start);
+        msg.putField("stop", start + 1800 + random.nextInt(7200));
+        msg.putField("title", "Tagesschau " + id);
+        msg.putField("subtitle", "Nachrichten");
+        msg.putField("summary", text(random, 160));
+        msg.putField("description", text(random, 2000));
+        msg.putField("contentType", 32);
+        msg.putField("ageRating", 12);
+        msg.putField("episodeNumber", 1 + random.nextInt(40));
+        msg.putField("seasonNumber", 1 + random.nextInt(10));
+        msg.putField("episodeOnscreen", "S01E02");
+        msg.putField("nextEventId", id + 1);
+        return msg;
+    }
+
+    public static HTSMessage muxpkt(Random random) {
+        byte[] payload = new byte[MUXPKT_PAYLOAD_SIZE];
+        random.nextBytes(payload);
+        for (int i = 0; i < payload.length; i += 188) {
+            payload[i] = 0x47;
+        }
+        HTSMessage msg = new HTSMessage();
+        msg.setMethod("muxpkt");
+        msg.putField("subscriptionId", 1);
+        msg.putField("stream", 2);
+        msg.putField("frametype", 'I');
+        msg.putField("dts", 8589934592L + random.nextInt());
+        msg.putField("pts", 8589934592L + random.nextInt());
+        msg.putField("duration", 40000);
+        msg.putField("payload", payload);
+        return msg;
+    }
+
+    public static HTSMessage fileRead(Random random) {
+        byte[] data = new byte[FILE_READ_SIZE];
+        random.nextBytes(data);
+        HTSMessage msg = new HTSMessage();
+        msg.putField("seq", 17);
+        msg.putField("data", data);
+        return msg;
+    }
+
+    /**
+     * @return a reply to getEvents with the given number of events
+     */
+    public static HTSMessage events(int count) {
+        Random random = new Random(42);
+        List<HTSMessage> events = new ArrayList<HTSMessage>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(eventAdd(random, i + 1));
+        }
+        HTSMessage msg = new HTSMessage();
+        msg.putField("seq", 3);
+        msg.putField("events", events);
+        return msg;
+    }
+
+    /**
+     * @return a reply to epgQuery with the given number of event ids
+     */
+    public static HTSMessage eventIds(int count) {
+        Random random = new Random(42);
+        List<Long> ids = new ArrayList<Long>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(1000000L + random.nextInt(1000000));
+        }
+        HTSMessage msg = new HTSMessage();
+        msg.putField("seq", 4);
+        msg.putField("eventIds", ids);
+        return msg;
+    }
+
+    /**
+     * @return the message serialized into a read only frame with its length
+     *         prefix, the capacity is exactly the size of the frame
+     */
+    public static ByteBuffer frame(HTSMessage msg) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(msg.frameLength());
+        msg.serialize(buf);
+        buf.flip();
+        return buf.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the message as it looks after it has been received
+     */
+    public static HTSMessage received(HTSMessage msg) throws IOException {
+        return HTSMessage.parse(frame(msg));
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            int start = random.nextInt(WORDS.length() - 1);
+            sb.append(WORDS, start, WORDS.length());
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.benchmark;
+
+import java.io.IOException;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSSendQueue;
+
+/**
+ * Five threads send requests while a sixth one plays the selector thread
+ * and takes them out of the queue, like the scheduled pool of HTSService
+ * does during the initial sync.
+ *
+ * The locked group repeats what HTSConnection did before HTSSendQueue:
+ * every send takes the lock of the selector loop, registers the channel
+ * again and wakes up the selector. The lockFree group goes through
+ * HTSSendQueue and a concurrent map of response handlers. In both groups
+ * the consumer drops the handlers of the messages it takes, as if their
+ * replies had arrived.
+ *
+ * Producers yield while more than MAX_BACKLOG messages wait, otherwise the
+ * queue would grow without limit on machines with few cores. Results from
+ * machines with less than six cores mostly show the scheduler.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HTSSendQueueBenchmark {
+
+    private static final int PRODUCERS = 5;
+
+    private static final int MAX_BACKLOG = 4096;
+
+    @State(Scope.Group)
+    public static class Connection {
+
+        Selector selector;
+        Pipe pipe;
+        Lock lock;
+        AtomicInteger seq;
+        AtomicInteger taken;
+
+        LinkedList<HTSMessage> lockedQueue;
+        Map<Integer, Object> lockedHandlers;
+
+        HTSSendQueue sendQueue;
+        Map<Integer, Object> handlers;
+        ArrayList<HTSMessage> drained;
+
+        @Setup
+        public void setup() throws IOException {
+            selector = Selector.open();
+            pipe = Pipe.open();
+            pipe.source().configureBlocking(false);
+            pipe.source().register(selector, SelectionKey.OP_READ);
+            lock = new ReentrantLock();
+            seq = new AtomicInteger();
+            taken = new AtomicInteger();
+
+            lockedQueue = new LinkedList<HTSMessage>();
+            lockedHandlers = new HashMap<Integer, Object>();
+
+            sendQueue = new HTSSendQueue(selector);
+            handlers = new ConcurrentHashMap<Integer, Object>();
+            drained = new ArrayList<HTSMessage>();
+        }
+
+        void awaitBacklog(Control control) {
+            // The consumer may already have stopped at the end of an
+            // iteration
+            while (seq.get() - taken.get() > MAX_BACKLOG && !control.stopMeasurement) {
+                Thread.yield();
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            pipe.source().close();
+            pipe.sink().close();
+            selector.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+
+        Object handler;
+
+        @Setup
+        public void setup() {
+            handler = new Object();
+        }
+
+        HTSMessage create() {
+            HTSMessage msg = new HTSMessage();
+            msg.setMethod("getEvents");
+            msg.putField("channelId", 42);
+            msg.putField("numFollowing", 5);
+            return msg;
+        }
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(PRODUCERS)
+    public void lockedSend(Connection c, Producer p, Control control) throws IOException {
+        c.awaitBacklog(control);
+        HTSMessage msg = p.create();
+        c.lock.lock();
+        try {
+            int s = c.seq.incrementAndGet();
+            msg.putField("seq", s);
+            c.lockedHandlers.put(s, p.handler);
+            c.pipe.source().register(c.selector, SelectionKey.OP_READ);
+            c.lockedQueue.add(msg);
+            c.selector.wakeup();
+        } finally {
+            c.lock.unlock();
+        }
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public int lockedDrain(Connection c) throws IOException {
+        c.selector.selectNow();
+        c.lock.lock();
+        try {
+            int count = 0;
+            HTSMessage msg;
+            while ((msg = c.lockedQueue.poll()) != null) {
+                c.lockedHandlers.remove(msg.getInt("seq"));
+                count++;
+            }
+            c.pipe.source().register(c.selector, SelectionKey.OP_READ);
+            c.taken.addAndGet(count);
+            return count;
+        } finally {
+            c.lock.unlock();
+        }
+    }
+
+    @Benchmark
+    @Group("lockFree")
+    @GroupThreads(PRODUCERS)
+    public void lockFreeSend(Connection c, Producer p, Control control) {
+        c.awaitBacklog(control);
+        HTSMessage msg = p.create();
+        int s = c.seq.incrementAndGet();
+        msg.putField("seq", s);
+        c.handlers.put(s, p.handler);
+        c.sendQueue.offer(msg);
+    }
+
+    @Benchmark
+    @Group("lockFree")
+    @GroupThreads(1)
+    public int lockFreeDrain(Connection c) throws IOException {
+        c.selector.selectNow();
+        int count = c.sendQueue.drainTo(c.drained);
+        for (int i = 0; i < count; i++) {
+            c.handlers.remove(c.drained.get(i).getInt("seq"));
+        }
+        c.drained.clear();
+        c.taken.addAndGet(count);
+        return count;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.benchmark;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tvheadend.tvhclient.htsp.HTSBufferPool;
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+
+/**
+ * Sends messages through HTSMessage.transmit over a loopback connection
+ * whose other end is drained by a separate thread. This includes taking a
+ * buffer from the pool, serializing into it and the socket writes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HTSTransmitBenchmark {
+
+    @Param({ HTSPayloads.CHANNEL_ADD, HTSPayloads.EVENT_ADD, HTSPayloads.MUXPKT, HTSPayloads.FILE_READ })
+    public String payload;
+
+    private HTSMessage msg;
+    private HTSBufferPool pool;
+    private SocketChannel out;
+    private SocketChannel in;
+    private Thread drain;
+
+    @Setup
+    public void setup() throws IOException {
+        msg = HTSPayloads.create(payload);
+        pool = new HTSBufferPool();
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        out = SocketChannel.open(server.socket().getLocalSocketAddress());
+        in = server.accept();
+        server.close();
+
+        drain = new Thread("drain") {
+            public void run() {
+                ByteBuffer buf = ByteBuffer.allocateDirect(256 * 1024);
+                try {
+                    while (in.read(buf) >= 0) {
+                        buf.clear();
+                    }
+                } catch (IOException ex) {
+                    // Closed by tearDown
+                }
+            }
+        };
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        out.close();
+        drain.join();
+        in.close();
+    }
+
+    @Benchmark
+    public HTSMessage transmit() throws IOException {
+        while (!msg.transmit(out, pool)) {
+            // The channel is blocking, a partial write only happens when
+            // the write is interrupted
+        }
+        return msg;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.tvheadend.tvhclient.model.LongObjectMap;
+
+/**
+ * Looking up channels and recordings by their id, like TVHClientApplication
+ * does for every received message. 1000 entries stand for the channels of
+ * a large setup, 5000 for its recordings.
+ *
+ * The list benchmark repeats what getChannel and getRecording did before
+ * the index: walk the synchronized list until the id matches. The index
+ * benchmarks take the same lock and look the id up in a LongObjectMap or,
+ * for comparison, a HashMap with boxed keys. Each invocation looks up
+ * {@link #LOOKUPS} ids in random order, one in ten of them unknown.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelLookupBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    @Param({ "1000", "5000" })
+    private int size;
+
+    private List<Entity> list;
+    private LongObjectMap<Entity> index;
+    private Map<Long, Entity> hashIndex;
+    private long[] ids;
+
+    public static class Entity {
+        public long id;
+    }
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        list = Collections.synchronizedList(new ArrayList<Entity>());
+        index = new LongObjectMap<Entity>();
+        hashIndex = new HashMap<Long, Entity>();
+
+        // The server hands out ids that grow, with gaps where entries were
+        // deleted
+        long id = 1;
+        for (int i = 0; i < size; i++) {
+            id += 1 + random.nextInt(4);
+            Entity e = new Entity();
+            e.id = id;
+            list.add(e);
+            index.put(id, e);
+            hashIndex.put(id, e);
+        }
+
+        ids = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            ids[i] = random.nextInt(10) == 0 ? id + 1 + random.nextInt(1000) : list.get(random.nextInt(size)).id;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void list(Blackhole bh) {
+        for (long id : ids) {
+            bh.consume(scan(id));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void longObjectMap(Blackhole bh) {
+        for (long id : ids) {
+            synchronized (list) {
+                bh.consume(index.get(id));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void hashMap(Blackhole bh) {
+        for (long id : ids) {
+            synchronized (list) {
+                bh.consume(hashIndex.get(id));
+            }
+        }
+    }
+
+    private Entity scan(long id) {
+        synchronized (list) {
+            for (Entity e : list) {
+                if (e.id == id) {
+                    return e;
+                }
+            }
+        }
+        return null;
+    }
+}
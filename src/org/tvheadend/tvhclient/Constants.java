@@ -54,6 +54,7 @@ public class Constants {
     // Default values for the program guide
     public static final String EPG_DEFAULT_MAX_DAYS = "7";
     public static final String EPG_DEFAULT_HOURS_VISIBLE = "4";
+    public static final String EPG_DEFAULT_SYNC_HOURS = "48";
 
     // Channel sorting order
     public static final int CHANNEL_SORT_DEFAULT = 0;
@@ -22,13 +22,18 @@ package org.tvheadend.tvhclient;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.tvheadend.tvhclient.interfaces.HTSBatchListener;
 import org.tvheadend.tvhclient.interfaces.HTSListener;
+import org.tvheadend.tvhclient.model.ChangeSet;
 import org.tvheadend.tvhclient.model.Channel;
 import org.tvheadend.tvhclient.model.ChannelTag;
 import org.tvheadend.tvhclient.model.HttpTicket;
+import org.tvheadend.tvhclient.model.LongObjectMap;
 import org.tvheadend.tvhclient.model.Packet;
 import org.tvheadend.tvhclient.model.Profiles;
 import org.tvheadend.tvhclient.model.Program;
@@ -39,6 +44,8 @@ import org.tvheadend.tvhclient.model.TimerRecording;
 
 import android.app.Application;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.SparseArray;
 
 public class TVHClientApplication extends Application {
@@ -57,8 +64,71 @@ public class TVHClientApplication extends Application {
     private final List<Profiles> profiles = Collections.synchronizedList(new ArrayList<Profiles>());
     private final Map<String, String> status = Collections.synchronizedMap(new HashMap<String, String>());
 
+    // The objects of the lists above by their id, so looking one up does
+    // not walk the list. Each index is guarded by the lock of its list.
+    private final LongObjectMap<ChannelTag> tagIndex = new LongObjectMap<ChannelTag>();
+    private final LongObjectMap<Channel> channelIndex = new LongObjectMap<Channel>(1024);
+    private final LongObjectMap<Recording> recordingIndex = new LongObjectMap<Recording>(1024);
+    private final Map<String, SeriesRecording> seriesRecordingIndex = new HashMap<String, SeriesRecording>();
+    private final Map<String, TimerRecording> timerRecordingIndex = new HashMap<String, TimerRecording>();
+    private final LongObjectMap<Subscription> subscriptionIndex = new LongObjectMap<Subscription>();
+
     private volatile boolean loading = false;
 
+    // The actions that add, update or remove an object of the model. The
+    // listeners that implement HTSBatchListener get them in change sets.
+    private static final Map<String, Integer> CHANGES = new HashMap<String, Integer>();
+    private static final int ADDED = 0;
+    private static final int UPDATED = 1;
+    private static final int REMOVED = 2;
+
+    static {
+        String[][] actions = {
+                { Constants.ACTION_TAG_ADD, Constants.ACTION_TAG_UPDATE, Constants.ACTION_TAG_DELETE },
+                { Constants.ACTION_CHANNEL_ADD, Constants.ACTION_CHANNEL_UPDATE, Constants.ACTION_CHANNEL_DELETE },
+                { Constants.ACTION_PROGRAM_ADD, Constants.ACTION_PROGRAM_UPDATE, Constants.ACTION_PROGRAM_DELETE },
+                { Constants.ACTION_DVR_ADD, Constants.ACTION_DVR_UPDATE, Constants.ACTION_DVR_DELETE },
+                { Constants.ACTION_SERIES_DVR_ADD, Constants.ACTION_SERIES_DVR_UPDATE, Constants.ACTION_SERIES_DVR_DELETE },
+                { Constants.ACTION_TIMER_DVR_ADD, Constants.ACTION_TIMER_DVR_UPDATE, Constants.ACTION_TIMER_DVR_DELETE },
+                { Constants.ACTION_SUBSCRIPTION_ADD, Constants.ACTION_SUBSCRIPTION_UPDATE, Constants.ACTION_SUBSCRIPTION_DELETE },
+        };
+        for (String[] a : actions) {
+            CHANGES.put(a[0], ADDED);
+            CHANGES.put(a[1], UPDATED);
+            CHANGES.put(a[2], REMOVED);
+        }
+    }
+
+    // The changes are collected for about one frame before they are passed
+    // on, in milliseconds
+    private static final long CHANGE_DELAY = 16;
+
+    private final Object changeLock = new Object();
+    private ChangeSet pendingChanges;
+    private Handler uiHandler;
+
+    private final Runnable deliverChanges = new Runnable() {
+        public void run() {
+            ChangeSet changes;
+            synchronized (changeLock) {
+                changes = pendingChanges;
+                pendingChanges = null;
+            }
+            if (changes == null || changes.isEmpty()) {
+                return;
+            }
+            for (HTSListener l : new ArrayList<HTSListener>(listeners)) {
+                if (l instanceof HTSBatchListener) {
+                    ((HTSBatchListener) l).onChanges(changes);
+                }
+            }
+        }
+    };
+
+    // Entities that have not been confirmed by the server yet while a
+    // resync is in progress, null otherwise
+    private Set<Object> resyncPending;
+
     // The default minimum protocol version that shall be assume for a server
     // until it reports its own version
     private int protocolVersion = 10;
@@ -67,6 +137,7 @@ public class TVHClientApplication extends Application {
     public void onCreate() {
         super.onCreate();
         DatabaseHelper.init(this.getApplicationContext());
+        uiHandler = new Handler(Looper.getMainLooper());
     }
 
     /**
@@ -127,14 +198,48 @@ public class TVHClientApplication extends Application {
 
     /**
      * Sends the given action and possible object with the data to all
-     * registered listeners.
+     * registered listeners. The listeners that take the changes of the
+     * model in batches get them with the next change set instead.
      * 
      * @param action
      * @param obj
      */
     private void broadcastMessage(final String action, final Object obj) {
+        Integer change = CHANGES.get(action);
+        boolean batched = false;
         for (HTSListener l : listeners) {
-            l.onMessage(action, obj);
+            if (change != null && l instanceof HTSBatchListener) {
+                batched = true;
+            } else {
+                l.onMessage(action, obj);
+            }
+        }
+        if (batched) {
+            addChange(change, obj);
+        }
+    }
+
+    /**
+     * Adds the change to the change set of the current frame. The first
+     * change of a frame schedules its delivery.
+     */
+    private void addChange(int change, Object obj) {
+        synchronized (changeLock) {
+            if (pendingChanges == null) {
+                pendingChanges = new ChangeSet();
+                uiHandler.postDelayed(deliverChanges, CHANGE_DELAY);
+            }
+            switch (change) {
+            case ADDED:
+                pendingChanges.add(obj);
+                break;
+            case UPDATED:
+                pendingChanges.update(obj);
+                break;
+            case REMOVED:
+                pendingChanges.remove(obj);
+                break;
+            }
         }
     }
 
@@ -195,6 +300,7 @@ public class TVHClientApplication extends Application {
     public void addChannelTag(ChannelTag tag) {
         synchronized (tags) {
             tags.add(tag);
+            tagIndex.put(tag.id, tag);
         }
         if (!loading) {
             broadcastMessage(Constants.ACTION_TAG_ADD, tag);
@@ -210,6 +316,9 @@ public class TVHClientApplication extends Application {
     public void removeChannelTag(ChannelTag tag) {
         synchronized (tags) {
             tags.remove(tag);
+            if (tagIndex.get(tag.id) == tag) {
+                tagIndex.remove(tag.id);
+            }
         }
         if (!loading) {
             broadcastMessage(Constants.ACTION_TAG_DELETE, tag);
@@ -223,13 +332,9 @@ public class TVHClientApplication extends Application {
      * @param tag
      */
     public void removeChannelTag(long id) {
-        synchronized (tags) {
-            for (ChannelTag tag : getChannelTags()) {
-                if (tag.id == id) {
-                    removeChannelTag(tag);
-                    return;
-                }
-            }
+        ChannelTag tag = getChannelTag(id);
+        if (tag != null) {
+            removeChannelTag(tag);
         }
     }
 
@@ -241,13 +346,8 @@ public class TVHClientApplication extends Application {
      */
     public ChannelTag getChannelTag(long id) {
         synchronized (tags) {
-            for (ChannelTag tag : getChannelTags()) {
-                if (tag.id == id) {
-                    return tag;
-                }
-            }
+            return tagIndex.get(id);
         }
-        return null;
     }
 
     /**
@@ -270,6 +370,7 @@ public class TVHClientApplication extends Application {
     public void addChannel(Channel channel) {
         synchronized (channels) {
             channels.add(channel);
+            channelIndex.put(channel.id, channel);
         }
         if (!loading) {
             broadcastMessage(Constants.ACTION_CHANNEL_ADD, channel);
@@ -295,6 +396,9 @@ public class TVHClientApplication extends Application {
     public void removeChannel(Channel channel) {
         synchronized (channels) {
             channels.remove(channel);
+            if (channelIndex.get(channel.id) == channel) {
+                channelIndex.remove(channel.id);
+            }
         }
         if (!loading) {
             broadcastMessage(Constants.ACTION_CHANNEL_DELETE, channel);
@@ -309,13 +413,8 @@ public class TVHClientApplication extends Application {
      */
     public Channel getChannel(long id) {
         synchronized (channels) {
-            for (Channel ch : getChannels()) {
-                if (ch.id == id) {
-                    return ch;
-                }
-            }
+            return channelIndex.get(id);
         }
-        return null;
     }
 
     /**
@@ -325,13 +424,9 @@ public class TVHClientApplication extends Application {
      * @param id
      */
     public void removeChannel(long id) {
-        synchronized (channels) {
-            for (Channel ch : getChannels()) {
-                if (ch.id == id) {
-                    removeChannel(ch);
-                    return;
-                }
-            }
+        Channel ch = getChannel(id);
+        if (ch != null) {
+            removeChannel(ch);
         }
     }
 
@@ -393,6 +488,7 @@ public class TVHClientApplication extends Application {
     public void addRecording(Recording rec) {
         synchronized (recordings) {
             recordings.add(rec);
+            recordingIndex.put(rec.id, rec);
         }
         if (!loading) {
             broadcastMessage(Constants.ACTION_DVR_ADD, rec);
@@ -416,13 +512,8 @@ public class TVHClientApplication extends Application {
      */
     public Recording getRecording(long id) {
         synchronized (recordings) {
-            for (Recording rec : getRecordings()) {
-                if (rec.id == id) {
-                    return rec;
-                }
-            }
+            return recordingIndex.get(id);
         }
-        return null;
     }
 
     /**
@@ -486,6 +577,9 @@ public class TVHClientApplication extends Application {
     public void removeRecording(Recording rec) {
         synchronized (recordings) {
             recordings.remove(rec);
+            if (recordingIndex.get(rec.id) == rec) {
+                recordingIndex.remove(rec.id);
+            }
         }
         if (!loading) {
             broadcastMessage(Constants.ACTION_DVR_DELETE, rec);
@@ -499,13 +593,9 @@ public class TVHClientApplication extends Application {
      * @param id
      */
     public void removeRecording(long id) {
-        synchronized (recordings) {
-            for (Recording rec : getRecordings()) {
-                if (rec.id == id) {
-                    removeRecording(rec);
-                    return;
-                }
-            }
+        Recording rec = getRecording(id);
+        if (rec != null) {
+            removeRecording(rec);
         }
     }
 
@@ -531,6 +621,7 @@ public class TVHClientApplication extends Application {
     public void addSeriesRecording(SeriesRecording srec) {
         synchronized (seriesRecordings) {
             seriesRecordings.add(srec);
+            seriesRecordingIndex.put(srec.id, srec);
         }
         if (!loading) {
             broadcastMessage(Constants.ACTION_SERIES_DVR_ADD, srec);
@@ -554,14 +645,12 @@ public class TVHClientApplication extends Application {
      * @return
      */
     public SeriesRecording getSeriesRecording(String id) {
+        if (id == null) {
+            return null;
+        }
         synchronized (seriesRecordings) {
-            for (SeriesRecording srec : getSeriesRecordings()) {
-                if (srec.id == id) {
-                    return srec;
-                }
-            }
+            return seriesRecordingIndex.get(id);
         }
-        return null;
     }
 
     /**
@@ -574,6 +663,9 @@ public class TVHClientApplication extends Application {
     public void removeSeriesRecording(SeriesRecording srec) {
         synchronized (seriesRecordings) {
             seriesRecordings.remove(srec);
+            if (seriesRecordingIndex.get(srec.id) == srec) {
+                seriesRecordingIndex.remove(srec.id);
+            }
         }
         if (!loading) {
             broadcastMessage(Constants.ACTION_SERIES_DVR_DELETE, srec);
@@ -587,13 +679,9 @@ public class TVHClientApplication extends Application {
      * @param id
      */
     public void removeSeriesRecording(String id) {
-        synchronized (seriesRecordings) {
-            for (SeriesRecording srec : getSeriesRecordings()) {
-                if (srec.id.equals(id)) {
-                    removeSeriesRecording(srec);
-                    return;
-                }
-            }
+        SeriesRecording srec = getSeriesRecording(id);
+        if (srec != null) {
+            removeSeriesRecording(srec);
         }
     }
 
@@ -619,6 +707,7 @@ public class TVHClientApplication extends Application {
     public void addTimerRecording(TimerRecording rec) {
         synchronized (timerRecordings) {
             timerRecordings.add(rec);
+            timerRecordingIndex.put(rec.id, rec);
         }
         if (!loading) {
             broadcastMessage(Constants.ACTION_TIMER_DVR_ADD, rec);
@@ -642,14 +731,12 @@ public class TVHClientApplication extends Application {
      * @return
      */
     public TimerRecording getTimerRecording(String id) {
+        if (id == null) {
+            return null;
+        }
         synchronized (timerRecordings) {
-            for (TimerRecording rec : getTimerRecordings()) {
-                if (rec.id.equals(id)) {
-                    return rec;
-                }
-            }
+            return timerRecordingIndex.get(id);
         }
-        return null;
     }
 
     /**
@@ -662,6 +749,9 @@ public class TVHClientApplication extends Application {
     public void removeTimerRecording(TimerRecording rec) {
         synchronized (timerRecordings) {
             timerRecordings.remove(rec);
+            if (timerRecordingIndex.get(rec.id) == rec) {
+                timerRecordingIndex.remove(rec.id);
+            }
         }
         if (!loading) {
             broadcastMessage(Constants.ACTION_TIMER_DVR_DELETE, rec);
@@ -675,13 +765,9 @@ public class TVHClientApplication extends Application {
      * @param id
      */
     public void removeTimerRecording(String id) {
-        synchronized (timerRecordings) {
-            for (TimerRecording rec : getTimerRecordings()) {
-                if (rec.id.equals(id)) {
-                    removeTimerRecording(rec);
-                    return;
-                }
-            }
+        TimerRecording rec = getTimerRecording(id);
+        if (rec != null) {
+            removeTimerRecording(rec);
         }
     }
 
@@ -703,6 +789,12 @@ public class TVHClientApplication extends Application {
      * @param b
      */
     public void setLoading(boolean b) {
+        if (b) {
+            // The listeners load everything again once loading has finished
+            synchronized (changeLock) {
+                pendingChanges = null;
+            }
+        }
         if (loading != b) {
             broadcastMessage(Constants.ACTION_LOADING, b);
         }
@@ -714,26 +806,145 @@ public class TVHClientApplication extends Application {
      * lists and sub lists. For the channel tags the default value will be set.
      */
     public void clearAll() {
-        tags.clear();
-        recordings.clear();
-        seriesRecordings.clear();
-        timerRecordings.clear();
+        synchronized (this) {
+            resyncPending = null;
+        }
+        synchronized (recordings) {
+            recordings.clear();
+            recordingIndex.clear();
+        }
+        synchronized (seriesRecordings) {
+            seriesRecordings.clear();
+            seriesRecordingIndex.clear();
+        }
+        synchronized (timerRecordings) {
+            timerRecordings.clear();
+            timerRecordingIndex.clear();
+        }
 
-        for (Channel ch : channels) {
-            ch.epg.clear();
-            ch.recordings.clear();
+        synchronized (channels) {
+            for (Channel ch : channels) {
+                ch.epg.clear();
+                ch.recordings.clear();
+            }
+            channels.clear();
+            channelIndex.clear();
         }
-        channels.clear();
 
-        for (Subscription s : subscriptions) {
-            s.streams.clear();
+        synchronized (subscriptions) {
+            for (Subscription s : subscriptions) {
+                s.streams.clear();
+            }
+            subscriptions.clear();
+            subscriptionIndex.clear();
         }
-        subscriptions.clear();
 
         ChannelTag tag = new ChannelTag();
         tag.id = 0;
         tag.name = getString(R.string.all_channels);
-        tags.add(tag);
+        synchronized (tags) {
+            tags.clear();
+            tagIndex.clear();
+            tags.add(tag);
+            tagIndex.put(tag.id, tag);
+        }
+    }
+
+    /**
+     * Prepares the lists for a resync after a reconnect to the same server.
+     * Unlike {@link #clearAll()} the channels, tags and recordings and the
+     * loaded programs are kept. Everything the server sends again during the
+     * initial sync has to be confirmed with {@link #markSynced(Object)}, the
+     * rest is removed by {@link #finishResync()}. Subscriptions do not
+     * survive a reconnect and are cleared.
+     */
+    public void startResync() {
+        Set<Object> pending = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        synchronized (tags) {
+            for (ChannelTag tag : tags) {
+                // The default tag is not sent by the server
+                if (tag.id != 0) {
+                    pending.add(tag);
+                }
+            }
+        }
+        synchronized (channels) {
+            pending.addAll(channels);
+        }
+        synchronized (recordings) {
+            pending.addAll(recordings);
+        }
+        synchronized (seriesRecordings) {
+            pending.addAll(seriesRecordings);
+        }
+        synchronized (timerRecordings) {
+            pending.addAll(timerRecordings);
+        }
+        synchronized (subscriptions) {
+            for (Subscription s : subscriptions) {
+                s.streams.clear();
+            }
+            subscriptions.clear();
+            subscriptionIndex.clear();
+        }
+        synchronized (this) {
+            resyncPending = pending;
+        }
+    }
+
+    /**
+     * Confirms that the given tag, channel or recording still exists on the
+     * server. Does nothing if no resync is in progress.
+     * 
+     * @param o
+     */
+    public synchronized void markSynced(Object o) {
+        if (resyncPending != null) {
+            resyncPending.remove(o);
+        }
+    }
+
+    /**
+     * @return true between {@link #startResync()} and {@link #finishResync()}
+     */
+    public synchronized boolean isResyncing() {
+        return resyncPending != null;
+    }
+
+    /**
+     * Removes everything that has not been confirmed since
+     * {@link #startResync()}, these have been deleted on the server while
+     * the connection was down.
+     */
+    public void finishResync() {
+        Set<Object> pending;
+        synchronized (this) {
+            pending = resyncPending;
+            resyncPending = null;
+        }
+        if (pending == null) {
+            return;
+        }
+        for (Object o : pending) {
+            if (o instanceof ChannelTag) {
+                removeChannelTag((ChannelTag) o);
+            } else if (o instanceof Channel) {
+                Channel ch = (Channel) o;
+                ch.epg.clear();
+                ch.recordings.clear();
+                removeChannel(ch);
+            } else if (o instanceof Recording) {
+                Recording rec = (Recording) o;
+                if (rec.channel != null) {
+                    rec.channel.recordings.remove(rec);
+                }
+                removeRecording(rec);
+            } else if (o instanceof SeriesRecording) {
+                removeSeriesRecording((SeriesRecording) o);
+            } else if (o instanceof TimerRecording) {
+                removeTimerRecording((TimerRecording) o);
+            }
+        }
     }
 
     /**
@@ -746,6 +957,7 @@ public class TVHClientApplication extends Application {
     public void addSubscription(Subscription s) {
         synchronized (subscriptions) {
             subscriptions.add(s);
+            subscriptionIndex.put(s.id, s);
         }
         if (!loading) {
             broadcastMessage(Constants.ACTION_SUBSCRIPTION_ADD, s);
@@ -772,6 +984,9 @@ public class TVHClientApplication extends Application {
         s.streams.clear();
         synchronized (subscriptions) {
             subscriptions.remove(s);
+            if (subscriptionIndex.get(s.id) == s) {
+                subscriptionIndex.remove(s.id);
+            }
         }
         if (!loading) {
             broadcastMessage(Constants.ACTION_SUBSCRIPTION_DELETE, s);
@@ -786,13 +1001,8 @@ public class TVHClientApplication extends Application {
      */
     public Subscription getSubscription(long id) {
         synchronized (subscriptions) {
-            for (Subscription s : getSubscriptions()) {
-                if (s.id == id) {
-                    return s;
-                }
-            }
+            return subscriptionIndex.get(id);
         }
-        return null;
     }
 
     /**
@@ -803,13 +1013,9 @@ public class TVHClientApplication extends Application {
      * @param id
      */
     public void removeSubscription(long id) {
-        synchronized (subscriptions) {
-            for (Subscription s : getSubscriptions()) {
-                if (s.id == id) {
-                    removeSubscription(s);
-                    return;
-                }
-            }
+        Subscription s = getSubscription(id);
+        if (s != null) {
+            removeSubscription(s);
         }
     }
 
@@ -21,6 +21,7 @@ package org.tvheadend.tvhclient.fragments;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import org.tvheadend.tvhclient.Constants;
 import org.tvheadend.tvhclient.PlaybackSelectionActivity;
@@ -33,10 +34,12 @@ import org.tvheadend.tvhclient.intent.SearchIMDbIntent;
 import org.tvheadend.tvhclient.interfaces.FragmentControlInterface;
 import org.tvheadend.tvhclient.interfaces.FragmentScrollInterface;
 import org.tvheadend.tvhclient.interfaces.FragmentStatusInterface;
-import org.tvheadend.tvhclient.interfaces.HTSListener;
+import org.tvheadend.tvhclient.interfaces.HTSBatchListener;
+import org.tvheadend.tvhclient.model.ChangeSet;
 import org.tvheadend.tvhclient.model.Channel;
 import org.tvheadend.tvhclient.model.ChannelTag;
 import org.tvheadend.tvhclient.model.Program;
+import org.tvheadend.tvhclient.model.Recording;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -62,7 +65,7 @@ import android.widget.AdapterView.OnItemClickListener;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
 
-public class ChannelListFragment extends Fragment implements HTSListener, FragmentControlInterface {
+public class ChannelListFragment extends Fragment implements HTSBatchListener, FragmentControlInterface {
 
     private final static String TAG = ChannelListFragment.class.getSimpleName();
 
@@ -462,53 +465,45 @@ public class ChannelListFragment extends Fragment implements HTSListener, Fragme
                     }
                 }
             });
-        } else if (action.equals(Constants.ACTION_CHANNEL_ADD)) {
-            activity.runOnUiThread(new Runnable() {
-                public void run() {
-                    adapter.add((Channel) obj);
-                    adapter.sort(Utils.getChannelSortOrder(activity));
-                    adapter.notifyDataSetChanged();
-                }
-            });
-        } else if (action.equals(Constants.ACTION_CHANNEL_DELETE)) {
-            activity.runOnUiThread(new Runnable() {
-                public void run() {
-                    adapter.remove((Channel) obj);
-                    adapter.notifyDataSetChanged();
-                }
-            });
-        } else if (action.equals(Constants.ACTION_CHANNEL_UPDATE)) {
-            activity.runOnUiThread(new Runnable() {
-                public void run() {
-                    adapter.update((Channel) obj);
-                    adapter.notifyDataSetChanged();
-                }
-            });
-        } else if (action.equals(Constants.ACTION_TAG_ADD)) {
-            activity.runOnUiThread(new Runnable() {
-                public void run() {
-                    ChannelTag tag = (ChannelTag) obj;
-                    tagAdapter.add(tag);
-                }
-            });
-        } else if (action.equals(Constants.ACTION_TAG_DELETE)) {
-            activity.runOnUiThread(new Runnable() {
-                public void run() {
-                    ChannelTag tag = (ChannelTag) obj;
-                    tagAdapter.remove(tag);
-                }
-            });
-        } else if (action.equals(Constants.ACTION_PROGRAM_UPDATE)
-                || action.equals(Constants.ACTION_PROGRAM_DELETE)
-                || action.equals(Constants.ACTION_DVR_ADD)
-                || action.equals(Constants.ACTION_DVR_UPDATE)) {
-            // An existing program has been updated
-            activity.runOnUiThread(new Runnable() {
-                public void run() {
-                    adapter.notifyDataSetChanged();
-                }
-            });
-        } 
+        }
+    }
+
+    /**
+     * Applies all changes of the channels and tags at once and redraws the
+     * list once, instead of once for every program of a program guide
+     * update.
+     */
+    @Override
+    public void onChanges(ChangeSet changes) {
+        for (ChannelTag tag : changes.getAdded(ChannelTag.class)) {
+            tagAdapter.add(tag);
+        }
+        for (ChannelTag tag : changes.getRemoved(ChannelTag.class)) {
+            tagAdapter.remove(tag);
+        }
+
+        List<Channel> added = changes.getAdded(Channel.class);
+        for (Channel ch : added) {
+            adapter.add(ch);
+        }
+        for (Channel ch : changes.getRemoved(Channel.class)) {
+            adapter.remove(ch);
+        }
+        for (Channel ch : changes.getUpdated(Channel.class)) {
+            adapter.update(ch);
+        }
+        if (!added.isEmpty()) {
+            adapter.sort(Utils.getChannelSortOrder(activity));
+        }
+
+        // The programs and recordings are shown with their channel
+        if (changes.contains(Channel.class)
+                || !changes.getUpdated(Program.class).isEmpty()
+                || !changes.getRemoved(Program.class).isEmpty()
+                || !changes.getAdded(Recording.class).isEmpty()
+                || !changes.getUpdated(Recording.class).isEmpty()) {
+            adapter.notifyDataSetChanged();
+        }
     }
 
     @Override
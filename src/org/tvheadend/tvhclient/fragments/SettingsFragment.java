@@ -132,6 +132,12 @@ public class SettingsFragment extends PreferenceFragment implements OnSharedPref
                 settingsInterface.reconnect();
             }
         }
+        // The program guide window is set when connecting
+        if (key.equals("epgBulkSyncPref") || key.equals("epgBulkSyncHours")) {
+            if (settingsInterface != null) {
+                settingsInterface.reconnect();
+            }
+        }
     }
 
     /**
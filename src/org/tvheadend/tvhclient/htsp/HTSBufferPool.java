@@ -0,0 +1,172 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Holds the direct buffers that outgoing messages are serialized into. A
+ * buffer is taken from the pool before a message is written and given back
+ * once it has been sent completely, so the same few buffers are used over
+ * and over again instead of allocating direct memory for every request.
+ * 
+ * Buffers are kept in size classes of powers of two. Frames larger than the
+ * largest class are rare, they get a heap buffer that is simply dropped
+ * after it has been written.
+ */
+public class HTSBufferPool {
+
+    // The smallest size class, almost all requests fit into it
+    private static final int MIN_CAPACITY = 4 * 1024;
+
+    // The largest size class that is pooled
+    private static final int MAX_CAPACITY = 1024 * 1024;
+
+    // Each class keeps at most this many bytes, which is a single buffer
+    // of the largest class and hundreds of the smallest
+    private static final int MAX_CLASS_BYTES = 1024 * 1024;
+
+    private final ArrayDeque<ByteBuffer>[] free;
+    private final int[] maxFree;
+
+    private long hits;
+    private long misses;
+    private long outstandingBytes;
+    private long peakOutstandingBytes;
+
+    @SuppressWarnings("unchecked")
+    public HTSBufferPool() {
+        int classes = sizeClass(MAX_CAPACITY) + 1;
+        free = new ArrayDeque[classes];
+        maxFree = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            free[i] = new ArrayDeque<ByteBuffer>();
+            maxFree[i] = Math.max(1, MAX_CLASS_BYTES / capacityOf(i));
+        }
+    }
+
+    /**
+     * Returns a cleared buffer that can hold at least the given number of
+     * bytes. A pooled buffer of the matching size class is used if there is
+     * one, otherwise a new one is allocated.
+     * 
+     * @param size
+     * @return
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        ByteBuffer buf;
+        if (size > MAX_CAPACITY) {
+            misses++;
+            buf = ByteBuffer.allocate(size);
+        } else {
+            int c = sizeClass(size);
+            buf = free[c].pollFirst();
+            if (buf != null) {
+                hits++;
+                buf.clear();
+            } else {
+                misses++;
+                buf = ByteBuffer.allocateDirect(capacityOf(c));
+            }
+        }
+        outstandingBytes += buf.capacity();
+        if (outstandingBytes > peakOutstandingBytes) {
+            peakOutstandingBytes = outstandingBytes;
+        }
+        return buf;
+    }
+
+    /**
+     * Gives the buffer back to the pool once its content has been written.
+     * 
+     * @param buf
+     */
+    public synchronized void release(ByteBuffer buf) {
+        outstandingBytes -= buf.capacity();
+        if (!buf.isDirect() || buf.capacity() > MAX_CAPACITY) {
+            return;
+        }
+        int c = sizeClass(buf.capacity());
+        if (capacityOf(c) == buf.capacity() && free[c].size() < maxFree[c]) {
+            // The most recently used buffer is handed out first
+            free[c].addFirst(buf);
+        }
+    }
+
+    /**
+     * @return the share of requests that were served from the pool
+     */
+    public synchronized float getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (float) hits / total;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the bytes of all buffers that have been handed out and not
+     *         been released yet
+     */
+    public synchronized long getOutstandingBytes() {
+        return outstandingBytes;
+    }
+
+    public synchronized long getPeakOutstandingBytes() {
+        return peakOutstandingBytes;
+    }
+
+    /**
+     * @return the bytes of all buffers that are kept for reuse
+     */
+    public synchronized long getPooledBytes() {
+        long bytes = 0;
+        for (int i = 0; i < free.length; i++) {
+            bytes += (long) free[i].size() * capacityOf(i);
+        }
+        return bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "hits=" + hits + " misses=" + misses
+                + " hitRate=" + Math.round(getHitRate() * 100) + "%"
+                + " outstanding=" + outstandingBytes
+                + " peakOutstanding=" + peakOutstandingBytes
+                + " pooled=" + getPooledBytes();
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= MIN_CAPACITY) {
+            return 0;
+        }
+        // Number of doublings of the smallest class needed to hold size
+        return 32 - Integer.numberOfLeadingZeros((size - 1) / MIN_CAPACITY);
+    }
+
+    private static int capacityOf(int sizeClass) {
+        return MIN_CAPACITY << sizeClass;
+    }
+}
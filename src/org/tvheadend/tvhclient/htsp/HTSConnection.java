@@ -19,6 +19,7 @@
 package org.tvheadend.tvhclient.htsp;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
@@ -26,8 +27,16 @@ import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -35,27 +44,101 @@ import org.tvheadend.tvhclient.Constants;
 import org.tvheadend.tvhclient.interfaces.HTSConnectionListener;
 
 import android.util.Log;
-import android.util.SparseArray;
 
 public class HTSConnection extends Thread {
 
     private static final String TAG = HTSConnection.class.getSimpleName();
+
+    // Size of the receive buffer that is kept for the whole connection.
+    // Larger messages get a buffer of their own while they are read.
+    private static final int RECEIVE_BUFFER_SIZE = 64 * 1024;
+
+    // The largest message that is accepted by default. This must leave room
+    // for the 8 MB chunks that are requested with fileRead.
+    private static final int MAX_FRAME_SIZE = 32 * 1024 * 1024;
+
+    // Limits how far ahead queued messages are serialized for a single
+    // write. The first message is always taken whatever its size.
+    private static final int MAX_GATHER_MESSAGES = 64;
+    private static final int MAX_GATHER_BYTES = 256 * 1024;
+
+    // Time in milliseconds to wait for the reply to a request that has been
+    // sent with a response handler and no timeout of its own
+    public static final long DEFAULT_TIMEOUT = 60000;
+
+    // Time in milliseconds to wait for each reply during the authentication
+    private static final long AUTH_TIMEOUT = 5000;
+
+    // The deadlines of the requests are checked with this resolution. The
+    // wheel turns once every 32 seconds.
+    private static final long TIMEOUT_TICK = 250;
+    private static final int TIMEOUT_SLOTS = 128;
+
+    // A probe is sent once nothing has been received for this many
+    // milliseconds. The connection counts as stalled when nothing arrives
+    // within the stall timeout after the probe, which is at least the
+    // minimum and otherwise derived from the round trip time of the probes.
+    private static final long KEEPALIVE_INTERVAL = 10000;
+    private static final long MIN_STALL_TIMEOUT = 5000;
+
+    // Received messages are handled by these workers, each of them takes
+    // this many messages before the socket is not read anymore
+    private static final int DISPATCH_WORKERS = 3;
+    private static final int DISPATCH_QUEUE_SIZE = 256;
+
+    // Keys of the messages that must be handled in order. The kind of the
+    // entity is kept in the upper bits, the id in the lower ones.
+    private static final long NO_KEY = -1;
+    private static final long CHANNEL_KEY = 1L << 56;
+    private static final long SUBSCRIPTION_KEY = 2L << 56;
+    private static final long EVENT_KEY = 3L << 56;
+
     private volatile boolean running;
     private Lock lock;
     private SocketChannel socketChannel;
-    private ByteBuffer inBuf;
-    private int seq;
+    private HTSFrameReader frameReader;
+    private HTSBufferPool bufferPool;
+    private ByteBuffer[] gatherBuffers;
+    private AtomicInteger seq;
     private String clientName;
     private String clientVersion;
     private boolean loadInitialData;
-    private int protocolVersion;
-    private String webRoot;
+    private volatile long lastUpdate;
+    private volatile long epgMaxTime;
+    private volatile int protocolVersion;
+    private volatile String webRoot;
     
     private HTSConnectionListener listener;
-    private SparseArray<HTSResponseHandler> responseHandelers;
+    private ConcurrentHashMap<Integer, HTSResponseFuture> responseHandelers;
+    private HTSTimeoutWheel timeoutWheel;
+    // The windows by the methods of their requests, all other requests go
+    // through the default window
+    private ConcurrentHashMap<String, HTSRequestWindow> requestWindows;
+    private HTSRequestWindow defaultWindow;
+    // Used by the selector thread to take messages from the send queue
+    private ArrayList<HTSMessage> arrivedMessages;
+    private HTSDispatcher dispatcher;
+    // The channels of the recordings, so that the updates of a recording
+    // are handled in order with the ones of its channel. Only used by the
+    // selector thread.
+    private HashMap<Long, Long> recordingChannels;
+    // Filled by any thread that sends a message
+    private HTSSendQueue sendQueue;
+    // Only used by the selector thread. The lanes hold the requests that
+    // may be written, the message queue those that are being written in
+    // this order, the first one possibly in part already.
+    private HTSSendLanes sendLanes;
     private LinkedList<HTSMessage> messageQueue;
-    private boolean auth;
+    private ConcurrentHashMap<String, Integer> requestPriorities;
+    private volatile boolean auth;
+    private volatile boolean accessDenied;
     private Selector selector;
+    private SelectionKey selectionKey;
+    // The round trip times of the keepalive probes. Only used by the
+    // selector thread, except for reading the round trip time.
+    private HTSRequestWindow probeWindow;
+    private long lastReceiveTime;
+    private long probeTime;
 
     public HTSConnection(HTSConnectionListener listener, String clientName, String clientVersion, boolean loadInitialData) {
         
@@ -64,10 +147,34 @@ public class HTSConnection extends Thread {
         
         running = false;
         lock = new ReentrantLock();
-        inBuf = ByteBuffer.allocateDirect(1024 * 1024);
-        inBuf.limit(4);
-        responseHandelers = new SparseArray<HTSResponseHandler>();
+        frameReader = new HTSFrameReader(RECEIVE_BUFFER_SIZE, MAX_FRAME_SIZE);
+        bufferPool = new HTSBufferPool();
+        gatherBuffers = new ByteBuffer[MAX_GATHER_MESSAGES];
+        seq = new AtomicInteger();
+        responseHandelers = new ConcurrentHashMap<Integer, HTSResponseFuture>();
+        timeoutWheel = new HTSTimeoutWheel(TIMEOUT_TICK, TIMEOUT_SLOTS);
+        requestWindows = new ConcurrentHashMap<String, HTSRequestWindow>();
+        defaultWindow = new HTSRequestWindow("default", 0, 0);
+        arrivedMessages = new ArrayList<HTSMessage>();
+        recordingChannels = new HashMap<Long, Long>();
+        sendLanes = new HTSSendLanes();
         messageQueue = new LinkedList<HTSMessage>();
+        requestPriorities = new ConcurrentHashMap<String, Integer>();
+
+        // Bulk requests that can pile up by the hundred. Only a few of them
+        // are on the wire at a time so that other requests get through.
+        addRequestWindow(new HTSRequestWindow("events", 4, 64), "getEvents");
+        addRequestWindow(new HTSRequestWindow("files", 1, 4), "fileRead");
+        probeWindow = new HTSRequestWindow("probes", 0, 0);
+        addRequestWindow(probeWindow, "getSysTime");
+
+        // Requests the user waits for go out first, the ones that only fill
+        // in data last. Everything else is normal.
+        setRequestPriority(HTSSendLanes.INTERACTIVE, "hello", "authenticate", "enableAsyncMetadata",
+                "subscribe", "unsubscribe", "subscriptionSpeed", "subscriptionSkip", "subscriptionFilterStream",
+                "feedback", "getTicket", "addDvrEntry", "updateDvrEntry", "cancelDvrEntry",
+                "deleteDvrEntry", "fileOpen", "fileClose", "getSysTime");
+        setRequestPriority(HTSSendLanes.BULK, "getEvents", "fileRead", "getDiskSpace", "getDvrCutpoints");
 
         this.listener = listener;
         this.clientName = clientName;
@@ -95,11 +202,18 @@ public class HTSConnection extends Thread {
         lock.lock();
         try {
             selector = Selector.open();
+            sendQueue = new HTSSendQueue(selector);
+            dispatcher = new HTSDispatcher(TAG, DISPATCH_WORKERS, DISPATCH_QUEUE_SIZE,
+                    new HTSDispatcher.ErrorHandler() {
+                        public void onError(Throwable t) {
+                            Log.e(TAG, "Can't handle message", t);
+                        }
+                    });
             socketChannel = SocketChannel.open();
             socketChannel.configureBlocking(false);
             socketChannel.socket().setKeepAlive(true);
             socketChannel.socket().setSoTimeout(5000);
-            socketChannel.register(selector, SelectionKey.OP_CONNECT, signal);
+            selectionKey = socketChannel.register(selector, SelectionKey.OP_CONNECT, signal);
             socketChannel.connect(new InetSocketAddress(hostname, port));
 
             running = true;
@@ -139,63 +253,50 @@ public class HTSConnection extends Thread {
         }
 
         auth = false;
-        final HTSMessage authMessage = new HTSMessage();
-        // Either load all initial data or just authenticate 
-        authMessage.setMethod(loadInitialData ? "enableAsyncMetadata" : "authenticate");
-        authMessage.putField("username", username);
-        final HTSResponseHandler authHandler = new HTSResponseHandler() {
-            public void handleResponse(HTSMessage response) {
-                auth = response.getInt("noaccess", 0) != 1;
-                if (!auth) {
-                    listener.onError(Constants.ACTION_CONNECTION_STATE_AUTH);
-                } else {
-                    if (!loadInitialData) {
-                        listener.onError(Constants.ACTION_CONNECTION_STATE_OK);
-                    }
-                }
-                synchronized (authMessage) {
-                    authMessage.notify();
-                }
-            }
-        };
-
         HTSMessage helloMessage = new HTSMessage();
         helloMessage.setMethod("hello");
         helloMessage.putField("clientname", this.clientName);
         helloMessage.putField("clientversion", this.clientVersion);
         helloMessage.putField("htspversion", HTSMessage.HTSP_VERSION);
         helloMessage.putField("username", username);
-        sendMessage(helloMessage, new HTSResponseHandler() {
-
-            public void handleResponse(HTSMessage response) {
-            	
-            	protocolVersion = response.getInt("htspversion");
-            	webRoot = response.getString("webroot", "");
-            	Log.d(TAG, "HTSP protocol version is " + protocolVersion);
-            	
-                MessageDigest md;
-                try {
-                    md = MessageDigest.getInstance("SHA1");
-                    md.update(password.getBytes());
-                    md.update(response.getByteArray("challenge"));
-                    authMessage.putField("digest", md.digest());
-                    sendMessage(authMessage, authHandler);
-                } catch (NoSuchAlgorithmException ex) {
-                    return;
-                }
+
+        try {
+            HTSMessage response = sendMessage(helloMessage, null, AUTH_TIMEOUT).await();
+            protocolVersion = response.getInt("htspversion");
+            webRoot = response.getString("webroot", "");
+            Log.d(TAG, "HTSP protocol version is " + protocolVersion);
+
+            MessageDigest md = MessageDigest.getInstance("SHA1");
+            md.update(password.getBytes());
+            md.update(response.getByteArray("challenge"));
+
+            HTSMessage authMessage = new HTSMessage();
+            // Either load all initial data or just authenticate 
+            authMessage.setMethod(loadInitialData ? "enableAsyncMetadata" : "authenticate");
+            authMessage.putField("username", username);
+            authMessage.putField("digest", md.digest());
+            if (loadInitialData && lastUpdate > 0) {
+                authMessage.putField("lastUpdate", lastUpdate);
+            }
+            if (loadInitialData && epgMaxTime > 0) {
+                authMessage.putField("epg", 1);
+                authMessage.putField("epgMaxTime", epgMaxTime);
             }
-        });
 
-        synchronized (authMessage) {
-            try {
-                authMessage.wait(5000);
-                if (!auth) {
-                    listener.onError(Constants.ACTION_CONNECTION_STATE_TIMEOUT);
-                }
-                return;
-            } catch (InterruptedException ex) {
-                return;
+            response = sendMessage(authMessage, null, AUTH_TIMEOUT).await();
+            auth = response.getInt("noaccess", 0) != 1;
+            accessDenied = !auth;
+            if (!auth) {
+                listener.onError(Constants.ACTION_CONNECTION_STATE_AUTH);
+            } else if (!loadInitialData) {
+                listener.onError(Constants.ACTION_CONNECTION_STATE_OK);
             }
+        } catch (IOException ex) {
+            Log.e(TAG, "Can't authenticate", ex);
+            listener.onError(Constants.ACTION_CONNECTION_STATE_TIMEOUT);
+        } catch (NoSuchAlgorithmException ex) {
+            Log.e(TAG, "Can't create digest", ex);
+            listener.onError(Constants.ACTION_CONNECTION_STATE_TIMEOUT);
         }
     }
 
@@ -203,35 +304,128 @@ public class HTSConnection extends Thread {
         return auth;
     }
 
-    public void sendMessage(HTSMessage message, HTSResponseHandler listener) {
+    /**
+     * @return true if the server has rejected the credentials
+     */
+    public boolean isAccessDenied() {
+        return accessDenied;
+    }
+
+    /**
+     * Sets the time of the last update the client already has from an
+     * earlier connection to the same server. It is passed on with
+     * enableAsyncMetadata so the server only sends the events that have
+     * changed since. Must be called before {@link #authenticate}.
+     * 
+     * @param lastUpdate
+     *            Server time in seconds, 0 for a full sync
+     */
+    public void setLastUpdate(long lastUpdate) {
+        this.lastUpdate = lastUpdate;
+    }
+
+    /**
+     * Lets the server send the program guide with the initial sync, as
+     * eventAdd messages for all events that start before the given time.
+     * Later changes to these events are sent as they happen. Must be called
+     * before {@link #authenticate}.
+     * 
+     * @param epgMaxTime
+     *            Server time in seconds, 0 to leave out the program guide
+     */
+    public void setEpgMaxTime(long epgMaxTime) {
+        this.epgMaxTime = epgMaxTime;
+    }
+
+    /**
+     * Queues the message for sending. The listener is called if the reply
+     * arrives within the {@link #DEFAULT_TIMEOUT}.
+     * 
+     * @param message
+     * @param listener
+     * @return the future of the reply
+     */
+    public HTSResponseFuture sendMessage(HTSMessage message, HTSResponseHandler listener) {
+        return sendMessage(message, listener, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Queues the message for sending. This never blocks, the message is
+     * serialized and written by the selector thread. The returned future
+     * fails right away when too many requests of the same class are held
+     * back already, see {@link HTSRequestWindow}. It also fails when there
+     * is no reply within the timeout or when the connection is lost. The
+     * listener is only called with a reply.
+     * 
+     * @param message
+     * @param listener
+     *            Called on one of the workers with the reply, may be null
+     * @param timeout
+     *            Time in milliseconds to wait for the reply
+     * @return the future of the reply
+     */
+    public HTSResponseFuture sendMessage(HTSMessage message, HTSResponseHandler listener, long timeout) {
+        return sendMessage(message, listener, timeout, requestOrderKey(message));
+    }
+
+    /**
+     * Queues the message for sending like
+     * {@link #sendMessage(HTSMessage, HTSResponseHandler)}. The listener is
+     * called in order with the received messages about the given channel,
+     * for requests like getEvents that do not tell the channel themselves.
+     * 
+     * @param message
+     * @param channelId
+     *            The channel the reply is about
+     * @param listener
+     *            Called on one of the workers with the reply, may be null
+     * @return the future of the reply
+     */
+    public HTSResponseFuture sendMessage(HTSMessage message, long channelId, HTSResponseHandler listener) {
+        return sendMessage(message, listener, DEFAULT_TIMEOUT, CHANNEL_KEY | channelId);
+    }
+
+    private HTSResponseFuture sendMessage(HTSMessage message, HTSResponseHandler listener, long timeout, long orderKey) {
+        HTSResponseFuture future = new HTSResponseFuture(listener, timeout);
         if (!isConnected()) {
-            return;
+            future.fail(new IOException("Not connected"));
+            return future;
         }
 
-        lock.lock();
-        try {
-            seq++;
-            message.putField("seq", seq);
-            responseHandelers.put(seq, listener);
-            socketChannel.register(selector, SelectionKey.OP_WRITE | SelectionKey.OP_READ | SelectionKey.OP_CONNECT);
-            messageQueue.add(message);
-            selector.wakeup();
-        } catch (Exception ex) {
-            Log.e(TAG, "Can't transmit message", ex);
-        } finally {
-            lock.unlock();
+        // Callers like the UI thread must never wait here, a request that
+        // does not fit into its window is rejected
+        HTSRequestWindow window = getRequestWindow(message.getMethod());
+        future.setWindow(window);
+        future.setOrderKey(orderKey);
+        if (!window.enqueue()) {
+            future.fail(new IOException("Too many " + window.getName() + " requests"));
+            return future;
+        }
+
+        int s = seq.incrementAndGet();
+        message.putField("seq", s);
+        future.setSeq(s);
+        responseHandelers.put(s, future);
+        timeoutWheel.schedule(future);
+        sendQueue.offer(message);
+
+        // The selector thread may have failed the pending requests just
+        // before this one was added
+        if (!running && responseHandelers.remove(s, future)) {
+            future.fail(new IOException("Connection lost"));
         }
+        return future;
     }
 
     public void close() {
         lock.lock();
         try {
-            responseHandelers.clear();
-            messageQueue.clear();
             auth = false;
             running = false;
-            socketChannel.register(selector, 0);
+            // The selector thread notices the closed channel and clears the
+            // queues on its way out
             socketChannel.close();
+            selector.wakeup();
         } catch (Exception ex) {
 //            Log.e(TAG, "Can't close connection", ex);
         } finally {
@@ -243,7 +437,8 @@ public class HTSConnection extends Thread {
     public void run() {
         while (running) {
             try {
-                selector.select(5000);
+                // Wake up in time to fail the requests that are overdue
+                selector.select(timeoutWheel.isEmpty() ? 5000 : TIMEOUT_TICK);
             } catch (IOException ex) {
                 Log.e(TAG, "Can't select socket", ex);
                 listener.onError(Constants.ACTION_CONNECTION_STATE_LOST);
@@ -251,8 +446,6 @@ public class HTSConnection extends Thread {
                 continue;
             }
 
-            lock.lock();
-
             try {
                 Iterator<SelectionKey> it = selector.selectedKeys().iterator();
                 while (it.hasNext()) {
@@ -260,73 +453,498 @@ public class HTSConnection extends Thread {
                     it.remove();
                     processTcpSelectionKey(selKey);
                 }
+                long now = System.nanoTime();
+                timeoutWheel.expire(now, timeoutListener);
+                if (isStalled(now)) {
+                    Log.w(TAG, "Nothing received for " + (now - lastReceiveTime) / 1000000 + "ms, connection stalled");
+                    listener.onError(Constants.ACTION_CONNECTION_STATE_LOST);
+                    running = false;
+                    break;
+                }
 
-                int ops = SelectionKey.OP_READ;
-                if (!messageQueue.isEmpty()) {
-                    ops |= SelectionKey.OP_WRITE;
+                // Write the new messages right away, OP_WRITE is only
+                // needed while the socket buffer is full
+                takeMessages();
+                if (hasMessagesToWrite() && socketChannel.isConnected()) {
+                    writeMessages(socketChannel);
                 }
-                socketChannel.register(selector, ops);
+                updateInterestOps();
             } catch (Exception ex) {
 //                Log.e(TAG, "Can't read message", ex);
+                // Unless it has been closed on purpose
+                if (running) {
+                    listener.onError(Constants.ACTION_CONNECTION_STATE_LOST);
+                }
                 running = false;
-            } finally {
-                lock.unlock();
             }
         }
 
         close();
+
+        // Nobody waits for a reply that will never come
+        IOException lost = new IOException("Connection lost");
+        for (HTSResponseFuture future : responseHandelers.values()) {
+            future.fail(lost);
+        }
+        responseHandelers.clear();
+        timeoutWheel.clear();
+        sendQueue.clear();
+        dispatcher.shutdown();
+        for (HTSMessage msg : messageQueue) {
+            msg.releaseFrameBuffer(bufferPool);
+        }
+        messageQueue.clear();
+        sendLanes.clear();
+        Log.d(TAG, "Send buffers: " + bufferPool);
+        Log.d(TAG, "Send lanes: " + sendLanes);
+        for (HTSRequestWindow window : getRequestWindows()) {
+            Log.d(TAG, "Requests " + window);
+            window.clear();
+        }
+    }
+
+    /**
+     * Moves the messages that have been sent meanwhile into the windows of
+     * their request classes and passes on those that fit into their window.
+     */
+    private void takeMessages() {
+        sendQueue.drainTo(arrivedMessages);
+        for (int i = 0; i < arrivedMessages.size(); i++) {
+            HTSMessage msg = arrivedMessages.get(i);
+            HTSRequestWindow window = getRequestWindow(msg.getMethod());
+            window.park(msg);
+            releaseRequests(window);
+        }
+        arrivedMessages.clear();
+    }
+
+    /**
+     * Passes on as many held back requests of the window for writing as it
+     * has room for. Requests that timed out meanwhile are dropped.
+     */
+    private void releaseRequests(HTSRequestWindow window) {
+        HTSMessage msg;
+        while ((msg = window.poll()) != null) {
+            HTSResponseFuture future = responseHandelers.get(msg.getInt("seq"));
+            if (future == null || future.isDone()) {
+                continue;
+            }
+            window.sent();
+            future.setSentTime(System.nanoTime());
+            sendLanes.add(getRequestPriority(msg.getMethod()), msg);
+        }
+    }
+
+    /**
+     * Frees the slot of the request in its window once its reply has
+     * arrived or it has failed.
+     */
+    private void requestFinished(HTSResponseFuture future, boolean replied) {
+        HTSRequestWindow window = future.getWindow();
+        if (window == null || future.getSentTime() == 0) {
+            return;
+        }
+        if (replied) {
+            window.completed(System.nanoTime() - future.getSentTime());
+        } else {
+            window.failed();
+        }
+        releaseRequests(window);
+    }
+
+    private final HTSTimeoutWheel.Listener timeoutListener = new HTSTimeoutWheel.Listener() {
+        public void onExpired(int seq) {
+            HTSResponseFuture future = responseHandelers.remove(seq);
+            if (future == null) {
+                return;
+            }
+            if (future.fail(new TimeoutException("No reply to request " + seq))) {
+                Log.w(TAG, "No reply to request " + seq + " in time");
+            }
+            requestFinished(future, false);
+        }
+    };
+
+    /**
+     * Sends a getSysTime probe once the connection has been idle for the
+     * keepalive interval and checks that something arrives after it. A
+     * mapping of a NAT router or firewall that has silently been dropped is
+     * noticed this way long before the next request of the user would time
+     * out. Called on the selector thread only.
+     * 
+     * @param now
+     *            The current time as given by System.nanoTime()
+     * @return true if the connection has stalled
+     */
+    private boolean isStalled(long now) {
+        if (!auth) {
+            return false;
+        }
+        if (probeTime != 0) {
+            if (lastReceiveTime - probeTime >= 0) {
+                probeTime = 0;
+            } else {
+                return now - probeTime > TimeUnit.MILLISECONDS.toNanos(getStallTimeout());
+            }
+        }
+        if (now - lastReceiveTime > TimeUnit.MILLISECONDS.toNanos(KEEPALIVE_INTERVAL)) {
+            HTSMessage probe = new HTSMessage();
+            probe.setMethod("getSysTime");
+            sendMessage(probe, null, getStallTimeout());
+            probeTime = now;
+        }
+        return false;
+    }
+
+    /**
+     * @return the time in milliseconds after which a connection that does
+     *         not answer a probe counts as stalled
+     */
+    private long getStallTimeout() {
+        long rto = Math.round(getRtt() + 4 * getRttVariation());
+        return Math.max(MIN_STALL_TIMEOUT, rto);
+    }
+
+    /**
+     * @return the smoothed round trip time of the keepalive probes and
+     *         other getSysTime requests in milliseconds, 0 until the first
+     *         reply has arrived. It includes the time the server takes to
+     *         answer and can be used to adapt chunk sizes or request
+     *         windows to the connection.
+     */
+    public float getRtt() {
+        return probeWindow.getRtt();
+    }
+
+    /**
+     * @return the variation of the round trip time in milliseconds, a
+     *         measure for the jitter of the connection
+     */
+    public float getRttVariation() {
+        return probeWindow.getRttVariation();
+    }
+
+    /**
+     * Watches the socket for OP_WRITE only while there are messages left
+     * that could not be written yet. Called on the selector thread only.
+     */
+    private void updateInterestOps() {
+        if (!selectionKey.isValid() || socketChannel.isConnectionPending()) {
+            return;
+        }
+        int ops = SelectionKey.OP_READ;
+        if (hasMessagesToWrite()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if (selectionKey.interestOps() != ops) {
+            selectionKey.interestOps(ops);
+        }
     }
 
     private void processTcpSelectionKey(SelectionKey selKey) throws IOException {
         if (selKey.isConnectable() && selKey.isValid()) {
             SocketChannel sChannel = (SocketChannel) selKey.channel();
-            sChannel.finishConnect();
             final Object signal = selKey.attachment();
-            synchronized (signal) {
-                signal.notify();
+            try {
+                sChannel.finishConnect();
+            } catch (IOException ex) {
+                listener.onError(Constants.ACTION_CONNECTION_STATE_REFUSED);
+                running = false;
+                throw ex;
+            } finally {
+                // Do not keep open() waiting for the timeout
+                synchronized (signal) {
+                    signal.notify();
+                }
             }
-            sChannel.register(selector, SelectionKey.OP_READ);
+            selKey.interestOps(SelectionKey.OP_READ);
+            lastReceiveTime = System.nanoTime();
         }
 
         if (selKey.isReadable() && selKey.isValid()) {
             SocketChannel sChannel = (SocketChannel) selKey.channel();
-            int len = sChannel.read(inBuf);
+            int len = frameReader.read(sChannel);
             if (len < 0) {
                 listener.onError(Constants.ACTION_CONNECTION_STATE_SERVER_DOWN);
-                throw new IOException("Server went down");
+                running = false;
+                return;
+            }
+            if (len > 0) {
+                lastReceiveTime = System.nanoTime();
             }
 
-            HTSMessage msg = HTSMessage.parse(inBuf);
-            if (msg != null) {
+            // A single read often delivers several frames, e.g. during the
+            // initial sync. Handle all of them before selecting again.
+            HTSMessage msg;
+            while ((msg = frameReader.next()) != null) {
                 handleMessage(msg);
             }
         }
-        if (selKey.isWritable() && selKey.isValid()) {
-            SocketChannel sChannel = (SocketChannel) selKey.channel();
-            HTSMessage msg = messageQueue.poll();
-            if (msg != null) {
-                msg.transmit(sChannel);
+    }
+
+    /**
+     * Writes as many queued messages as the socket takes without blocking.
+     * The frames of several messages are handed to a single write call. A
+     * message stays at the head of the queue until its frame has been
+     * written completely. Further messages are taken from the send lanes
+     * only when there is room in the write call, so a request that arrives
+     * meanwhile can still overtake less important ones.
+     * 
+     * @param ch
+     * @throws IOException
+     */
+    private void writeMessages(SocketChannel ch) throws IOException {
+        while (hasMessagesToWrite()) {
+            int count = 0;
+            long remaining = 0;
+            for (HTSMessage msg : messageQueue) {
+                if (count == gatherBuffers.length || remaining >= MAX_GATHER_BYTES) {
+                    break;
+                }
+                ByteBuffer buf = msg.getFrameBuffer(bufferPool);
+                gatherBuffers[count++] = buf;
+                remaining += buf.remaining();
+            }
+            while (count < gatherBuffers.length && remaining < MAX_GATHER_BYTES && !sendLanes.isEmpty()) {
+                HTSMessage msg = sendLanes.poll();
+                messageQueue.add(msg);
+                ByteBuffer buf = msg.getFrameBuffer(bufferPool);
+                gatherBuffers[count++] = buf;
+                remaining += buf.remaining();
+            }
+
+            long written = ch.write(gatherBuffers, 0, count);
+            Arrays.fill(gatherBuffers, 0, count, null);
+
+            while (!messageQueue.isEmpty() && messageQueue.peek().isTransmitted()) {
+                messageQueue.poll().releaseFrameBuffer(bufferPool);
+            }
+
+            if (written < remaining) {
+                // The socket buffer is full, the rest is written on the
+                // next OP_WRITE
+                return;
             }
         }
     }
 
-    private void handleMessage(HTSMessage msg) {
+    private boolean hasMessagesToWrite() {
+        return !messageQueue.isEmpty() || !sendLanes.isEmpty();
+    }
+
+    private void handleMessage(final HTSMessage msg) throws IOException {
         if (msg.containsField("seq")) {
             int respSeq = msg.getInt("seq");
-            HTSResponseHandler handler = responseHandelers.get(respSeq);
-            responseHandelers.remove(respSeq);
-
-            if (handler != null) {
-            	synchronized (handler) {
-                    handler.handleResponse(msg);
-            	}
+            final HTSResponseFuture future = responseHandelers.remove(respSeq);
+
+            if (future != null) {
+                requestFinished(future, true);
+                // Threads that wait for the reply continue right away, only
+                // the handler is left to the workers. The handler reads its
+                // own copy, the reply decodes its fields while it is read.
+                final HTSMessage reply = future.getHandler() != null ? msg.copy() : null;
+                if (future.complete(msg) && reply != null) {
+                    dispatch(future.getOrderKey(), new Runnable() {
+                        public void run() {
+                            future.getHandler().handleResponse(reply);
+                        }
+                    });
+                }
+                return;
+            }
+            if (!msg.containsField("method")) {
+                // The reply to a request that has timed out or was cancelled
+                Log.d(TAG, "Dropping late reply to request " + respSeq);
                 return;
             }
         }
 
-        listener.onMessage(msg);
+        dispatch(messageOrderKey(msg), new Runnable() {
+            public void run() {
+                listener.onMessage(msg);
+            }
+        });
+    }
+
+    private void dispatch(long key, Runnable task) throws IOException {
+        try {
+            if (key == NO_KEY) {
+                dispatcher.dispatchBarrier(task);
+            } else {
+                dispatcher.dispatch(key, task);
+            }
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while dispatching");
+        }
+    }
+
+    /**
+     * Runs the task on the workers of this connection, in order with the
+     * received messages about the given channel. Replies that arrive on
+     * another connection use it to change the model in the same order as
+     * the messages of this one.
+     *
+     * @param channelId
+     * @param task
+     * @return false if the connection is closed and the task was dropped
+     * @throws IOException
+     *             if interrupted while waiting for room in the queue
+     */
+    public boolean dispatchForChannel(long channelId, Runnable task) throws IOException {
+        if (!running) {
+            return false;
+        }
+        dispatch(CHANNEL_KEY | channelId, task);
+        return true;
+    }
+
+    /**
+     * @return true if called by one of the workers that handle the
+     *         messages of this connection
+     */
+    public boolean isDispatcherThread() {
+        return dispatcher.isWorkerThread();
+    }
+
+    /**
+     * Decides which received messages must be handled in order. Everything
+     * about one channel, including its recordings, is handled in order, as
+     * is everything about one subscription. Messages that may touch several
+     * entities, like tags or series recordings, are handled after all
+     * messages before them.
+     * 
+     * @param msg
+     * @return the key to dispatch the message with or NO_KEY
+     */
+    private long messageOrderKey(HTSMessage msg) {
+        if (!msg.containsField("method")) {
+            return NO_KEY;
+        }
+        String method = msg.getMethod();
+        if (method.startsWith("channel") && msg.containsField("channelId")) {
+            return CHANNEL_KEY | msg.getLong("channelId");
+        }
+        if (method.startsWith("dvrEntry") && msg.containsField("id")) {
+            long id = msg.getLong("id");
+            if (msg.containsField("channel")) {
+                recordingChannels.put(id, msg.getLong("channel"));
+            }
+            Long channelId = method.equals("dvrEntryDelete")
+                    ? recordingChannels.remove(id) : recordingChannels.get(id);
+            return channelId != null ? CHANNEL_KEY | channelId : NO_KEY;
+        }
+        if (msg.containsField("subscriptionId")) {
+            return SUBSCRIPTION_KEY | msg.getLong("subscriptionId");
+        }
+        // The guide can bring thousands of events, they must not all be
+        // barriers. Only the messages of the same event need to stay in
+        // order, eventDelete does not tell the channel.
+        if (method.startsWith("event") && msg.containsField("eventId")) {
+            return EVENT_KEY | msg.getLong("eventId");
+        }
+        return NO_KEY;
+    }
+
+    /**
+     * The handler of a reply is ordered by the channel or subscription the
+     * request was about, if any. The reply to getEvent is ordered like the
+     * event messages of the same event. Replies that are only known to be
+     * about a channel by the caller are keyed by the caller.
+     * 
+     * @param request
+     * @return the key to dispatch the response handler with or NO_KEY
+     */
+    private long requestOrderKey(HTSMessage request) {
+        if (request.containsField("channelId")) {
+            return CHANNEL_KEY | request.getLong("channelId");
+        }
+        if (request.containsField("subscriptionId")) {
+            return SUBSCRIPTION_KEY | request.getLong("subscriptionId");
+        }
+        if (request.getMethod().equals("getEvent") && request.containsField("eventId")) {
+            return EVENT_KEY | request.getLong("eventId");
+        }
+        return NO_KEY;
     }
     
+    /**
+     * Sets the size in bytes of the largest message that will be accepted
+     * from the server. The connection is dropped if a larger one arrives.
+     * 
+     * @param size
+     */
+    public void setMaxFrameSize(int size) {
+        frameReader.setMaxFrameSize(size);
+    }
+
+    /**
+     * Adds a window that limits how many requests of the given methods wait
+     * for their reply at the same time. Should be done before the
+     * connection is opened.
+     * 
+     * @param window
+     * @param methods
+     */
+    public void addRequestWindow(HTSRequestWindow window, String... methods) {
+        for (String method : methods) {
+            requestWindows.put(method, window);
+        }
+    }
+
+    /**
+     * @param method
+     * @return the window the requests of the method go through
+     */
+    public HTSRequestWindow getRequestWindow(String method) {
+        HTSRequestWindow window = method != null ? requestWindows.get(method) : null;
+        return window != null ? window : defaultWindow;
+    }
+
+    /**
+     * @return all windows including the default one, for reporting their
+     *         queue depths and round trip times
+     */
+    public Collection<HTSRequestWindow> getRequestWindows() {
+        ArrayList<HTSRequestWindow> windows = new ArrayList<HTSRequestWindow>();
+        windows.add(defaultWindow);
+        for (HTSRequestWindow window : requestWindows.values()) {
+            if (!windows.contains(window)) {
+                windows.add(window);
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * Sets the lane the requests of the given methods are written from.
+     * 
+     * @param priority
+     *            One of HTSSendLanes.INTERACTIVE, NORMAL or BULK
+     * @param methods
+     */
+    public void setRequestPriority(int priority, String... methods) {
+        for (String method : methods) {
+            requestPriorities.put(method, priority);
+        }
+    }
+
+    /**
+     * @param method
+     * @return the lane the requests of the method are written from
+     */
+    public int getRequestPriority(String method) {
+        Integer priority = method != null ? requestPriorities.get(method) : null;
+        return priority != null ? priority : HTSSendLanes.NORMAL;
+    }
+
+    /**
+     * @return the pool of the buffers outgoing messages are written from,
+     *         it also keeps the statistics about their use
+     */
+    public HTSBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
     public int getProtocolVersion() {
     	return this.protocolVersion;
     }
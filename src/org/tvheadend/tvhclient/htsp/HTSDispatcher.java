@@ -0,0 +1,207 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the handling of received messages on a few worker threads so the
+ * selector thread only has to read and decode them. Tasks with the same key,
+ * like all messages of one channel or one subscription, always run on the
+ * same worker in the order they were dispatched. Tasks with different keys
+ * may run in parallel.
+ *
+ * Tasks that depend on more than one entity are dispatched as barriers.
+ * They run once all tasks dispatched before them have finished, and the
+ * tasks dispatched after them wait until they are done.
+ *
+ * The queue of each worker is bounded. When the workers fall behind, the
+ * selector thread waits and the socket stops being read, which slows down
+ * the server instead of filling up the memory.
+ */
+public class HTSDispatcher {
+
+    public interface ErrorHandler {
+        void onError(Throwable t);
+    }
+
+    private static final Runnable STOP = new Runnable() {
+        public void run() {
+        }
+    };
+
+    private final Worker[] workers;
+    private final ErrorHandler errorHandler;
+
+    /**
+     * @param name
+     *            Prefix of the names of the worker threads
+     * @param workerCount
+     * @param queueCapacity
+     *            Tasks that may wait for each worker
+     * @param errorHandler
+     *            Called on the worker thread with everything a task throws
+     */
+    public HTSDispatcher(String name, int workerCount, int queueCapacity, ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(name + "-" + i, queueCapacity);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Runs the task after all tasks that have been dispatched before with the
+     * same key.
+     *
+     * @param key
+     * @param task
+     * @throws InterruptedException
+     */
+    public void dispatch(long key, Runnable task) throws InterruptedException {
+        // Spread keys that only differ in the upper bits as well
+        long h = key * 0x9E3779B97F4A7C15L;
+        int i = (int) ((h >>> 32) % workers.length);
+        workers[i].queue.put(task);
+    }
+
+    /**
+     * Runs the task after all tasks that have been dispatched before and
+     * before all tasks that are dispatched after it, whatever their key.
+     *
+     * @param task
+     * @throws InterruptedException
+     */
+    public void dispatchBarrier(Runnable task) throws InterruptedException {
+        if (workers.length == 1) {
+            workers[0].queue.put(task);
+            return;
+        }
+        Barrier barrier = new Barrier(task, workers.length);
+        for (Worker worker : workers) {
+            worker.queue.put(barrier);
+        }
+    }
+
+    /**
+     * @return true if called from one of the worker threads
+     */
+    public boolean isWorkerThread() {
+        Thread current = Thread.currentThread();
+        for (Worker worker : workers) {
+            if (worker == current) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the tasks that wait to be run by all workers together
+     */
+    public int getQueued() {
+        int queued = 0;
+        for (Worker worker : workers) {
+            queued += worker.queue.size();
+        }
+        return queued;
+    }
+
+    /**
+     * Lets the workers finish the tasks that are dispatched already and stop
+     * afterwards. Does not wait for them.
+     */
+    public void shutdown() {
+        for (Worker worker : workers) {
+            // Waiting here could block the selector thread forever if a
+            // worker is stuck
+            if (!worker.queue.offer(STOP)) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable t) {
+            errorHandler.onError(t);
+        }
+    }
+
+    private class Worker extends Thread {
+
+        final BlockingQueue<Runnable> queue;
+
+        Worker(String name, int capacity) {
+            super(name);
+            setDaemon(true);
+            queue = new ArrayBlockingQueue<Runnable>(capacity);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+                while ((task = queue.take()) != STOP) {
+                    HTSDispatcher.this.run(task);
+                }
+            } catch (InterruptedException ex) {
+                // Stopped by shutdown
+            }
+        }
+    }
+
+    /**
+     * Is put into the queues of all workers. The last worker that reaches it
+     * runs the task, the others wait until it is done.
+     */
+    private class Barrier implements Runnable {
+
+        private final Runnable task;
+        private final AtomicInteger pending;
+        private final CountDownLatch done;
+
+        Barrier(Runnable task, int workers) {
+            this.task = task;
+            pending = new AtomicInteger(workers);
+            done = new CountDownLatch(1);
+        }
+
+        public void run() {
+            if (pending.decrementAndGet() == 0) {
+                try {
+                    HTSDispatcher.this.run(task);
+                } finally {
+                    done.countDown();
+                }
+            } else {
+                try {
+                    done.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
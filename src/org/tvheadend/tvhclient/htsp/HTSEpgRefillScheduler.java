@@ -0,0 +1,341 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the getEvents requests that fill up the program guide of the
+ * channels. At every program boundary the server updates most channels at
+ * once, and each of them used to send its own request 30 seconds later.
+ *
+ * Each channel has at most one request waiting and one in flight. A request
+ * for a channel that already has one waiting is merged into it, and a
+ * request for the same events that are in flight already is dropped. The
+ * waiting requests are sent in the order they are due, spread out by
+ * {@link #MIN_SPACING} and limited to {@link #MAX_IN_FLIGHT} at a time.
+ */
+public class HTSEpgRefillScheduler {
+
+    public interface Loader {
+        /**
+         * Sends the getEvents request. Called without holding any lock.
+         *
+         * @param channelId
+         * @param eventId
+         *            The first event to load
+         * @param count
+         *            The number of events following it to load
+         * @return false if the channel does not need the events anymore or
+         *         the request could not be sent, otherwise {@link HTSEpgRefillScheduler#done(long, long)} has to
+         *         be called once the reply has arrived
+         */
+        boolean load(long channelId, long eventId, int count);
+    }
+
+    // Milliseconds between two requests and the requests that may wait
+    // for a reply at the same time
+    static final long MIN_SPACING = 50;
+    static final int MAX_IN_FLIGHT = 4;
+
+    // A request without a reply after this many milliseconds is considered
+    // lost and no longer holds back the channel
+    static final long IN_FLIGHT_TIMEOUT = HTSConnection.DEFAULT_TIMEOUT;
+
+    private final ScheduledExecutorService executor;
+    private final Loader loader;
+    private final Random random = new Random();
+
+    private final HashMap<Long, Refill> refills = new HashMap<Long, Refill>();
+    private int inFlight;
+    private long nextSendTime;
+    private ScheduledFuture<?> wakeup;
+    private long wakeupTime;
+
+    private long requested;
+    private long merged;
+    private long dropped;
+    private long sent;
+
+    /**
+     * @param executor
+     *            Sends the requests when they are due
+     * @param loader
+     */
+    public HTSEpgRefillScheduler(ScheduledExecutorService executor, Loader loader) {
+        this.executor = executor;
+        this.loader = loader;
+    }
+
+    /**
+     * Loads the events of the channel after the given delay, unless they are
+     * being loaded already.
+     *
+     * @param channelId
+     * @param eventId
+     *            The first event to load
+     * @param count
+     *            The number of events following it to load
+     * @param delay
+     *            Milliseconds to wait at least
+     * @param jitter
+     *            Milliseconds of random delay that is added to spread out
+     *            the requests of many channels
+     */
+    public void request(long channelId, long eventId, int count, long delay, long jitter) {
+        if (jitter > 0) {
+            synchronized (random) {
+                delay += (long) (random.nextDouble() * jitter);
+            }
+        }
+        long due = System.currentTimeMillis() + delay;
+
+        synchronized (this) {
+            requested++;
+            Refill r = refills.get(channelId);
+            if (r == null) {
+                r = new Refill(channelId);
+                refills.put(channelId, r);
+            }
+
+            if (r.waiting) {
+                // The later request knows the more recent current event, and
+                // the sooner one decides when it is sent
+                if (r.eventId == eventId) {
+                    r.count = Math.max(r.count, count);
+                } else {
+                    r.eventId = eventId;
+                    r.count = count;
+                }
+                r.due = Math.min(r.due, due);
+                merged++;
+                return;
+            }
+            if (r.inFlight && r.sentEventId == eventId && r.sentCount >= count) {
+                dropped++;
+                return;
+            }
+            r.waiting = true;
+            r.eventId = eventId;
+            r.count = count;
+            r.due = due;
+        }
+        pump();
+    }
+
+    /**
+     * Called when the reply to the request of the channel has arrived. The
+     * next request of the channel may be sent now. A late reply to a request
+     * that has timed out is ignored, the channel may already wait for the
+     * reply to a newer one.
+     *
+     * @param channelId
+     * @param eventId
+     *            The first event of the request the reply belongs to
+     */
+    public void done(long channelId, long eventId) {
+        synchronized (this) {
+            Refill r = refills.get(channelId);
+            if (r == null || !r.inFlight || r.sentEventId != eventId) {
+                return;
+            }
+            finish(r);
+        }
+        pump();
+    }
+
+    /**
+     * Forgets all requests, the waiting ones are not sent anymore. Called
+     * when the connection is closed.
+     */
+    public synchronized void clear() {
+        refills.clear();
+        inFlight = 0;
+        if (wakeup != null) {
+            wakeup.cancel(false);
+            wakeup = null;
+        }
+    }
+
+    /**
+     * @return the channels that wait for a request to be sent
+     */
+    public synchronized int getWaiting() {
+        int waiting = 0;
+        for (Refill r : refills.values()) {
+            if (r.waiting) {
+                waiting++;
+            }
+        }
+        return waiting;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "requested=" + requested
+                + " merged=" + merged
+                + " dropped=" + dropped
+                + " sent=" + sent
+                + " inFlight=" + inFlight;
+    }
+
+    /**
+     * Sends the requests that are due, as far as the limits allow, and
+     * schedules a wakeup for the next one.
+     */
+    private void pump() {
+        while (true) {
+            Refill next;
+            long eventId;
+            int count;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                expire(now);
+                if (inFlight >= MAX_IN_FLIGHT) {
+                    // done() pumps again, but a request whose reply never
+                    // arrives only frees its slot once it has expired
+                    scheduleExpiry(now);
+                    return;
+                }
+
+                // A few hundred channels at most, searching them is cheaper
+                // than keeping a queue ordered while requests are merged
+                next = null;
+                for (Refill r : refills.values()) {
+                    if (r.waiting && !r.inFlight && (next == null || r.due < next.due)) {
+                        next = r;
+                    }
+                }
+                if (next == null) {
+                    return;
+                }
+                long time = Math.max(next.due, nextSendTime);
+                if (time > now) {
+                    scheduleWakeup(time, now);
+                    return;
+                }
+
+                next.waiting = false;
+                next.inFlight = true;
+                next.sentEventId = eventId = next.eventId;
+                next.sentCount = count = next.count;
+                next.sentTime = now;
+                inFlight++;
+                nextSendTime = now + MIN_SPACING;
+                sent++;
+            }
+
+            if (!loader.load(next.channelId, eventId, count)) {
+                synchronized (this) {
+                    if (refills.get(next.channelId) == next && next.inFlight) {
+                        finish(next);
+                    }
+                }
+            }
+        }
+    }
+
+    private void finish(Refill r) {
+        r.inFlight = false;
+        inFlight--;
+        if (!r.waiting) {
+            refills.remove(r.channelId);
+        }
+    }
+
+    private void expire(long now) {
+        Iterator<Refill> it = refills.values().iterator();
+        while (it.hasNext()) {
+            Refill r = it.next();
+            if (r.inFlight && now - r.sentTime > IN_FLIGHT_TIMEOUT) {
+                r.inFlight = false;
+                inFlight--;
+                if (!r.waiting) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules a wakeup for when the oldest request in flight expires, if
+     * any channel waits for a free slot.
+     */
+    private void scheduleExpiry(long now) {
+        boolean waiting = false;
+        long oldest = Long.MAX_VALUE;
+        for (Refill r : refills.values()) {
+            waiting |= r.waiting;
+            if (r.inFlight && r.sentTime < oldest) {
+                oldest = r.sentTime;
+            }
+        }
+        if (waiting && oldest != Long.MAX_VALUE) {
+            scheduleWakeup(oldest + IN_FLIGHT_TIMEOUT + 1, now);
+        }
+    }
+
+    private void scheduleWakeup(long time, long now) {
+        if (wakeup != null && !wakeup.isDone() && wakeupTime <= time) {
+            return;
+        }
+        if (wakeup != null) {
+            wakeup.cancel(false);
+        }
+        wakeupTime = time;
+        wakeup = executor.schedule(new Runnable() {
+            public void run() {
+                synchronized (HTSEpgRefillScheduler.this) {
+                    wakeup = null;
+                }
+                pump();
+            }
+        }, time - now, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Refill {
+
+        final long channelId;
+
+        // The request that waits to be sent
+        boolean waiting;
+        long eventId;
+        int count;
+        long due;
+
+        // The request that waits for its reply
+        boolean inFlight;
+        long sentEventId;
+        int sentCount;
+        long sentTime;
+
+        Refill(long channelId) {
+            this.channelId = channelId;
+        }
+    }
+}
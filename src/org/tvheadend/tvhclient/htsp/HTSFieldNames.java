@@ -0,0 +1,179 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed table of the field names the server sends. Received names are
+ * matched against it on their raw bytes, so the same String instance is
+ * used for every message instead of decoding a new one per field.
+ */
+final class HTSFieldNames {
+
+    private static final String[] NAMES = {
+        // Protocol
+        "method", "seq", "error", "noaccess", "success", "challenge",
+        "htspversion", "servername", "serverversion", "servercapability",
+        "webroot", "username", "digest", "clientname", "clientversion",
+
+        // Tags and channels
+        "tagId", "tagName", "tagIcon", "tagIndex", "tagTitledIcon", "members",
+        "channelId", "channelName", "channelNumber", "channelNumberMinor",
+        "channelIcon", "tags", "services", "name", "type", "caid", "caname",
+
+        // Events
+        "eventId", "nextEventId", "start", "stop", "title", "subtitle",
+        "summary", "description", "contentType", "ageRating", "starRating",
+        "dvrId", "image", "genre", "firstAired", "episodeId", "serieslinkId",
+        "seriesId", "episodeCount", "episodeNumber", "episodeOnscreen",
+        "partCount", "partNumber", "seasonCount", "seasonNumber", "events",
+        "eventIds",
+
+        // Recordings
+        "id", "channel", "autorecId", "timerecId", "startExtra", "stopExtra",
+        "retention", "priority", "owner", "creator", "path", "state",
+        "enabled", "daysOfWeek", "maxDuration", "minDuration", "approxTime",
+        "startWindow", "directory", "configName", "dvrconfigs", "profiles",
+        "uuid", "comment", "cutpoints", "end",
+
+        // Subscriptions
+        "subscriptionId", "status", "graceTimeout", "streams", "sourceinfo",
+        "index", "language", "width", "height", "duration", "aspect_num",
+        "aspect_den", "audio_type", "channels", "rate", "adapter", "mux",
+        "network", "provider", "service", "feStatus", "feSNR", "feSignal",
+        "feBER", "feUNC", "stream", "dts", "pts", "frametype", "payload",
+        "packets", "bytes", "delay", "Bdrops", "Pdrops", "Idrops",
+
+        // Files and server status
+        "size", "mtime", "offset", "data", "ticket", "freediskspace",
+        "totaldiskspace", "time", "timezone",
+    };
+
+    // Power of two, large enough to keep the probe chains short
+    private static final int TABLE_SIZE = 512;
+    private static final int MASK = TABLE_SIZE - 1;
+
+    private static final String[] names = new String[TABLE_SIZE];
+    private static final byte[][] bytes = new byte[TABLE_SIZE][];
+
+    // Entries of lists and unnamed map fields are keyed by their position
+    private static final String[] positions = new String[64];
+
+    static {
+        for (String name : NAMES) {
+            byte[] b = ascii(name);
+            int i = hash(b, 0, b.length) & MASK;
+            while (bytes[i] != null) {
+                i = (i + 1) & MASK;
+            }
+            names[i] = name;
+            bytes[i] = b;
+        }
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = Integer.toString(i);
+        }
+    }
+
+    private HTSFieldNames() {
+    }
+
+    /**
+     * @return the known name that is stored at the given location of the
+     *         buffer or null if it is not in the table
+     */
+    static String lookup(ByteBuffer buf, int offset, int len) {
+        if (buf.hasArray()) {
+            return lookup(buf.array(), buf.arrayOffset() + offset, len);
+        }
+        for (int i = hash(buf, offset, len) & MASK; bytes[i] != null; i = (i + 1) & MASK) {
+            if (matches(bytes[i], buf, offset, len)) {
+                return names[i];
+            }
+        }
+        return null;
+    }
+
+    private static String lookup(byte[] buf, int offset, int len) {
+        for (int i = hash(buf, offset, len) & MASK; bytes[i] != null; i = (i + 1) & MASK) {
+            if (matches(bytes[i], buf, offset, len)) {
+                return names[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the name of an unnamed field at the given position
+     */
+    static String position(int i) {
+        if (i < positions.length) {
+            return positions[i];
+        }
+        return Integer.toString(i);
+    }
+
+    private static int hash(byte[] buf, int offset, int len) {
+        int h = len;
+        for (int i = 0; i < len; i++) {
+            h = 31 * h + buf[offset + i];
+        }
+        return h ^ (h >>> 9);
+    }
+
+    private static int hash(ByteBuffer buf, int offset, int len) {
+        int h = len;
+        for (int i = 0; i < len; i++) {
+            h = 31 * h + buf.get(offset + i);
+        }
+        return h ^ (h >>> 9);
+    }
+
+    private static boolean matches(byte[] name, byte[] buf, int offset, int len) {
+        if (name.length != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (name[i] != buf[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(byte[] name, ByteBuffer buf, int offset, int len) {
+        if (name.length != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (name[i] != buf.get(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String name) {
+        byte[] b = new byte[name.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) name.charAt(i);
+        }
+        return b;
+    }
+}
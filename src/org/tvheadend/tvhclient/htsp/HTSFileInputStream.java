@@ -6,6 +6,16 @@ import java.io.InputStream;
 import android.util.Log;
 
 public class HTSFileInputStream extends InputStream {
+
+	// Time in milliseconds to wait for the reply to fileOpen and fileClose
+	private static final long REQUEST_TIMEOUT = 10000;
+
+	// Time in milliseconds to wait for a chunk, which can take a while on
+	// slow links
+	private static final long READ_TIMEOUT = 60000;
+
+	private static final int CHUNK_SIZE = 1024 * 1024 * 8;
+
 	private HTSConnection connection;
 	private String path;
 
@@ -42,84 +52,41 @@ public class HTSFileInputStream extends InputStream {
 		offset = 0;
 	}
 
-	class FileOpenResponse implements HTSResponseHandler {
-		int id;
-		long size;
-		long mtime;
-
-		@Override
-		public void handleResponse(HTSMessage response) {
-			id = response.getInt("id", 0);
-			size = response.getLong("size", 0);
-			mtime = response.getLong("mtime", 0);
-			notifyAll();
-		}
-	};
-
-	class FileReadResponse implements HTSResponseHandler {
-		byte[] data;
-
-		@Override
-		public void handleResponse(HTSMessage response) {
-			data = response.getByteArray("data");
-			notifyAll();
-		}
-	};
-
-	class FileCloseResponse implements HTSResponseHandler {
-		int id;
-
-		@Override
-		public void handleResponse(HTSMessage response) {
-			notifyAll();
-		}
-	};
-
 	private void open() throws IOException {
 		HTSMessage request = new HTSMessage();
-		FileOpenResponse response = new FileOpenResponse();
 
 		request.setMethod("fileOpen");
 		request.putField("file", path);
 
-		synchronized (response) {
-			try {
-				connection.sendMessage(request, response);
-				response.wait();
-				fileId = response.id;
-				fileSize = response.size;
-			} catch (Throwable e) {
-				Log.e("TVHGuide", "Timeout waiting for fileOpen", e);
-			}
-		}
+		HTSMessage response = connection.sendMessage(request, null, REQUEST_TIMEOUT).await();
+		fileId = response.getInt("id", 0);
+		fileSize = response.getLong("size", 0);
 
-		if (fileId < 0) {
-			throw new IOException("Failed to open remote file");
-		} else if (fileId == 0) {
+		if (fileId == 0) {
 			throw new IOException("Remote file is missing");
 		}
 	}
 
 	public void close() {
+		if (fileId < 0) {
+			return;
+		}
+
 		HTSMessage request = new HTSMessage();
-		FileCloseResponse response = new FileCloseResponse();
 
 		request.setMethod("fileClose");
 		request.putField("id", fileId);
 
-		synchronized (response) {
-			try {
-				connection.sendMessage(request, response);
-				response.wait();
-				fileId = -1;
-				fileSize = -1;
-			} catch (Throwable e) {
-				Log.e("TVHGuide", "Timeout waiting for fileClose", e);
-			}
+		try {
+			connection.sendMessage(request, null, REQUEST_TIMEOUT).await();
+		} catch (IOException e) {
+			Log.e("TVHGuide", "No reply to fileClose", e);
 		}
+		fileId = -1;
+		fileSize = -1;
 	}
 
-	public int read(byte[] outBuf, int outOffset, int outLength) {
+	public int read(byte[] outBuf, int outOffset, int outLength) throws IOException {
 		fillBuffer();
 		
 		int ret = Math.min(buf.length - bufPos, outLength - outOffset);
@@ -143,30 +110,26 @@ public class HTSFileInputStream extends InputStream {
 		return -1;
 	}
 
-	private void fillBuffer() {
+	private void fillBuffer() throws IOException {
 		if(bufPos < buf.length) {
 			return;
 		}
 		
 		HTSMessage request = new HTSMessage();
-		FileReadResponse response = new FileReadResponse();
 
 		request.setMethod("fileRead");
 		request.putField("id", fileId);
-		request.putField("size", Math.min(fileSize, 1024 * 1024 * 8));
+		request.putField("size", Math.min(fileSize, CHUNK_SIZE));
 		request.putField("offset", offset);
 
-		synchronized (response) {
-			try {
-				connection.sendMessage(request, response);
-				response.wait();
-
-				offset += buf.length;
-				buf = response.data;
-				bufPos = 0;
-			} catch (Throwable e) {
-				Log.e("TVHGuide", "Timeout waiting for fileRead", e);
-			}
+		HTSMessage response = connection.sendMessage(request, null, READ_TIMEOUT).await();
+		byte[] data = response.getByteArray("data");
+		if (data == null) {
+			throw new IOException("Failed to read remote file");
 		}
+
+		offset += buf.length;
+		buf = data;
+		bufPos = 0;
 	}
 }
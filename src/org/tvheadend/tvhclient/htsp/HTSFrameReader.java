@@ -0,0 +1,126 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Splits the incoming byte stream into HTSP messages. Each read takes as much
+ * as the socket has available, which can be several frames at once, and
+ * {@link #next()} hands out the complete ones in the order they arrived. An
+ * incomplete frame at the end stays in the buffer until the rest of it has
+ * been read.
+ * 
+ * Frames that do not fit into the receive buffer, like fileRead replies or
+ * large getEvents and epgQuery results, are read into a buffer of their own
+ * that has exactly the size of the frame. The message is decoded directly
+ * from it and the buffer is dropped afterwards, so only the small receive
+ * buffer is kept while the connection is idle.
+ */
+public class HTSFrameReader {
+
+    // Kept in read mode between calls, it only switches to write mode
+    // while the channel is being read.
+    private ByteBuffer buf;
+
+    // Holds a single frame that is larger than the receive buffer while it
+    // is read. It stays in write mode until the frame is complete.
+    private ByteBuffer largeFrame;
+
+    private int maxFrameSize;
+
+    public HTSFrameReader(int capacity, int maxFrameSize) {
+        buf = ByteBuffer.allocateDirect(capacity);
+        buf.limit(0);
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Sets the size of the largest frame that will be accepted. Anything
+     * larger is treated as a protocol error.
+     * 
+     * @param size
+     */
+    public void setMaxFrameSize(int size) {
+        maxFrameSize = size;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Reads all available bytes from the channel. Any partial frame that is
+     * left from the previous read is moved to the front of the buffer first.
+     * 
+     * @param ch
+     * @return The number of bytes read or -1 at the end of the stream
+     * @throws IOException
+     */
+    public int read(ReadableByteChannel ch) throws IOException {
+        if (largeFrame != null) {
+            return ch.read(largeFrame);
+        }
+
+        buf.compact();
+        try {
+            return ch.read(buf);
+        } finally {
+            buf.flip();
+        }
+    }
+
+    /**
+     * Returns the next complete message from the buffer or null if there is
+     * none left.
+     * 
+     * @return
+     * @throws IOException
+     */
+    public HTSMessage next() throws IOException {
+        if (largeFrame != null) {
+            if (largeFrame.hasRemaining()) {
+                return null;
+            }
+            ByteBuffer frame = largeFrame;
+            largeFrame = null;
+            return HTSMessage.parseFrame(ByteBuffer.wrap(frame.array(), 4, frame.capacity() - 4));
+        }
+
+        if (buf.remaining() >= 4) {
+            int pos = buf.position();
+            long len = ((buf.get(pos) & 0xFFL) << 24) | ((buf.get(pos + 1) & 0xFFL) << 16)
+                    | ((buf.get(pos + 2) & 0xFFL) << 8) | (buf.get(pos + 3) & 0xFFL);
+
+            if (len > maxFrameSize) {
+                throw new IOException("Mesage is to long (" + len + " bytes)");
+            }
+            if (len + 4 > buf.capacity()) {
+                // Everything left in the receive buffer belongs to this
+                // frame, move it over and read the rest directly into it
+                largeFrame = ByteBuffer.allocate((int) len + 4);
+                largeFrame.put(buf);
+                return null;
+            }
+        }
+        return HTSMessage.parse(buf);
+    }
+}
@@ -22,14 +22,21 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
+ * A message of the protocol. Received messages decode their fields lazily
+ * and change their own state while they are read, so a message is not
+ * thread-safe, not even for reading. A message that is handed to another
+ * thread must not be used by the first one anymore, or each thread must get
+ * its own {@link #copy()}.
  *
  * @author john-tornblom
  */
@@ -43,14 +50,51 @@ public class HTSMessage extends HashMap<String, Object> {
     private static final byte HMF_STR = 3;
     private static final byte HMF_BIN = 4;
     private static final byte HMF_LIST = 5;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
     private ByteBuffer buf;
 
+    // Fields that are not part of the map (yet). A received message only
+    // indexes where each field is located in the frame and decodes the value
+    // when it is requested. Integers are decoded while indexing since that
+    // needs no object, fields set with putField(String, long) live here too.
+    private ByteBuffer data;
+    private String[] fieldNames;
+    private byte[] fieldTypes;
+    private int[] fieldOffsets;
+    private int[] fieldLengths;
+    private long[] fieldValues;
+    private Object[] fieldObjects;
+    private int fieldCount;
+    // The number of fields the received frame has
+    private int frameFieldCount;
+
+    // Changed whenever fields move within the table, see resolveFields
+    private int fieldGeneration;
+
+    public HTSMessage() {
+    }
+
+    private HTSMessage(ByteBuffer data) throws IOException {
+        this.data = data;
+        index();
+        frameFieldCount = fieldCount;
+    }
+
     public void putField(String name, Object value) {
         if (value != null) {
             put(name, value);
         }
     }
 
+    public void putField(String name, long value) {
+        super.remove(name);
+        removeFields(name);
+        int i = addField(name, HMF_S64);
+        fieldOffsets[i] = -1;
+        fieldLengths[i] = s64Length(value);
+        fieldValues[i] = value;
+    }
+
     public void setMethod(String name) {
         put("method", name);
     }
@@ -59,34 +103,76 @@ public class HTSMessage extends HashMap<String, Object> {
         return getString("method", "");
     }
 
+    /**
+     * Returns a message with the same fields that can be read on another
+     * thread while this one is read. A received message that has not been
+     * changed shares the frame with the copy, only the fields are indexed
+     * again and each message decodes its values on its own. Any other
+     * message is decoded completely and copied.
+     */
+    public HTSMessage copy() {
+        if (data != null && super.isEmpty() && fieldGeneration == 0 && fieldCount == frameFieldCount) {
+            try {
+                return new HTSMessage(data.duplicate());
+            } catch (IOException ex) {
+                // The frame has been checked completely while it was indexed
+                throw new IllegalStateException(ex);
+            }
+        }
+        HTSMessage copy = new HTSMessage();
+        copy.putAll(this);
+        return copy;
+    }
+
     public boolean containsField(String name) {
         return containsKey(name);
     }
 
     public BigInteger getBigInteger(String name) {
-        return (BigInteger) get(name);
+        Object obj = get(name);
+        if (obj == null) {
+            return null;
+        }
+        if (obj instanceof BigInteger) {
+            return (BigInteger) obj;
+        }
+        return BigInteger.valueOf(((Number) obj).longValue());
     }
 
     public long getLong(String name) {
-        return getBigInteger(name).longValue();
+        int i = indexOfField(name);
+        if (i >= 0 && isLong(i)) {
+            return fieldValues[i];
+        }
+        return ((Number) get(name)).longValue();
     }
 
     public long getLong(String name, long std) {
-        if (!containsField(name)) {
+        int i = indexOfField(name);
+        if (i >= 0 && isLong(i)) {
+            return fieldValues[i];
+        }
+        Object obj = get(name);
+        if (obj == null) {
             return std;
         }
-        return getLong(name);
+        return ((Number) obj).longValue();
     }
 
     public int getInt(String name) {
-        return getBigInteger(name).intValue();
+        return (int) getLong(name);
     }
 
     public int getInt(String name, int std) {
-        if (!containsField(name)) {
+        int i = indexOfField(name);
+        if (i >= 0 && isLong(i)) {
+            return (int) fieldValues[i];
+        }
+        Object obj = get(name);
+        if (obj == null) {
             return std;
         }
-        return getInt(name);
+        return ((Number) obj).intValue();
     }
 
     public String getString(String name, String std) {
@@ -107,13 +193,33 @@ public class HTSMessage extends HashMap<String, Object> {
     public List<Long> getLongList(String name) {
         ArrayList<Long> list = new ArrayList<Long>();
 
+        int i = indexOfField(name);
+        if (i >= 0 && fieldTypes[i] == HMF_LIST) {
+            // Read the numbers straight from the frame without building
+            // the generic list first
+            int pos = fieldOffsets[i];
+            int end = pos + fieldLengths[i];
+            while (pos < end) {
+                byte type = data.get(pos);
+                int namelen = data.get(pos + 1) & 0xFF;
+                int datalen = (int) uIntToLong(data.get(pos + 2), data.get(pos + 3),
+                        data.get(pos + 4), data.get(pos + 5));
+                pos += 6 + namelen;
+                if (type == HMF_S64 && datalen <= 8) {
+                    list.add(decodeLong(data, pos, datalen));
+                }
+                pos += datalen;
+            }
+            return list;
+        }
+
         if (!containsField(name)) {
             return list;
         }
 
         for (Object obj : (List<?>) get(name)) {
-            if (obj instanceof BigInteger) {
-                list.add(((BigInteger) obj).longValue());
+            if (obj instanceof Number) {
+                list.add(((Number) obj).longValue());
             }
         }
 
@@ -135,10 +241,8 @@ public class HTSMessage extends HashMap<String, Object> {
             return list;
         }
 
-        for (Object obj : (List<?>) get(name)) {
-            if (obj instanceof BigInteger) {
-                list.add(((BigInteger) obj).intValue());
-            }
+        for (Long value : getLongList(name)) {
+            list.add(value.intValue());
         }
 
         return list;
@@ -157,39 +261,437 @@ public class HTSMessage extends HashMap<String, Object> {
     }
 
     public byte[] getByteArray(String name) {
-        return (byte[]) get(name);
+        int i = indexOfField(name);
+        if (i >= 0) {
+            return getByteArrayField(i);
+        }
+        Object obj = super.get(name);
+        if (obj instanceof ByteBuffer) {
+            byte[] b = toByteArray((ByteBuffer) obj);
+            super.put(name, b);
+            return b;
+        }
+        return (byte[]) obj;
+    }
+
+    public ByteBuffer getByteBuffer(String name) {
+        Object obj = get(name);
+        if (obj instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) obj).asReadOnlyBuffer();
+        } else if (obj instanceof ByteBuffer) {
+            return ((ByteBuffer) obj).duplicate();
+        }
+        return null;
     }
 
     public Date getDate(String name) {
         return new Date(getLong(name) * 1000);
     }
 
-    public boolean transmit(SocketChannel ch) throws IOException {
-        if (buf == null) {
-            byte[] data = serializeBinary(this);
-            int len = data.length;
-            buf = ByteBuffer.allocateDirect(len + 4);
-
-            buf.put((byte) ((len >> 24) & 0xFF));
-            buf.put((byte) ((len >> 16) & 0xFF));
-            buf.put((byte) ((len >> 8) & 0xFF));
-            buf.put((byte) ((len) & 0xFF));
-            buf.put(data);
-            buf.flip();
-        }
-
-        if (ch.write(buf) < 0) {
+    public boolean transmit(SocketChannel ch, HTSBufferPool pool) throws IOException {
+        if (ch.write(getFrameBuffer(pool)) < 0) {
             throw new IOException("Server went down");
         }
 
-        if (buf.hasRemaining()) {
+        if (!isTransmitted()) {
             return false;
         } else {
-            buf.flip();
+            releaseFrameBuffer(pool);
             return true;
         }
     }
 
+    /**
+     * Returns the part of the serialized frame that has not been written
+     * yet. The frame is serialized into a buffer from the pool on the first
+     * call, later calls return that same buffer.
+     */
+    ByteBuffer getFrameBuffer(HTSBufferPool pool) throws IOException {
+        if (buf == null) {
+            buf = pool.acquire(frameLength());
+            serialize(buf);
+            buf.flip();
+        }
+        return buf;
+    }
+
+    /**
+     * @return true once the serialized frame has been written completely
+     */
+    boolean isTransmitted() {
+        return buf != null && !buf.hasRemaining();
+    }
+
+    /**
+     * Gives the frame buffer back to the pool, either after the frame has
+     * been written or when it won't be sent anymore.
+     */
+    void releaseFrameBuffer(HTSBufferPool pool) {
+        if (buf != null) {
+            pool.release(buf);
+            buf = null;
+        }
+    }
+
+    /**
+     * Returns the number of bytes the serialized message takes including the
+     * four bytes of the length prefix.
+     */
+    public int frameLength() throws IOException {
+        return 4 + binaryLength(this);
+    }
+
+    /**
+     * Writes the complete frame, the length prefix followed by all fields,
+     * into the given buffer in a single pass. The buffer must have at least
+     * {@link #frameLength()} bytes remaining.
+     */
+    public void serialize(ByteBuffer out) throws IOException {
+        int start = out.position();
+        out.putInt(0);
+        serializeBinary(this, out);
+        out.putInt(start, out.position() - start - 4);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = indexOfField(key);
+        if (i < 0) {
+            return super.get(key);
+        }
+        return getField(i);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOfField(key) >= 0 || super.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int i = indexOfField(key);
+        if (i >= 0) {
+            Object old = decodeField(i);
+            removeFields(key);
+            super.put(key, value);
+            return old;
+        }
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> map) {
+        for (Map.Entry<? extends String, ? extends Object> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int i = indexOfField(key);
+        if (i >= 0) {
+            Object old = decodeField(i);
+            removeFields(key);
+            return old;
+        }
+        return super.remove(key);
+    }
+
+    @Override
+    public int size() {
+        decodeFields();
+        return super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return fieldCount == 0 && super.isEmpty();
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        decodeFields();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public void clear() {
+        fieldCount = 0;
+        fieldGeneration++;
+        data = null;
+        super.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        decodeFields();
+        return super.keySet();
+    }
+
+    @Override
+    public Collection<Object> values() {
+        decodeFields();
+        return super.values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        decodeFields();
+        return super.entrySet();
+    }
+
+    @Override
+    public Object clone() {
+        decodeFields();
+        return super.clone();
+    }
+
+    private Set<Map.Entry<String, Object>> mapEntrySet() {
+        return super.entrySet();
+    }
+
+    /**
+     * Walks over the frame once and remembers the name, type and location of
+     * every field without decoding any of the values.
+     */
+    private void index() throws IOException {
+        int start = data.position();
+        int end = data.limit();
+        int count = 0;
+
+        // Check the field headers and count them first, so the table can be
+        // allocated with the right size
+        int pos = start;
+        while (pos < end) {
+            if (end - pos < 6) {
+                throw new IOException("Buffer limit exceeded");
+            }
+            byte type = data.get(pos);
+            int namelen = data.get(pos + 1) & 0xFF;
+            long datalen = uIntToLong(data.get(pos + 2), data.get(pos + 3),
+                    data.get(pos + 4), data.get(pos + 5));
+            pos += 6;
+
+            if (datalen > Integer.MAX_VALUE) {
+                throw new IOException("Would get precision losses ;(");
+            }
+            if (end - pos < namelen + datalen) {
+                throw new IOException("Buffer limit exceeded");
+            }
+            if (type < HMF_MAP || type > HMF_LIST) {
+                throw new IOException("Unknown data type");
+            }
+            pos += namelen + datalen;
+            count++;
+        }
+        if (count == 0) {
+            return;
+        }
+
+        fieldNames = new String[count];
+        fieldTypes = new byte[count];
+        fieldOffsets = new int[count];
+        fieldLengths = new int[count];
+        fieldValues = new long[count];
+
+        int cnt = 0;
+        pos = start;
+        while (pos < end) {
+            byte type = data.get(pos);
+            int namelen = data.get(pos + 1) & 0xFF;
+            int datalen = (int) uIntToLong(data.get(pos + 2), data.get(pos + 3),
+                    data.get(pos + 4), data.get(pos + 5));
+            pos += 6;
+
+            //Get the key for the map (the name)
+            String name = null;
+            if (namelen == 0) {
+                name = HTSFieldNames.position(cnt++);
+            } else {
+                name = HTSFieldNames.lookup(data, pos, namelen);
+                if (name == null) {
+                    name = decodeString(data, pos, namelen);
+                }
+            }
+            pos += namelen;
+
+            int i = addField(name, type);
+            fieldOffsets[i] = pos;
+            fieldLengths[i] = datalen;
+            if (type == HMF_S64 && datalen <= 8) {
+                fieldValues[i] = decodeLong(data, pos, datalen);
+            }
+            pos += datalen;
+        }
+    }
+
+    /**
+     * Looks up the position of the given fields in the field table. The
+     * positions stay valid until getFieldGeneration changes.
+     *
+     * @param names
+     * @return the position of each field, -1 if it is not in the table
+     */
+    int[] resolveFields(String[] names) {
+        int[] slots = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            slots[i] = indexOfField(names[i]);
+        }
+        return slots;
+    }
+
+    int getFieldGeneration() {
+        return fieldGeneration;
+    }
+
+    boolean isLongField(int i) {
+        return isLong(i);
+    }
+
+    long getLongField(int i) {
+        return fieldValues[i];
+    }
+
+    Object getField(int i) {
+        if (fieldObjects != null && fieldObjects[i] != null) {
+            return fieldObjects[i];
+        }
+        switch (fieldTypes[i]) {
+            case HMF_S64:
+            case HMF_STR:
+                // Cheap to decode again, no need to keep them around
+                return decodeField(i);
+            default:
+                // Nested maps, lists and binary values are kept so every
+                // call returns the same object
+                if (fieldObjects == null) {
+                    fieldObjects = new Object[fieldNames.length];
+                }
+                fieldObjects[i] = decodeField(i);
+                return fieldObjects[i];
+        }
+    }
+
+    byte[] getByteArrayField(int i) {
+        Object obj = getField(i);
+        if (obj instanceof ByteBuffer) {
+            // Binary fields are kept as views into the received frame, the
+            // array is only created when it is requested for the first time
+            byte[] b = toByteArray((ByteBuffer) obj);
+            fieldObjects[i] = b;
+            return b;
+        }
+        return (byte[]) obj;
+    }
+
+    private boolean isLong(int i) {
+        return fieldTypes[i] == HMF_S64 && fieldLengths[i] <= 8;
+    }
+
+    private Object decodeField(int i) {
+        if (fieldObjects != null && fieldObjects[i] != null) {
+            return fieldObjects[i];
+        }
+        if (isLong(i)) {
+            return Long.valueOf(fieldValues[i]);
+        }
+        try {
+            return decodeValue(data, fieldTypes[i], fieldOffsets[i], fieldLengths[i]);
+        } catch (IOException ex) {
+            // The frame has been checked completely while it was indexed
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Decodes all remaining fields into the map. This is required before any
+     * of the collection views are handed out, they must see every field.
+     */
+    private void decodeFields() {
+        // In order, so a field that is sent twice keeps the last value
+        for (int i = 0; i < fieldCount; i++) {
+            super.put(fieldNames[i], decodeField(i));
+        }
+        fieldCount = 0;
+        fieldNames = null;
+        fieldTypes = null;
+        fieldOffsets = null;
+        fieldLengths = null;
+        fieldValues = null;
+        fieldObjects = null;
+        fieldGeneration++;
+        data = null;
+    }
+
+    private int indexOfField(Object name) {
+        // Backwards, so a field that is sent twice finds the last value
+        for (int i = fieldCount - 1; i >= 0; i--) {
+            if (fieldNames[i] == name || fieldNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int addField(String name, byte type) {
+        if (fieldNames == null) {
+            fieldNames = new String[4];
+            fieldTypes = new byte[4];
+            fieldOffsets = new int[4];
+            fieldLengths = new int[4];
+            fieldValues = new long[4];
+        } else if (fieldCount == fieldNames.length) {
+            int size = fieldCount * 2;
+            String[] names = new String[size];
+            byte[] types = new byte[size];
+            int[] offsets = new int[size];
+            int[] lengths = new int[size];
+            long[] values = new long[size];
+            System.arraycopy(fieldNames, 0, names, 0, fieldCount);
+            System.arraycopy(fieldTypes, 0, types, 0, fieldCount);
+            System.arraycopy(fieldOffsets, 0, offsets, 0, fieldCount);
+            System.arraycopy(fieldLengths, 0, lengths, 0, fieldCount);
+            System.arraycopy(fieldValues, 0, values, 0, fieldCount);
+            if (fieldObjects != null) {
+                Object[] objects = new Object[size];
+                System.arraycopy(fieldObjects, 0, objects, 0, fieldCount);
+                fieldObjects = objects;
+            }
+            fieldNames = names;
+            fieldTypes = types;
+            fieldOffsets = offsets;
+            fieldLengths = lengths;
+            fieldValues = values;
+        }
+        int i = fieldCount++;
+        fieldNames[i] = name;
+        fieldTypes[i] = type;
+        return i;
+    }
+
+    private void removeField(int i) {
+        int n = fieldCount - i - 1;
+        System.arraycopy(fieldNames, i + 1, fieldNames, i, n);
+        System.arraycopy(fieldTypes, i + 1, fieldTypes, i, n);
+        System.arraycopy(fieldOffsets, i + 1, fieldOffsets, i, n);
+        System.arraycopy(fieldLengths, i + 1, fieldLengths, i, n);
+        System.arraycopy(fieldValues, i + 1, fieldValues, i, n);
+        fieldCount--;
+        fieldNames[fieldCount] = null;
+        if (fieldObjects != null) {
+            System.arraycopy(fieldObjects, i + 1, fieldObjects, i, n);
+            fieldObjects[fieldCount] = null;
+        }
+        fieldGeneration++;
+    }
+
+    private void removeFields(Object name) {
+        int i;
+        while ((i = indexOfField(name)) >= 0) {
+            removeField(i);
+        }
+    }
+
     public static String getHexString(byte[] b) throws Exception {
         String result = "";
         for (int i = 0; i < b.length; i++) {
@@ -209,6 +711,13 @@ public class HTSMessage extends HashMap<String, Object> {
         return b1;
     }
 
+    private static byte[] toByteArray(ByteBuffer buf) {
+        ByteBuffer view = buf.duplicate();
+        byte[] b = new byte[view.remaining()];
+        view.get(b);
+        return b;
+    }
+
     private static BigInteger toBigInteger(byte b[]) {
         byte b1[] = new byte[b.length + 1];
 
@@ -232,66 +741,67 @@ public class HTSMessage extends HashMap<String, Object> {
         return i;
     }
 
+    /**
+     * Decodes the next frame from the given buffer which must be in read
+     * mode. If the frame is complete the position is moved past it, otherwise
+     * null is returned and the buffer is left untouched.
+     */
     public static HTSMessage parse(ByteBuffer buf) throws IOException {
         long len;
+        int pos = buf.position();
 
-        if (buf.position() < 4) {
+        if (buf.remaining() < 4) {
             return null;
         }
 
-        len = uIntToLong(buf.get(0), buf.get(1), buf.get(2), buf.get(3));
+        len = uIntToLong(buf.get(pos), buf.get(pos + 1), buf.get(pos + 2), buf.get(pos + 3));
 
         if (len + 4 > buf.capacity()) {
-            buf.clear();
             throw new IOException("Mesage is to long");
         }
 
-        if (buf.limit() == 4) {
-            buf.limit((int) (4 + len));
-        }
-
         //Message not yet fully read
-        if (buf.position() < len + 4) {
+        if (buf.remaining() < len + 4) {
             return null;
         }
 
-        buf.flip();
-        buf.getInt(); //drops 4 bytes
-        HTSMessage msg = deserializeBinary(buf);
+        buf.position(pos + 4);
 
-        buf.limit(4);
-        buf.position(0);
-        return msg;
+        // The receive buffer is reused for the next frame, so the frame is
+        // copied out once. All fields are then decoded from views into
+        // that single array instead of copying each one on its own.
+        byte[] frame = new byte[(int) len];
+        buf.get(frame);
+        return new HTSMessage(ByteBuffer.wrap(frame));
+    }
+
+    /**
+     * Decodes the fields between the position and the limit of the given
+     * buffer. The message keeps views into the buffer, so the caller must not
+     * reuse it afterwards.
+     */
+    static HTSMessage parseFrame(ByteBuffer body) throws IOException {
+        return new HTSMessage(body);
     }
 
     @SuppressWarnings("unchecked")
-    private static byte[] serializeBinary(String name, Object value) throws IOException {
-        byte[] bName = name.getBytes();
-        byte[] bData = new byte[0];
-        byte type;
+    private static int binaryLength(String name, Object value) throws IOException {
+        int len = 0;
 
         if (value instanceof String) {
-            type = HTSMessage.HMF_STR;
-            bData = ((String) value).getBytes();
-        } else if (value instanceof BigInteger) {
-            type = HTSMessage.HMF_S64;
-            bData = toByteArray((BigInteger) value);
-        } else if (value instanceof Integer) {
-            type = HTSMessage.HMF_S64;
-            bData = toByteArray(BigInteger.valueOf((Integer) value));
-        } else if (value instanceof Long) {
-            type = HTSMessage.HMF_S64;
-            bData = toByteArray(BigInteger.valueOf((Long) value));
+            len = utf8Length((String) value);
+        } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() > 63) {
+            len = toByteArray((BigInteger) value).length;
+        } else if (value instanceof BigInteger || value instanceof Integer || value instanceof Long) {
+            len = s64Length(((Number) value).longValue());
         } else if (value instanceof byte[]) {
-            type = HTSMessage.HMF_BIN;
-            bData = (byte[]) value;
+            len = ((byte[]) value).length;
+        } else if (value instanceof ByteBuffer) {
+            len = ((ByteBuffer) value).remaining();
         } else if (value instanceof Map) {
-            type = HTSMessage.HMF_MAP;
-            
-            bData = serializeBinary((Map<String, Object>) value);
+            len = binaryLength((Map<String, Object>) value);
         } else if (value instanceof Collection) {
-            type = HTSMessage.HMF_LIST;
-            bData = serializeBinary((Collection<?>) value);
+            len = binaryLength((Collection<?>) value);
         } else if (value == null) {
             throw new IOException("HTSP doesn't support null values");
         } else {
@@ -299,117 +809,269 @@ public class HTSMessage extends HashMap<String, Object> {
                     + " (" + value.getClass().getSimpleName() + ")");
         }
 
-        byte[] buf = new byte[1 + 1 + 4 + bName.length + bData.length];
-        buf[0] = type;
-        buf[1] = (byte) (bName.length & 0xFF);
-        buf[2] = (byte) ((bData.length >> 24) & 0xFF);
-        buf[3] = (byte) ((bData.length >> 16) & 0xFF);
-        buf[4] = (byte) ((bData.length >> 8) & 0xFF);
-        buf[5] = (byte) ((bData.length) & 0xFF);
+        int namelen = utf8Length(name);
+        if (namelen > 0xFF) {
+            throw new IOException("Field name " + name + " is to long");
+        }
+        return 1 + 1 + 4 + namelen + len;
+    }
 
-        System.arraycopy(bName, 0, buf, 6, bName.length);
-        System.arraycopy(bData, 0, buf, 6 + bName.length, bData.length);
+    private static int binaryLength(Collection<?> list) throws IOException {
+        int len = 0;
+        for (Object value : list) {
+            len += binaryLength("", value);
+        }
+        return len;
+    }
 
-        return buf;
+    private static int binaryLength(Map<String, Object> map) throws IOException {
+        int len = 0;
+        Set<Map.Entry<String, Object>> entries;
+
+        if (map instanceof HTSMessage) {
+            HTSMessage msg = (HTSMessage) map;
+            for (int i = 0; i < msg.fieldCount; i++) {
+                if (msg.fieldObjects != null && msg.fieldObjects[i] != null) {
+                    len += binaryLength(msg.fieldNames[i], msg.fieldObjects[i]);
+                    continue;
+                }
+                len += 1 + 1 + 4 + utf8Length(msg.fieldNames[i]);
+                len += msg.isLong(i) ? s64Length(msg.fieldValues[i]) : msg.fieldLengths[i];
+            }
+            entries = msg.mapEntrySet();
+        } else {
+            entries = map.entrySet();
+        }
+
+        for (Map.Entry<String, Object> entry : entries) {
+            len += binaryLength(entry.getKey(), entry.getValue());
+        }
+        return len;
     }
 
-    private static byte[] serializeBinary(Collection<?> list) throws IOException {
-        ByteBuffer buf = ByteBuffer.allocate(Short.MAX_VALUE);
+    @SuppressWarnings("unchecked")
+    private static void serializeBinary(String name, Object value, ByteBuffer out) throws IOException {
+        // The length of the data is written after the data itself because
+        // nested maps and lists would otherwise need to be measured twice.
+        int start = out.position();
+        out.put((byte) 0);
+        out.put((byte) utf8Length(name));
+        out.putInt(0);
+        putUtf8(name, out);
+        int dataStart = out.position();
+        byte type;
 
-        for (Object value : list) {
-            byte[] sub = serializeBinary("", value);
-            buf.put(sub);
+        if (value instanceof String) {
+            type = HTSMessage.HMF_STR;
+            putUtf8((String) value, out);
+        } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() > 63) {
+            type = HTSMessage.HMF_S64;
+            out.put(toByteArray((BigInteger) value));
+        } else if (value instanceof BigInteger || value instanceof Integer || value instanceof Long) {
+            type = HTSMessage.HMF_S64;
+            putS64(((Number) value).longValue(), out);
+        } else if (value instanceof byte[]) {
+            type = HTSMessage.HMF_BIN;
+            out.put((byte[]) value);
+        } else if (value instanceof ByteBuffer) {
+            type = HTSMessage.HMF_BIN;
+            out.put(((ByteBuffer) value).duplicate());
+        } else if (value instanceof Map) {
+            type = HTSMessage.HMF_MAP;
+            serializeBinary((Map<String, Object>) value, out);
+        } else if (value instanceof Collection) {
+            type = HTSMessage.HMF_LIST;
+            serializeBinary((Collection<?>) value, out);
+        } else {
+            throw new IOException("Unhandled class for " + name + ": " + value);
         }
 
-        byte[] bBuf = new byte[buf.position()];
-        buf.flip();
-        buf.get(bBuf);
+        out.put(start, type);
+        out.putInt(start + 2, out.position() - dataStart);
+    }
 
-        return bBuf;
+    private static void serializeBinary(Collection<?> list, ByteBuffer out) throws IOException {
+        for (Object value : list) {
+            serializeBinary("", value, out);
+        }
     }
 
-    private static byte[] serializeBinary(Map<String, Object> map) throws IOException {
-        ByteBuffer buf = ByteBuffer.allocate(Short.MAX_VALUE);
+    private static void serializeBinary(Map<String, Object> map, ByteBuffer out) throws IOException {
+        Set<Map.Entry<String, Object>> entries;
+
+        if (map instanceof HTSMessage) {
+            // Integers are written without boxing them first, fields that
+            // have not been decoded are copied from the received frame as
+            // they are. Decoded values may have been changed since.
+            HTSMessage msg = (HTSMessage) map;
+            for (int i = 0; i < msg.fieldCount; i++) {
+                String name = msg.fieldNames[i];
+                if (msg.fieldObjects != null && msg.fieldObjects[i] != null) {
+                    serializeBinary(name, msg.fieldObjects[i], out);
+                    continue;
+                }
+                out.put(msg.fieldTypes[i]);
+                out.put((byte) utf8Length(name));
+                if (msg.isLong(i)) {
+                    out.putInt(s64Length(msg.fieldValues[i]));
+                    putUtf8(name, out);
+                    putS64(msg.fieldValues[i], out);
+                } else {
+                    out.putInt(msg.fieldLengths[i]);
+                    putUtf8(name, out);
+                    out.put(slice(msg.data, msg.fieldOffsets[i], msg.fieldLengths[i]));
+                }
+            }
+            entries = msg.mapEntrySet();
+        } else {
+            entries = map.entrySet();
+        }
 
-        for (Object key : map.keySet()) {
-            Object value = map.get(key);
-            byte[] sub = serializeBinary(key.toString(), value);
-            buf.put(sub);
+        for (Map.Entry<String, Object> entry : entries) {
+            serializeBinary(entry.getKey(), entry.getValue(), out);
         }
+    }
 
-        byte[] bBuf = new byte[buf.position()];
-        buf.flip();
-        buf.get(bBuf);
+    private static int s64Length(long value) {
+        int len = 0;
+        for (long v = value; v != 0; v >>>= 8) {
+            len++;
+        }
+        return len;
+    }
 
-        return bBuf;
+    private static void putS64(long value, ByteBuffer out) {
+        // Same layout as the server uses, the least significant byte comes
+        // first and trailing zero bytes are left out
+        for (long v = value; v != 0; v >>>= 8) {
+            out.put((byte) v);
+        }
     }
 
-    private static HTSMessage deserializeBinary(ByteBuffer buf) throws IOException {
-        byte type, namelen;
-        long datalen;
+    private static int utf8Length(String str) {
+        int len = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                len += 1;
+            } else if (c < 0x800) {
+                len += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length()
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                len += 4;
+                i++;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                len += 1;
+            } else {
+                len += 3;
+            }
+        }
+        return len;
+    }
 
-        HTSMessage msg = new HTSMessage();
-        int cnt = 0;
+    private static void putUtf8(String str, ByteBuffer out) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length()
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, str.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // Unpaired surrogates can't be encoded
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
 
-        while (buf.hasRemaining()) {
-            type = buf.get();
-            namelen = buf.get();
-            datalen = uIntToLong(buf.get(), buf.get(), buf.get(), buf.get());
+    private static List<Object> decodeList(ByteBuffer buf) throws IOException {
+        ArrayList<Object> list = new ArrayList<Object>();
+        int pos = buf.position();
+        int end = buf.limit();
 
-            if (datalen > Integer.MAX_VALUE) {
-                throw new IOException("Would get precision losses ;(");
+        while (pos < end) {
+            if (end - pos < 6) {
+                throw new IOException("Buffer limit exceeded");
             }
-            if (buf.limit() < namelen + datalen) {
+            byte type = buf.get(pos);
+            int namelen = buf.get(pos + 1) & 0xFF;
+            long datalen = uIntToLong(buf.get(pos + 2), buf.get(pos + 3),
+                    buf.get(pos + 4), buf.get(pos + 5));
+
+            // List entries carry no name, skip it if the server sent one
+            pos += 6 + namelen;
+            if (datalen > end - pos) {
                 throw new IOException("Buffer limit exceeded");
             }
+            list.add(decodeValue(buf, type, pos, (int) datalen));
+            pos += datalen;
+        }
+        return list;
+    }
 
-            //Get the key for the map (the name)
-            String name = null;
-            if (namelen == 0) {
-                name = Integer.toString(cnt++);
-            } else {
-                byte[] bName = new byte[namelen];
-                buf.get(bName);
-                name = new String(bName);
-            }
+    /**
+     * Decodes a single value that is located at the given offset of the
+     * buffer. Nested maps, lists and binary values are decoded from views
+     * that share the content of the buffer, nothing is copied.
+     */
+    private static Object decodeValue(ByteBuffer buf, byte type, int offset, int len) throws IOException {
+        switch (type) {
+            case HMF_STR:
+                return decodeString(buf, offset, len);
+            case HMF_BIN:
+                return slice(buf, offset, len).asReadOnlyBuffer();
+            case HMF_S64:
+                if (len <= 8) {
+                    return Long.valueOf(decodeLong(buf, offset, len));
+                }
+                byte[] bData = new byte[len];
+                slice(buf, offset, len).get(bData);
+                return toBigInteger(bData);
+            case HMF_MAP:
+                return new HTSMessage(slice(buf, offset, len));
+            case HMF_LIST:
+                return decodeList(slice(buf, offset, len));
+            default:
+                throw new IOException("Unknown data type");
+        }
+    }
 
-            //Get the actual content
-            Object obj = null;
-            byte[] bData = new byte[(int) datalen]; //Should be long?
-            buf.get(bData);
+    private static ByteBuffer slice(ByteBuffer buf, int offset, int len) {
+        ByteBuffer sub = buf.duplicate();
+        sub.limit(offset + len);
+        sub.position(offset);
+        return sub.slice();
+    }
 
-            switch (type) {
-                case HTSMessage.HMF_STR: {
-                    obj = new String(bData);
-                    break;
-                }
-                case HMF_BIN: {
-                    obj = bData;
-                    break;
-                }
-                case HMF_S64: {
-                    obj = toBigInteger(bData);
-                    break;
-                }
-                case HMF_MAP: {
-                    ByteBuffer sub = ByteBuffer.allocateDirect((int) datalen);
-                    sub.put(bData);
-                    sub.flip();
-                    obj = deserializeBinary(sub);
-                    break;
-                }
-                case HMF_LIST: {
-                    ByteBuffer sub = ByteBuffer.allocateDirect((int) datalen);
-                    sub.put(bData);
-                    sub.flip();
-                    obj = new ArrayList<Object>(deserializeBinary(sub).values());
-                    break;
-                }
-                default:
-                    throw new IOException("Unknown data type");
-            }
-            msg.putField(name, obj);
+    private static long decodeLong(ByteBuffer buf, int offset, int len) {
+        // Least significant byte first. Negative values always use all eight
+        // bytes so the sign comes out right without any extension.
+        long value = 0;
+        for (int i = 0; i < len; i++) {
+            value |= (buf.get(offset + i) & 0xFFL) << (i * 8);
+        }
+        return value;
+    }
+
+    private static String decodeString(ByteBuffer buf, int offset, int len) {
+        // Always UTF-8 as the protocol requires, independent of the default
+        // charset of the platform
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + offset, len, UTF_8);
         }
-        return msg;
+        byte[] b = new byte[len];
+        slice(buf, offset, len).get(b);
+        return new String(b, UTF_8);
     }
 }
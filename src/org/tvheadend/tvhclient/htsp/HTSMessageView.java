@@ -0,0 +1,188 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Base class of the typed message views in the view package, which are
+ * generated from tools/htsp/htsp.schema. The position of each field a view
+ * knows about is looked up once when the view is created. The accessors
+ * read the value from that position instead of searching the message by
+ * name again.
+ */
+public abstract class HTSMessageView {
+
+    private final HTSMessage msg;
+    private final String[] fields;
+    private final int[] slots;
+    private final int generation;
+
+    protected HTSMessageView(HTSMessage msg, String[] fields) {
+        this.msg = msg;
+        this.fields = fields;
+        this.slots = msg.resolveFields(fields);
+        this.generation = msg.getFieldGeneration();
+    }
+
+    /**
+     * @return the message this view reads from
+     */
+    public HTSMessage getMessage() {
+        return msg;
+    }
+
+    private int slot(int field) {
+        // The positions are stale once fields have been moved, the lookup
+        // by name is always right
+        if (generation != msg.getFieldGeneration()) {
+            return -1;
+        }
+        return slots[field];
+    }
+
+    protected boolean has(int field) {
+        return slot(field) >= 0 || msg.containsKey(fields[field]);
+    }
+
+    protected long getLong(int field) {
+        int slot = slot(field);
+        if (slot >= 0 && msg.isLongField(slot)) {
+            return msg.getLongField(slot);
+        }
+        return msg.getLong(fields[field]);
+    }
+
+    protected long getLong(int field, long std) {
+        int slot = slot(field);
+        if (slot >= 0 && msg.isLongField(slot)) {
+            return msg.getLongField(slot);
+        }
+        return msg.getLong(fields[field], std);
+    }
+
+    protected int getInt(int field) {
+        return (int) getLong(field);
+    }
+
+    protected int getInt(int field, int std) {
+        int slot = slot(field);
+        if (slot >= 0 && msg.isLongField(slot)) {
+            return (int) msg.getLongField(slot);
+        }
+        return msg.getInt(fields[field], std);
+    }
+
+    protected Date getDate(int field) {
+        return new Date(getLong(field) * 1000);
+    }
+
+    protected BigInteger getBigInteger(int field) {
+        int slot = slot(field);
+        if (slot >= 0 && msg.isLongField(slot)) {
+            return BigInteger.valueOf(msg.getLongField(slot));
+        }
+        return msg.getBigInteger(fields[field]);
+    }
+
+    protected String getString(int field) {
+        Object obj = get(field);
+        if (obj == null) {
+            return null;
+        }
+        return obj.toString();
+    }
+
+    protected String getString(int field, String std) {
+        if (!has(field)) {
+            return std;
+        }
+        return getString(field);
+    }
+
+    protected byte[] getByteArray(int field) {
+        int slot = slot(field);
+        if (slot >= 0) {
+            return msg.getByteArrayField(slot);
+        }
+        return msg.getByteArray(fields[field]);
+    }
+
+    protected List<Integer> getIntList(int field) {
+        return msg.getIntList(fields[field]);
+    }
+
+    protected List<Integer> getIntList(int field, List<Integer> std) {
+        if (!has(field)) {
+            return std;
+        }
+        return msg.getIntList(fields[field]);
+    }
+
+    protected List<Long> getLongList(int field) {
+        return msg.getLongList(fields[field]);
+    }
+
+    protected List<Long> getLongList(int field, List<Long> std) {
+        if (!has(field)) {
+            return std;
+        }
+        return msg.getLongList(fields[field]);
+    }
+
+    protected List<?> getList(int field) {
+        return (List<?>) get(field);
+    }
+
+    protected HTSMessage getMap(int field) {
+        return (HTSMessage) get(field);
+    }
+
+    /**
+     * @param field
+     * @return the maps of a list field, an empty list if the field is missing
+     */
+    protected List<HTSMessage> getMapList(int field) {
+        List<?> list = getList(field);
+        if (list == null) {
+            return new ArrayList<HTSMessage>();
+        }
+        List<HTSMessage> maps = new ArrayList<HTSMessage>(list.size());
+        for (Object obj : list) {
+            maps.add((HTSMessage) obj);
+        }
+        return maps;
+    }
+
+    private Object get(int field) {
+        int slot = slot(field);
+        if (slot >= 0) {
+            return msg.getField(slot);
+        }
+        return msg.get(fields[field]);
+    }
+
+    @Override
+    public String toString() {
+        return msg.toString();
+    }
+}
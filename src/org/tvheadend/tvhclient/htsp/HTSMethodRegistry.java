@@ -0,0 +1,234 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps the methods of the messages the server sends on its own to their
+ * handlers. Looking up a method is a single hash lookup, however many
+ * methods there are, and handlers for new methods can be added at any time.
+ *
+ * Counts how often each method has been handled, how often its handler
+ * failed and how long it took.
+ *
+ * Dispatching does not lock, it may run on several threads at once.
+ * Registering copies the table, which is fine for the few times it
+ * happens.
+ */
+public class HTSMethodRegistry {
+
+    public interface MethodHandler {
+        void handle(HTSMessage msg);
+    }
+
+    private volatile HashMap<String, Method> methods = new HashMap<String, Method>();
+    private final AtomicLong unknown = new AtomicLong();
+
+    /**
+     * Handles the messages with the given method by the handler from now
+     * on. A handler that has been registered for the method before is
+     * replaced, its counters are kept.
+     *
+     * @param method
+     * @param handler
+     */
+    public synchronized void register(String method, MethodHandler handler) {
+        HashMap<String, Method> copy = new HashMap<String, Method>(methods);
+        Method m = copy.get(method);
+        copy.put(method, m != null ? new Method(m, handler) : new Method(method, handler));
+        methods = copy;
+    }
+
+    /**
+     * Stops handling the messages with the given method.
+     *
+     * @param method
+     */
+    public synchronized void unregister(String method) {
+        HashMap<String, Method> copy = new HashMap<String, Method>(methods);
+        copy.remove(method);
+        methods = copy;
+    }
+
+    /**
+     * Passes the message on to the handler of its method. What the handler
+     * throws is counted and thrown on.
+     *
+     * @param msg
+     * @return false if there is no handler for the method
+     */
+    public boolean dispatch(HTSMessage msg) {
+        Method m = methods.get(msg.getMethod());
+        if (m == null) {
+            unknown.incrementAndGet();
+            return false;
+        }
+
+        long start = System.nanoTime();
+        try {
+            m.handler.handle(msg);
+        } catch (RuntimeException ex) {
+            m.stats.errors.incrementAndGet();
+            throw ex;
+        } catch (Error err) {
+            m.stats.errors.incrementAndGet();
+            throw err;
+        } finally {
+            m.stats.add(System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    /**
+     * @param method
+     * @return the counters of the method or null if it has never had a
+     *         handler
+     */
+    public MethodStats getStats(String method) {
+        Method m = methods.get(method);
+        return m != null ? m.stats : null;
+    }
+
+    /**
+     * @return the counters of all methods that have a handler
+     */
+    public List<MethodStats> getStats() {
+        List<MethodStats> stats = new ArrayList<MethodStats>();
+        for (Method m : methods.values()) {
+            stats.add(m.stats);
+        }
+        return stats;
+    }
+
+    /**
+     * @return the number of messages whose method had no handler
+     */
+    public long getUnknown() {
+        return unknown.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Method m : methods.values()) {
+            if (m.stats.getInvocations() > 0) {
+                sb.append(m.stats).append('\n');
+            }
+        }
+        sb.append("unknown=").append(unknown.get());
+        return sb.toString();
+    }
+
+    private static class Method {
+
+        final MethodHandler handler;
+        final MethodStats stats;
+
+        Method(String name, MethodHandler handler) {
+            this.handler = handler;
+            this.stats = new MethodStats(name);
+        }
+
+        Method(Method old, MethodHandler handler) {
+            this.handler = handler;
+            this.stats = old.stats;
+        }
+    }
+
+    /**
+     * The counters of one method. They are updated while they are read, so
+     * they do not necessarily match each other exactly.
+     */
+    public static class MethodStats {
+
+        private final String method;
+        private final AtomicLong invocations = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong maxTime = new AtomicLong();
+
+        MethodStats(String method) {
+            this.method = method;
+        }
+
+        void add(long time) {
+            invocations.incrementAndGet();
+            totalTime.addAndGet(time);
+            long max;
+            while (time > (max = maxTime.get())) {
+                if (maxTime.compareAndSet(max, time)) {
+                    break;
+                }
+            }
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return how often the handler has been called
+         */
+        public long getInvocations() {
+            return invocations.get();
+        }
+
+        /**
+         * @return how often the handler has thrown
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * @return the time in nanoseconds all calls of the handler took
+         */
+        public long getTotalTime() {
+            return totalTime.get();
+        }
+
+        /**
+         * @return the time in nanoseconds the longest call took
+         */
+        public long getMaxTime() {
+            return maxTime.get();
+        }
+
+        /**
+         * @return the average time in nanoseconds a call took
+         */
+        public long getAverageTime() {
+            long n = invocations.get();
+            return n > 0 ? totalTime.get() / n : 0;
+        }
+
+        @Override
+        public String toString() {
+            return method
+                    + " invocations=" + getInvocations()
+                    + " errors=" + getErrors()
+                    + " avg=" + getAverageTime() / 1000 + "us"
+                    + " max=" + getMaxTime() / 1000 + "us";
+        }
+    }
+}
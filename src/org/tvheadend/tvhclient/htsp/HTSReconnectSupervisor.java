@@ -0,0 +1,443 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+/**
+ * Opens and authenticates the connection to the server and opens it again
+ * when it is lost. Only one attempt runs at a time, however often a
+ * connect is asked for, so the activities that all react to a lost
+ * connection do not start one each.
+ *
+ * Failed attempts are repeated after an exponential backoff with random
+ * jitter. After {@link #CIRCUIT_THRESHOLD} failures in a row the circuit
+ * opens and no attempt is made until {@link #CIRCUIT_COOLDOWN} has passed
+ * or a connect is asked for explicitly. A rejected login is not repeated
+ * at all.
+ *
+ * Interactive requests that are sent while the connection is being opened
+ * again are held back and sent once it is authenticated. Requests that had
+ * already been sent on the lost connection are not repeated, the server
+ * may have carried them out.
+ */
+public class HTSReconnectSupervisor {
+
+    private static final String TAG = HTSReconnectSupervisor.class.getSimpleName();
+
+    public interface ConnectionFactory {
+        /**
+         * Creates the connection for the next attempt. Called on the thread
+         * of the attempt.
+         *
+         * @return the connection, not opened yet
+         */
+        HTSConnection newConnection();
+    }
+
+    public enum State {
+        DISCONNECTED,
+        CONNECTING,
+        CONNECTED,
+        // Waiting for the backoff of the next attempt to pass
+        WAITING,
+        // Too many failed attempts, waiting for the cooldown to pass
+        CIRCUIT_OPEN,
+    }
+
+    // Delays in milliseconds before the next attempt after a failure. The
+    // delay doubles with each failure up to the maximum.
+    static final long BASE_DELAY = 1000;
+    static final long MAX_DELAY = 60000;
+
+    // Failed attempts in a row that open the circuit and how long it stays
+    // open in milliseconds
+    static final int CIRCUIT_THRESHOLD = 8;
+    static final long CIRCUIT_COOLDOWN = 5 * 60000;
+
+    // Interactive requests that are held back at most while reconnecting
+    private static final int MAX_PENDING = 32;
+
+    private final ScheduledExecutorService executor;
+    private final ConnectionFactory factory;
+    private final Random random = new Random();
+
+    private String hostname;
+    private int port;
+    private String username;
+    private String password;
+
+    private State state = State.DISCONNECTED;
+    private HTSConnection connection;
+    private ScheduledFuture<?> scheduled;
+    private boolean lost;
+    private boolean attemptRunning;
+    // Changed whenever the running attempt is superseded
+    private int generation;
+    private int failures;
+    private final ArrayDeque<PendingRequest> pending = new ArrayDeque<PendingRequest>();
+
+    private long attempts;
+    private long successes;
+    private long failed;
+    private long lastConnectTime;
+    private long avgConnectTime;
+
+    /**
+     * @param executor
+     *            Runs the attempts, which block until the connection is
+     *            authenticated or has failed
+     * @param factory
+     */
+    public HTSReconnectSupervisor(ScheduledExecutorService executor, ConnectionFactory factory) {
+        this.executor = executor;
+        this.factory = factory;
+    }
+
+    /**
+     * Connects to the given server unless the connection to it is open
+     * already or an attempt is on its way.
+     *
+     * @param hostname
+     * @param port
+     * @param username
+     * @param password
+     * @param force
+     *            Closes the current connection and connects right away,
+     *            even while the circuit is open
+     */
+    public synchronized void connect(String hostname, int port, String username, String password, boolean force) {
+        boolean changed = !equal(hostname, this.hostname) || port != this.port
+                || !equal(username, this.username) || !equal(password, this.password);
+        this.hostname = hostname;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+
+        if (force || changed) {
+            failures = 0;
+            lost = false;
+            if (connection != null) {
+                connection.close();
+            }
+            connection = null;
+            generation++;
+            state = State.WAITING;
+            // A running attempt notices that it has been replaced and
+            // starts the next one itself
+            if (!attemptRunning) {
+                schedule(0);
+            }
+            return;
+        }
+
+        switch (state) {
+        case CONNECTED:
+            if (connection != null && connection.isConnected()) {
+                return;
+            }
+            break;
+        case CONNECTING:
+        case WAITING:
+            // The attempt that is due will do
+            return;
+        case CIRCUIT_OPEN:
+            // Try once, a failure opens the circuit again
+            failures = CIRCUIT_THRESHOLD - 1;
+            break;
+        case DISCONNECTED:
+            break;
+        }
+        state = State.WAITING;
+        schedule(0);
+    }
+
+    /**
+     * Closes the connection and stops opening it again.
+     */
+    public synchronized void disconnect() {
+        cancelScheduled();
+        state = State.DISCONNECTED;
+        lost = false;
+        failPending("Disconnected");
+        generation++;
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+    }
+
+    /**
+     * Called when the connection has been lost after it was open. Opens it
+     * again after a short random delay.
+     */
+    public synchronized void connectionLost() {
+        if (state != State.CONNECTED) {
+            return;
+        }
+        Log.d(TAG, "Connection lost, reconnecting");
+        lost = true;
+        failures = 0;
+        state = State.WAITING;
+        schedule(backoff(1));
+    }
+
+    /**
+     * Holds back the interactive request while the connection is being
+     * opened again, it is sent once the connection is authenticated.
+     *
+     * @param message
+     * @param handler
+     * @return false if the connection is not being opened again or too
+     *         many requests are waiting already, the caller has to send
+     *         the request itself
+     */
+    public synchronized boolean holdBack(HTSMessage message, HTSResponseHandler handler) {
+        if (!isReconnecting() || pending.size() >= MAX_PENDING) {
+            return false;
+        }
+        pending.add(new PendingRequest(message, handler));
+        return true;
+    }
+
+    /**
+     * @return true while a lost connection is being opened again
+     */
+    public synchronized boolean isReconnecting() {
+        return lost && (state == State.CONNECTING || state == State.WAITING);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the connection of the last attempt, which may not be open
+     */
+    public synchronized HTSConnection getConnection() {
+        return connection;
+    }
+
+    public synchronized long getAttempts() {
+        return attempts;
+    }
+
+    public synchronized long getSuccesses() {
+        return successes;
+    }
+
+    public synchronized long getFailures() {
+        return failed;
+    }
+
+    /**
+     * @return the time in milliseconds the last successful attempt took to
+     *         open and authenticate the connection
+     */
+    public synchronized long getLastConnectTime() {
+        return lastConnectTime;
+    }
+
+    /**
+     * @return the smoothed time in milliseconds it takes to open and
+     *         authenticate the connection
+     */
+    public synchronized long getAverageConnectTime() {
+        return avgConnectTime;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "state=" + state
+                + " attempts=" + attempts
+                + " successes=" + successes
+                + " failures=" + failed
+                + " connectTime=" + lastConnectTime + "ms"
+                + " avgConnectTime=" + avgConnectTime + "ms";
+    }
+
+    /**
+     * @param failures
+     *            Failed attempts in a row
+     * @return the delay in milliseconds before the next attempt, somewhere
+     *         between half and all of the exponential backoff
+     */
+    long backoff(int failures) {
+        long delay = BASE_DELAY << Math.min(failures - 1, 16);
+        delay = Math.min(delay, MAX_DELAY);
+        long half = delay / 2;
+        synchronized (random) {
+            return half + (long) (random.nextDouble() * (delay - half));
+        }
+    }
+
+    private void schedule(long delay) {
+        cancelScheduled();
+        scheduled = executor.schedule(new Runnable() {
+            public void run() {
+                attempt();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelScheduled() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+    }
+
+    private void attempt() {
+        HTSConnection conn;
+        String h, u, p;
+        int pt;
+        int gen;
+        synchronized (this) {
+            if (attemptRunning) {
+                // The running attempt schedules the next one if it fails
+                return;
+            }
+            attemptRunning = true;
+            scheduled = null;
+            state = State.CONNECTING;
+            attempts++;
+            h = hostname;
+            pt = port;
+            u = username;
+            p = password;
+            gen = generation;
+        }
+
+        long start = System.currentTimeMillis();
+        conn = factory.newConnection();
+        synchronized (this) {
+            if (gen == generation) {
+                connection = conn;
+            }
+        }
+        conn.open(h, pt);
+        conn.authenticate(u, p);
+        long time = System.currentTimeMillis() - start;
+
+        List<PendingRequest> resume = null;
+        synchronized (this) {
+            attemptRunning = false;
+            if (state == State.DISCONNECTED) {
+                // Closed meanwhile
+                conn.close();
+                return;
+            }
+            if (gen != generation) {
+                // Replaced by a forced connect
+                conn.close();
+                schedule(0);
+                return;
+            }
+            if (conn.isAuthenticated()) {
+                successes++;
+                failures = 0;
+                lost = false;
+                lastConnectTime = time;
+                avgConnectTime = avgConnectTime == 0 ? time : avgConnectTime + (time - avgConnectTime) / 4;
+                state = State.CONNECTED;
+                resume = new ArrayList<PendingRequest>(pending);
+                pending.clear();
+                Log.d(TAG, "Connected in " + time + "ms, " + resume.size() + " requests to resume");
+
+            } else {
+                failed++;
+                failures++;
+                conn.close();
+                if (conn.isAccessDenied()) {
+                    // Trying again will not help
+                    state = State.DISCONNECTED;
+                    lost = false;
+                    failPending("Access denied");
+                } else if (failures >= CIRCUIT_THRESHOLD) {
+                    Log.w(TAG, "Connecting failed " + failures + " times, waiting " + CIRCUIT_COOLDOWN + "ms");
+                    failPending("Can't connect");
+                    lost = false;
+                    cancelScheduled();
+                    state = State.CIRCUIT_OPEN;
+                    scheduled = executor.schedule(new Runnable() {
+                        public void run() {
+                            synchronized (HTSReconnectSupervisor.this) {
+                                if (state != State.CIRCUIT_OPEN) {
+                                    return;
+                                }
+                                failures = CIRCUIT_THRESHOLD - 1;
+                                state = State.WAITING;
+                            }
+                            attempt();
+                        }
+                    }, CIRCUIT_COOLDOWN, TimeUnit.MILLISECONDS);
+                } else {
+                    state = State.WAITING;
+                    schedule(backoff(failures));
+                }
+            }
+        }
+
+        if (resume != null) {
+            for (PendingRequest req : resume) {
+                if (req.isExpired()) {
+                    Log.d(TAG, "Dropping request " + req.message.getMethod() + " held back too long");
+                    continue;
+                }
+                conn.sendMessage(req.message, req.handler);
+            }
+        }
+    }
+
+    private void failPending(String reason) {
+        if (!pending.isEmpty()) {
+            Log.d(TAG, "Dropping " + pending.size() + " held back requests: " + reason);
+        }
+        pending.clear();
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static class PendingRequest {
+
+        final HTSMessage message;
+        final HTSResponseHandler handler;
+        final long deadline;
+
+        PendingRequest(HTSMessage message, HTSResponseHandler handler) {
+            this.message = message;
+            this.handler = handler;
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HTSConnection.DEFAULT_TIMEOUT);
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - deadline > 0;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many requests of one class, like getEvents or fileRead, wait
+ * for their reply at the same time. Further requests of the class are held
+ * back until a reply arrives, so a burst of bulk requests does not end up
+ * in the socket all at once in front of a subscribe or getTicket.
+ *
+ * Callers feel the backpressure once more than the allowed number of
+ * requests are held back, further requests of the class then fail right
+ * away. Sending never blocks, it may be called from the UI thread.
+ *
+ * The window also keeps the queue depth and a smoothed round trip time of
+ * its requests, measured from the moment a request is passed on for
+ * writing until its reply has arrived.
+ */
+public class HTSRequestWindow {
+
+    private final String name;
+    private volatile int maxInFlight;
+    private volatile int maxQueued;
+
+    // Requests that have been sent by a caller but not been passed on for
+    // writing yet. Changed by the callers and the selector thread.
+    private final AtomicInteger queued;
+
+    // Only used by the selector thread
+    private final ArrayDeque<HTSMessage> backlog;
+    private volatile int inFlight;
+
+    private volatile int peakQueued;
+    private volatile long completed;
+    private volatile long failed;
+    private volatile long srtt;
+    private volatile long rttvar;
+
+    /**
+     * @param name
+     * @param maxInFlight
+     *            Requests that may wait for their reply at the same time, 0
+     *            for no limit
+     * @param maxQueued
+     *            Requests that may be held back before further ones are
+     *            rejected, 0 for no limit
+     */
+    public HTSRequestWindow(String name, int maxInFlight, int maxQueued) {
+        this.name = name;
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        queued = new AtomicInteger();
+        backlog = new ArrayDeque<HTSMessage>();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Changes the number of requests that may wait for their reply at the
+     * same time. A larger window takes effect with the next reply.
+     *
+     * @param maxInFlight
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    public void setMaxQueued(int maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Counts a new request of this class unless too many requests are held
+     * back already. Never blocks.
+     *
+     * @return false if the request has to be rejected
+     */
+    boolean enqueue() {
+        int q;
+        do {
+            q = queued.get();
+            int max = maxQueued;
+            if (max > 0 && q >= max) {
+                return false;
+            }
+        } while (!queued.compareAndSet(q, q + 1));
+        if (q + 1 > peakQueued) {
+            peakQueued = q + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Holds the request back until {@link #poll()} passes it on. Called on
+     * the selector thread.
+     *
+     * @param msg
+     */
+    void park(HTSMessage msg) {
+        backlog.add(msg);
+    }
+
+    /**
+     * Takes the oldest request that has been held back if the window has
+     * room for it. Called on the selector thread.
+     *
+     * @return the request or null if it has to wait further
+     */
+    HTSMessage poll() {
+        int max = maxInFlight;
+        if (max > 0 && inFlight >= max) {
+            return null;
+        }
+        HTSMessage msg = backlog.poll();
+        if (msg != null) {
+            dequeued();
+        }
+        return msg;
+    }
+
+    /**
+     * Counts a request that was taken with {@link #poll()} and passed on for
+     * writing.
+     */
+    void sent() {
+        inFlight++;
+    }
+
+    /**
+     * Frees the slot of a request whose reply has arrived.
+     *
+     * @param rtt
+     *            Nanoseconds since the request has been passed on
+     */
+    void completed(long rtt) {
+        inFlight--;
+        completed++;
+        if (srtt == 0) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            // Smoothed like the retransmission timer of TCP (RFC 6298)
+            rttvar += (Math.abs(srtt - rtt) - rttvar) / 4;
+            srtt += (rtt - srtt) / 8;
+        }
+    }
+
+    /**
+     * Frees the slot of a request that timed out or was lost.
+     */
+    void failed() {
+        inFlight--;
+        failed++;
+    }
+
+    /**
+     * Drops all held back requests, called when the connection is closed.
+     */
+    void clear() {
+        backlog.clear();
+        inFlight = 0;
+        queued.set(0);
+    }
+
+    private void dequeued() {
+        queued.decrementAndGet();
+    }
+
+    /**
+     * @return the requests that wait for their reply
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the requests that are held back, including the ones that the
+     *         selector thread has not picked up yet
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public int getPeakQueued() {
+        return peakQueued;
+    }
+
+    public long getCompletedCount() {
+        return completed;
+    }
+
+    public long getFailedCount() {
+        return failed;
+    }
+
+    /**
+     * @return the smoothed round trip time in milliseconds, 0 as long as no
+     *         reply has arrived
+     */
+    public float getRtt() {
+        return srtt / 1e6f;
+    }
+
+    /**
+     * @return the variation of the round trip time in milliseconds
+     */
+    public float getRttVariation() {
+        return rttvar / 1e6f;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": inFlight=" + inFlight + "/" + maxInFlight
+                + " queued=" + getQueued() + "/" + maxQueued
+                + " peakQueued=" + peakQueued
+                + " completed=" + completed
+                + " failed=" + failed
+                + " rtt=" + Math.round(getRtt()) + "ms"
+                + " rttvar=" + Math.round(getRttVariation()) + "ms";
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The reply to a request that has been sent with
+ * {@link HTSConnection#sendMessage(HTSMessage, HTSResponseHandler, long)}.
+ * It is completed by the connection when the reply with the matching
+ * sequence number arrives. It fails when no reply came before the deadline
+ * or when the connection is lost.
+ *
+ * Waiting for the reply never takes longer than the deadline, even if the
+ * connection thread is gone and nobody completes the future anymore.
+ */
+public class HTSResponseFuture implements Future<HTSMessage> {
+
+    private final HTSResponseHandler handler;
+    private final long deadline;
+    private int seq;
+
+    // Only used by the connection
+    private HTSRequestWindow window;
+    private long sentTime;
+    private long orderKey;
+
+    private boolean done;
+    private boolean cancelled;
+    private HTSMessage response;
+    private Throwable failure;
+
+    /**
+     * @param handler
+     *            Called with the reply once it has arrived, may be null
+     * @param timeout
+     *            Time in milliseconds to wait for the reply
+     */
+    HTSResponseFuture(HTSResponseHandler handler, long timeout) {
+        this.handler = handler;
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    void setSeq(int seq) {
+        this.seq = seq;
+    }
+
+    HTSResponseHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return the key the handler is dispatched with, see HTSDispatcher
+     */
+    long getOrderKey() {
+        return orderKey;
+    }
+
+    void setOrderKey(long key) {
+        orderKey = key;
+    }
+
+    HTSRequestWindow getWindow() {
+        return window;
+    }
+
+    void setWindow(HTSRequestWindow window) {
+        this.window = window;
+    }
+
+    /**
+     * @return the time as given by System.nanoTime() when the request was
+     *         passed on for writing, 0 while it is held back
+     */
+    long getSentTime() {
+        return sentTime;
+    }
+
+    void setSentTime(long time) {
+        // 0 means not sent
+        sentTime = time != 0 ? time : 1;
+    }
+
+    /**
+     * @return the sequence number of the request or 0 if it was never sent
+     */
+    public int getSeq() {
+        return seq;
+    }
+
+    /**
+     * @return the time as given by System.nanoTime() when the request fails
+     *         unless a reply has arrived
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Completes the future with the reply. The handler is left to the
+     * connection. A reply that arrives after the future has failed or was
+     * cancelled is ignored.
+     *
+     * @param response
+     * @return true if the future has been completed by this call
+     */
+    synchronized boolean complete(HTSMessage response) {
+        if (done) {
+            return false;
+        }
+        this.response = response;
+        done = true;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Fails the future unless it is already done.
+     *
+     * @param cause
+     * @return true if the future has been failed by this call
+     */
+    synchronized boolean fail(Throwable cause) {
+        if (done) {
+            return false;
+        }
+        failure = cause;
+        done = true;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Stops waiting for the reply. The request itself may already have been
+     * sent, a reply that arrives later is dropped.
+     */
+    @Override
+    public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+        if (done) {
+            return false;
+        }
+        cancelled = true;
+        done = true;
+        notifyAll();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Waits for the reply, but not beyond the deadline of the request.
+     */
+    @Override
+    public HTSMessage get() throws InterruptedException, ExecutionException {
+        try {
+            return get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            throw new ExecutionException(ex);
+        }
+    }
+
+    @Override
+    public synchronized HTSMessage get(long timeout, TimeUnit unit) throws InterruptedException,
+            ExecutionException, TimeoutException {
+        long start = System.nanoTime();
+        long wait = Math.min(unit.toNanos(timeout), deadline - start);
+        while (!done) {
+            long remaining = wait - (System.nanoTime() - start);
+            if (remaining <= 0) {
+                throw new TimeoutException("No reply to request " + seq);
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return response;
+    }
+
+    /**
+     * Waits for the reply like {@link #get()} and reports every failure as
+     * an IOException, which is what most callers pass on anyway.
+     *
+     * @return the reply
+     * @throws IOException
+     *             if there was no reply before the deadline, the connection
+     *             was lost or the request was cancelled
+     */
+    public HTSMessage await() throws IOException {
+        try {
+            return get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for request " + seq);
+        } catch (CancellationException ex) {
+            throw new IOException("Request " + seq + " was cancelled");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("No reply to request " + seq, cause);
+        }
+    }
+}
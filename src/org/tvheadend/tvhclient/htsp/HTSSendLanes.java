@@ -0,0 +1,147 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp;
+
+import java.util.ArrayDeque;
+
+/**
+ * Orders the outgoing requests by priority before they are written. There
+ * is one lane each for interactive requests like subscribe or getTicket,
+ * normal requests and bulk requests like getEvents or fileRead. Requests
+ * are taken from the most important lane that has any.
+ *
+ * To keep a steady stream of interactive requests from holding back the
+ * others forever, a lane that has been passed over {@link #MAX_SKIPS}
+ * times in a row while it had requests is served next.
+ *
+ * Only used by the selector thread.
+ */
+public class HTSSendLanes {
+
+    public static final int INTERACTIVE = 0;
+    public static final int NORMAL = 1;
+    public static final int BULK = 2;
+
+    private static final int LANES = 3;
+
+    // How often a lane with requests may be passed over before it is
+    // served regardless of the other lanes
+    static final int MAX_SKIPS = 8;
+
+    private final ArrayDeque<HTSMessage>[] lanes;
+    private final int[] skips;
+    private final long[] taken;
+    private long promoted;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public HTSSendLanes() {
+        lanes = new ArrayDeque[LANES];
+        for (int i = 0; i < LANES; i++) {
+            lanes[i] = new ArrayDeque<HTSMessage>();
+        }
+        skips = new int[LANES];
+        taken = new long[LANES];
+    }
+
+    /**
+     * Adds the message at the end of the given lane.
+     *
+     * @param priority
+     *            One of {@link #INTERACTIVE}, {@link #NORMAL} or
+     *            {@link #BULK}
+     * @param msg
+     */
+    public void add(int priority, HTSMessage msg) {
+        lanes[Math.max(INTERACTIVE, Math.min(BULK, priority))].add(msg);
+        size++;
+    }
+
+    /**
+     * Takes the next message that should be written.
+     *
+     * @return the message or null if all lanes are empty
+     */
+    public HTSMessage poll() {
+        if (size == 0) {
+            return null;
+        }
+
+        int lane = -1;
+        for (int i = 0; i < LANES; i++) {
+            if (!lanes[i].isEmpty() && skips[i] >= MAX_SKIPS) {
+                lane = i;
+                promoted++;
+                break;
+            }
+        }
+        if (lane < 0) {
+            for (int i = 0; i < LANES; i++) {
+                if (!lanes[i].isEmpty()) {
+                    lane = i;
+                    break;
+                }
+            }
+        }
+
+        for (int i = 0; i < LANES; i++) {
+            if (i == lane || lanes[i].isEmpty()) {
+                skips[i] = 0;
+            } else {
+                skips[i]++;
+            }
+        }
+
+        size--;
+        taken[lane]++;
+        return lanes[lane].poll();
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param priority
+     * @return the number of messages waiting in the lane
+     */
+    public int size(int priority) {
+        return lanes[priority].size();
+    }
+
+    public void clear() {
+        for (int i = 0; i < LANES; i++) {
+            lanes[i].clear();
+            skips[i] = 0;
+        }
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "interactive=" + taken[INTERACTIVE]
+                + " normal=" + taken[NORMAL]
+                + " bulk=" + taken[BULK]
+                + " promoted=" + promoted;
+    }
+}
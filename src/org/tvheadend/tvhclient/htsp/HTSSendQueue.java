@@ -0,0 +1,88 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp;
+
+import java.nio.channels.Selector;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands outgoing messages from any number of threads over to the selector
+ * thread without locking. Adding a message never blocks, the selector is
+ * woken up only for the first message that arrives while it is not already
+ * about to drain the queue.
+ *
+ * Only the selector thread takes messages out with {@link #drainTo}. It
+ * alone decides whether the socket has to be watched for OP_WRITE, so the
+ * channel is never registered again from other threads.
+ */
+public class HTSSendQueue {
+
+    private final ConcurrentLinkedQueue<HTSMessage> queue;
+    private final AtomicBoolean wakeupPending;
+    private final Selector selector;
+
+    public HTSSendQueue(Selector selector) {
+        this.selector = selector;
+        queue = new ConcurrentLinkedQueue<HTSMessage>();
+        wakeupPending = new AtomicBoolean();
+    }
+
+    /**
+     * Adds the message to the end of the queue and wakes up the selector if
+     * no wakeup is pending yet. Can be called from any thread.
+     *
+     * @param msg
+     */
+    public void offer(HTSMessage msg) {
+        queue.offer(msg);
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Moves all queued messages in their order to the given collection.
+     * Must only be called from the selector thread. The pending wakeup is
+     * reset before the queue is read, so a message that is added meanwhile
+     * either gets moved now or wakes up the next select.
+     *
+     * @param c
+     * @return The number of messages that were moved
+     */
+    public int drainTo(Collection<? super HTSMessage> c) {
+        wakeupPending.set(false);
+        int count = 0;
+        HTSMessage msg;
+        while ((msg = queue.poll()) != null) {
+            c.add(msg);
+            count++;
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public void clear() {
+        queue.clear();
+    }
+}
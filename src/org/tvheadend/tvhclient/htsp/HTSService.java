@@ -30,18 +30,87 @@ import java.net.URL;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.tvheadend.tvhclient.Constants;
+import org.tvheadend.tvhclient.DatabaseHelper;
 import org.tvheadend.tvhclient.R;
 import org.tvheadend.tvhclient.TVHClientApplication;
+import org.tvheadend.tvhclient.htsp.view.AddAutorecEntryRequest;
+import org.tvheadend.tvhclient.htsp.view.AddDvrEntryRequest;
+import org.tvheadend.tvhclient.htsp.view.AddTimerecEntryRequest;
+import org.tvheadend.tvhclient.htsp.view.AutorecEntryAddView;
+import org.tvheadend.tvhclient.htsp.view.AutorecEntryDeleteView;
+import org.tvheadend.tvhclient.htsp.view.AutorecEntryUpdateView;
+import org.tvheadend.tvhclient.htsp.view.CancelDvrEntryRequest;
+import org.tvheadend.tvhclient.htsp.view.ChannelAddView;
+import org.tvheadend.tvhclient.htsp.view.ChannelDeleteView;
+import org.tvheadend.tvhclient.htsp.view.ChannelUpdateView;
+import org.tvheadend.tvhclient.htsp.view.CutpointView;
+import org.tvheadend.tvhclient.htsp.view.CutpointsView;
+import org.tvheadend.tvhclient.htsp.view.DeleteAutorecEntryRequest;
+import org.tvheadend.tvhclient.htsp.view.DeleteDvrEntryRequest;
+import org.tvheadend.tvhclient.htsp.view.DeleteTimerecEntryRequest;
+import org.tvheadend.tvhclient.htsp.view.DiskSpaceView;
+import org.tvheadend.tvhclient.htsp.view.DvrConfigsView;
+import org.tvheadend.tvhclient.htsp.view.DvrEntryAddView;
+import org.tvheadend.tvhclient.htsp.view.DvrEntryDeleteView;
+import org.tvheadend.tvhclient.htsp.view.DvrEntryUpdateView;
+import org.tvheadend.tvhclient.htsp.view.EpgQueryRequest;
+import org.tvheadend.tvhclient.htsp.view.EventAddView;
+import org.tvheadend.tvhclient.htsp.view.EventDeleteView;
+import org.tvheadend.tvhclient.htsp.view.EventIdsView;
+import org.tvheadend.tvhclient.htsp.view.EventUpdateView;
+import org.tvheadend.tvhclient.htsp.view.EventView;
+import org.tvheadend.tvhclient.htsp.view.EventsView;
+import org.tvheadend.tvhclient.htsp.view.FeedbackRequest;
+import org.tvheadend.tvhclient.htsp.view.GetChannelRequest;
+import org.tvheadend.tvhclient.htsp.view.GetDiskSpaceRequest;
+import org.tvheadend.tvhclient.htsp.view.GetDvrConfigsRequest;
+import org.tvheadend.tvhclient.htsp.view.GetDvrCutpointsRequest;
+import org.tvheadend.tvhclient.htsp.view.GetEventRequest;
+import org.tvheadend.tvhclient.htsp.view.GetEventsRequest;
+import org.tvheadend.tvhclient.htsp.view.GetProfilesRequest;
+import org.tvheadend.tvhclient.htsp.view.GetSysTimeRequest;
+import org.tvheadend.tvhclient.htsp.view.GetTicketRequest;
+import org.tvheadend.tvhclient.htsp.view.InitialSyncCompletedView;
+import org.tvheadend.tvhclient.htsp.view.MuxpktView;
+import org.tvheadend.tvhclient.htsp.view.ProfileView;
+import org.tvheadend.tvhclient.htsp.view.ProfilesView;
+import org.tvheadend.tvhclient.htsp.view.QueueStatusView;
+import org.tvheadend.tvhclient.htsp.view.ResultView;
+import org.tvheadend.tvhclient.htsp.view.SignalStatusView;
+import org.tvheadend.tvhclient.htsp.view.SourceinfoView;
+import org.tvheadend.tvhclient.htsp.view.StreamView;
+import org.tvheadend.tvhclient.htsp.view.SubscribeRequest;
+import org.tvheadend.tvhclient.htsp.view.SubscriptionGraceView;
+import org.tvheadend.tvhclient.htsp.view.SubscriptionStartView;
+import org.tvheadend.tvhclient.htsp.view.SubscriptionStatusView;
+import org.tvheadend.tvhclient.htsp.view.SubscriptionStopView;
+import org.tvheadend.tvhclient.htsp.view.SysTimeView;
+import org.tvheadend.tvhclient.htsp.view.TagAddView;
+import org.tvheadend.tvhclient.htsp.view.TagDeleteView;
+import org.tvheadend.tvhclient.htsp.view.TagUpdateView;
+import org.tvheadend.tvhclient.htsp.view.TicketView;
+import org.tvheadend.tvhclient.htsp.view.TimerecEntryAddView;
+import org.tvheadend.tvhclient.htsp.view.TimerecEntryDeleteView;
+import org.tvheadend.tvhclient.htsp.view.TimerecEntryUpdateView;
+import org.tvheadend.tvhclient.htsp.view.UnsubscribeRequest;
 import org.tvheadend.tvhclient.interfaces.HTSConnectionListener;
 import org.tvheadend.tvhclient.model.Channel;
 import org.tvheadend.tvhclient.model.ChannelTag;
+import org.tvheadend.tvhclient.model.Connection;
 import org.tvheadend.tvhclient.model.DvrCutpoint;
 import org.tvheadend.tvhclient.model.HttpTicket;
 import org.tvheadend.tvhclient.model.Packet;
@@ -79,11 +148,69 @@ public class HTSService extends Service implements HTSConnectionListener {
     private static final String TAG = HTSService.class.getSimpleName();
     
     private ScheduledExecutorService execService;
-    private HTSConnection connection;
+    private HTSReconnectSupervisor supervisor;
+    private volatile HTSConnection connection;
     PackageInfo packInfo;
     private NotificationManager notificationManager = null;
     private SharedPreferences prefs;
 
+    // Events that changed shortly before the last message that was received
+    // are requested again, in case the server sent them in a different order
+    private static final long LAST_UPDATE_MARGIN = 60;
+
+    // The server whose data is in the model, used to decide if a reconnect
+    // can resync instead of loading everything again
+    private String syncedServer;
+    private volatile boolean synced;
+    private volatile long lastMessageTime;
+    private volatile long serverTimeOffset;
+    private volatile boolean serverTimeKnown;
+
+    // The parameters of the next connection the supervisor opens
+    private String connectServer;
+    private boolean connectAsync = true;
+
+    // Requests that go through the bulk connection if it is enabled. The
+    // requests of a file transfer all use the connection of its fileRead.
+    private static final Set<String> BULK_METHODS = new HashSet<String>(Arrays.asList(
+            "getEvents", "fileRead"));
+
+    // Time in milliseconds to wait before trying to open the bulk
+    // connection again after it failed
+    private static final long BULK_RETRY_DELAY = 30000;
+
+    // Second connection for bulk transfers, only authenticated and without
+    // any async messages
+    private volatile HTSConnection bulkConnection;
+    private boolean bulkOpening;
+    private long bulkRetryTime;
+
+    // The events of the program guide sync are applied in batches of this
+    // size, or after this many milliseconds if fewer have arrived
+    private static final int EVENT_BATCH_SIZE = 500;
+    private static final long EVENT_BATCH_DELAY = 250;
+
+    private final ArrayList<HTSMessage> eventBatch = new ArrayList<HTSMessage>();
+    private boolean eventFlushScheduled;
+    // Applies the batches one after the other, in the order they were
+    // collected, whichever worker or timer completed them
+    private ExecutorService eventExecutor;
+    // Hours of program guide the server sends with the initial sync, 0 if
+    // it is loaded channel by channel with getEvents
+    private volatile int epgSyncHours;
+    private int syncedEpgSyncHours;
+
+    // A channel with less than two programs left is filled up after this
+    // delay plus a random part of the jitter, both in milliseconds
+    private static final long EPG_REFILL_DELAY = 30000;
+    private static final long EPG_REFILL_JITTER = 15000;
+    private static final int EPG_REFILL_COUNT = 5;
+
+    private HTSEpgRefillScheduler epgRefills;
+
+    // The handlers of the messages the server sends on its own
+    private final HTSMethodRegistry methods = new HTSMethodRegistry();
+
     public class LocalBinder extends Binder {
         HTSService getService() {
             return HTSService.this;
@@ -92,7 +219,30 @@ public class HTSService extends Service implements HTSConnectionListener {
 
     @Override
     public void onCreate() {
+        registerMethods();
         execService = Executors.newScheduledThreadPool(5);
+        eventExecutor = Executors.newSingleThreadExecutor();
+        supervisor = new HTSReconnectSupervisor(execService, new HTSReconnectSupervisor.ConnectionFactory() {
+            public HTSConnection newConnection() {
+                return createConnection();
+            }
+        });
+        epgRefills = new HTSEpgRefillScheduler(execService, new HTSEpgRefillScheduler.Loader() {
+            public boolean load(final long channelId, final long eventId, int count) {
+                TVHClientApplication app = (TVHClientApplication) getApplication();
+                Channel ch = app.getChannel(channelId);
+                // Filled up meanwhile, by the program guide sync for example
+                if (ch == null || ch.epg.size() >= 2) {
+                    return false;
+                }
+                // Given up while too many getEvents requests wait already
+                return getEvents(ch, eventId, count, new Runnable() {
+                    public void run() {
+                        epgRefills.done(channelId, eventId);
+                    }
+                });
+            }
+        });
         prefs = PreferenceManager.getDefaultSharedPreferences(this);
         notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
 
@@ -115,30 +265,23 @@ public class HTSService extends Service implements HTSConnectionListener {
             final String username = intent.getStringExtra("username");
             final String password = intent.getStringExtra("password");
 
-            if (connection != null && force) {
-                connection.close();
+            synchronized (this) {
+                if (async != connectAsync) {
+                    force = true;
+                }
+                connectAsync = async;
+                connectServer = username + "@" + hostname + ":" + port;
             }
-            if (connection == null || !connection.isConnected()) {
-                final TVHClientApplication app = (TVHClientApplication) getApplication();
-                app.clearAll();
-                app.setLoading(true);
-                connection = new HTSConnection(this, packInfo.packageName, packInfo.versionName, async);
+            // Does nothing while the connection is open or being opened
+            supervisor.connect(hostname, port, username, password, force);
 
-                // Since this is blocking, spawn to a new thread
-                execService.execute(new Runnable() {
-                    public void run() {
-                        connection.open(hostname, port);
-                        connection.authenticate(username, password);
-                    }
-                });
-            }
+        } else if (action.equals(Constants.ACTION_DISCONNECT)) {
+            supervisor.disconnect();
+            closeBulkConnection();
 
-        } else if (connection == null || !connection.isConnected()) {
+        } else if ((connection == null || !connection.isConnected()) && !supervisor.isReconnecting()) {
             Log.e(TAG, "No connection to perform " + action);
 
-        } else if (action.equals(Constants.ACTION_DISCONNECT)) {
-            connection.close();
-
         } else if (action.equals(Constants.ACTION_GET_EVENT)) {
             getEvent(intent.getLongExtra("eventId", 0));
 
@@ -259,16 +402,220 @@ public class HTSService extends Service implements HTSConnectionListener {
 
     @Override
     public void onDestroy() {
+        supervisor.disconnect();
+        closeBulkConnection();
+        epgRefills.clear();
         execService.shutdown();
-        if (connection != null) {
-            connection.close();
+        eventExecutor.shutdown();
+        Log.d(TAG, "Connection supervisor: " + supervisor);
+        Log.d(TAG, "Program guide refills: " + epgRefills);
+        Log.d(TAG, "Handled methods:\n" + methods);
+    }
+
+    /**
+     * Creates the connection for the next attempt of the supervisor and
+     * prepares the model for it. If the model holds the data of the same
+     * server already it is resynced, otherwise it is loaded from scratch.
+     */
+    private synchronized HTSConnection createConnection() {
+        TVHClientApplication app = (TVHClientApplication) getApplication();
+        closeBulkConnection();
+        // The replies to the requests of the old connection never arrive
+        epgRefills.clear();
+        boolean resync = connectAsync && connectServer.equals(syncedServer);
+        if (resync) {
+            app.startResync();
+        } else {
+            app.clearAll();
+            syncedServer = null;
+            lastMessageTime = 0;
+            serverTimeKnown = false;
+        }
+        synced = false;
+        app.setLoading(true);
+        HTSConnection conn = new HTSConnection(this, packInfo.packageName, packInfo.versionName, connectAsync);
+
+        epgSyncHours = connectAsync ? getEpgSyncHours() : 0;
+        if (epgSyncHours > 0) {
+            long now = System.currentTimeMillis() + (serverTimeKnown ? serverTimeOffset : 0);
+            conn.setEpgMaxTime(now / 1000 + epgSyncHours * 3600L);
+        }
+        // Only the changes to the program guide are needed if the same
+        // window has been loaded before
+        if (resync && epgSyncHours == syncedEpgSyncHours) {
+            conn.setLastUpdate(getLastUpdate());
+        }
+        if (connectAsync) {
+            syncedServer = connectServer;
+            syncedEpgSyncHours = epgSyncHours;
+        }
+        connection = conn;
+        return conn;
+    }
+
+    /**
+     * @return the hours of program guide to load with the initial sync or 0
+     *         if the bulk sync is disabled
+     */
+    private int getEpgSyncHours() {
+        if (!prefs.getBoolean("epgBulkSyncPref", false)) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(prefs.getString("epgBulkSyncHours",
+                    Constants.EPG_DEFAULT_SYNC_HOURS)));
+        } catch (NumberFormatException ex) {
+            return Integer.parseInt(Constants.EPG_DEFAULT_SYNC_HOURS);
+        }
+    }
+
+    /**
+     * Sends the request on the current connection. Interactive requests
+     * that are sent while a lost connection is being opened again are held
+     * back and sent once it is authenticated.
+     *
+     * @return false if the request was rejected right away, because too
+     *         many requests of its kind wait already for example. The
+     *         handler is never called then.
+     */
+    private boolean sendMessage(HTSMessage request, HTSResponseHandler handler) {
+        return sendMessage(request, null, handler);
+    }
+
+    /**
+     * Sends the request like {@link #sendMessage(HTSMessage, HTSResponseHandler)}.
+     * The handler runs in order with the messages about the given channel,
+     * unless the request has to be held back.
+     *
+     * @param request
+     * @param ch
+     *            The channel the reply is about, may be null
+     * @param handler
+     * @return false if the request was rejected right away
+     */
+    private boolean sendMessage(HTSMessage request, Channel ch, HTSResponseHandler handler) {
+        HTSConnection conn = route(request.getMethod());
+        if (conn == connection && !conn.isConnected()
+                && conn.getRequestPriority(request.getMethod()) == HTSSendLanes.INTERACTIVE
+                && supervisor.holdBack(request, handler)) {
+            return true;
+        }
+        HTSResponseFuture future = ch != null
+                ? conn.sendMessage(request, ch.id, handler)
+                : conn.sendMessage(request, handler);
+        if (future.isDone() && future.getSeq() == 0) {
+            Log.d(TAG, "Request " + request.getMethod() + " was rejected");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Chooses the connection for a request. EPG backfill and file transfers
+     * use the bulk connection while it is enabled and open, so they do not
+     * hold up the async metadata and streaming on the control connection.
+     * Everything else, and the bulk requests while the bulk connection is
+     * not open, goes through the control connection.
+     * 
+     * @param method
+     * @return the connection to send the request on
+     */
+    private HTSConnection route(String method) {
+        if (BULK_METHODS.contains(method)) {
+            HTSConnection bulk = getBulkConnection();
+            if (bulk != null) {
+                return bulk;
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * @return the bulk connection if it is enabled and authenticated,
+     *         otherwise null. Starts opening it if it is enabled but not
+     *         open.
+     */
+    private HTSConnection getBulkConnection() {
+        if (!prefs.getBoolean("bulkConnectionPref", false)) {
+            if (bulkConnection != null) {
+                closeBulkConnection();
+            }
+            return null;
+        }
+        HTSConnection bulk = bulkConnection;
+        if (bulk != null && bulk.isConnected() && bulk.isAuthenticated()) {
+            return bulk;
+        }
+        openBulkConnection();
+        return null;
+    }
+
+    private synchronized void openBulkConnection() {
+        HTSConnection control = connection;
+        if (bulkOpening || System.currentTimeMillis() < bulkRetryTime
+                || control == null || !control.isAuthenticated()) {
+            return;
+        }
+
+        // Both connections log in with the credentials of the selected
+        // connection. Nothing is opened if the control connection goes to
+        // another server.
+        final Connection conn = DatabaseHelper.getInstance().getSelectedConnection();
+        if (conn == null || !(conn.username + "@" + conn.address + ":" + conn.port).equals(connectServer)) {
+            return;
+        }
+        bulkOpening = true;
+        final String server = connectServer;
+        execService.execute(new Runnable() {
+            public void run() {
+                HTSConnection bulk = new HTSConnection(bulkListener, packInfo.packageName, packInfo.versionName, false);
+                bulk.open(conn.address, conn.port);
+                bulk.authenticate(conn.username, conn.password);
+                synchronized (HTSService.this) {
+                    bulkOpening = false;
+                    if (!bulk.isAuthenticated() || !server.equals(connectServer)) {
+                        Log.d(TAG, "Can't open bulk connection");
+                        bulk.close();
+                        bulkRetryTime = System.currentTimeMillis() + BULK_RETRY_DELAY;
+                        return;
+                    }
+                    if (bulkConnection != null) {
+                        bulkConnection.close();
+                    }
+                    bulkConnection = bulk;
+                }
+            }
+        });
+    }
+
+    private synchronized void closeBulkConnection() {
+        if (bulkConnection != null) {
+            bulkConnection.close();
+            bulkConnection = null;
         }
+        bulkRetryTime = 0;
     }
 
+    // Nothing but replies arrive on the bulk connection. Its state is not
+    // shown, a broken bulk connection is opened again on the next bulk
+    // request.
+    private final HTSConnectionListener bulkListener = new HTSConnectionListener() {
+        public void onMessage(HTSMessage msg) {
+        }
+
+        public void onError(String error) {
+            Log.d(TAG, "Bulk connection: " + error);
+        }
+    };
+
     public void onError(final String error) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
         app.setLoading(false);
         app.setConnectionState(error);
+        if (error.equals(Constants.ACTION_CONNECTION_STATE_LOST)
+                || error.equals(Constants.ACTION_CONNECTION_STATE_SERVER_DOWN)) {
+            supervisor.connectionLost();
+        }
     }
 
     @Override
@@ -277,27 +624,34 @@ public class HTSService extends Service implements HTSConnectionListener {
     }
     private final IBinder mBinder = new LocalBinder();
 
-    private void onTagAdd(HTSMessage msg) {
+    private void onTagAdd(TagAddView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
+        ChannelTag existing = app.getChannelTag(msg.getTagId());
+        if (existing != null) {
+            // Sent again during a resync
+            app.markSynced(existing);
+            onTagUpdate(new TagUpdateView(msg.getMessage()));
+            return;
+        }
         ChannelTag tag = new ChannelTag();
-        tag.id = msg.getLong("tagId");
-        tag.name = msg.getString("tagName", "");
-        tag.icon = msg.getString("tagIcon", "");
+        tag.id = msg.getTagId();
+        tag.name = msg.getTagName("");
+        tag.icon = msg.getTagIcon("");
         app.addChannelTag(tag);
         if (tag.icon != null) {
             getChannelTagIcon(tag);
         }
     }
 
-    private void onTagUpdate(HTSMessage msg) {
+    private void onTagUpdate(TagUpdateView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        ChannelTag tag = app.getChannelTag(msg.getLong("tagId"));
+        ChannelTag tag = app.getChannelTag(msg.getTagId());
         if (tag == null) {
             return;
         }
 
-        tag.name = msg.getString("tagName", tag.name);
-        String icon = msg.getString("tagIcon", tag.icon);
+        tag.name = msg.getTagName(tag.name);
+        String icon = msg.getTagIcon(tag.icon);
         if (icon == null) {
             tag.icon = null;
             tag.iconBitmap = null;
@@ -307,24 +661,32 @@ public class HTSService extends Service implements HTSConnectionListener {
         }
     }
 
-    private void onTagDelete(HTSMessage msg) {
+    private void onTagDelete(TagDeleteView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        app.removeChannelTag(msg.getLong("tagId"));
+        app.removeChannelTag(msg.getTagId());
     }
 
-    private void onChannelAdd(HTSMessage msg) {
+    private void onChannelAdd(ChannelAddView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
+        Channel existing = app.getChannel(msg.getChannelId());
+        if (existing != null) {
+            // Sent again during a resync, the programs that have been loaded
+            // already are kept
+            app.markSynced(existing);
+            onChannelUpdate(new ChannelUpdateView(msg.getMessage()));
+            return;
+        }
         final Channel ch = new Channel();
-        ch.id = msg.getLong("channelId");
-        ch.name = msg.getString("channelName", "");
-        ch.number = msg.getInt("channelNumber", 0);
+        ch.id = msg.getChannelId();
+        ch.name = msg.getChannelName("");
+        ch.number = msg.getChannelNumber(0);
 
         // The default values will be set in case a server with a htsp API
         // version 12 or lower is used
-        ch.numberMinor = msg.getInt("channelNumberMinor", 0);
+        ch.numberMinor = msg.getChannelNumberMinor(0);
 
-        ch.icon = msg.getString("channelIcon", "");
-        ch.tags = msg.getIntList("tags", ch.tags);
+        ch.icon = msg.getChannelIcon("");
+        ch.tags = msg.getTags(ch.tags);
 
         if (ch.number == 0) {
             ch.number = (int) (ch.id + 25000);
@@ -334,34 +696,38 @@ public class HTSService extends Service implements HTSConnectionListener {
         if (ch.icon != null) {
             getChannelIcon(ch);
         }
-        long currEventId = msg.getLong("eventId", 0);
-        long nextEventId = msg.getLong("nextEventId", 0);
+        long currEventId = msg.getEventId(0);
+        long nextEventId = msg.getNextEventId(0);
 
         ch.isTransmitting = (currEventId != 0);
 
+        // The events come with the initial sync in bulk sync mode
+        if (epgSyncHours > 0) {
+            return;
+        }
         if (currEventId > 0) {
-            getEvents(ch, currEventId, 5);
+            epgRefills.request(ch.id, currEventId, EPG_REFILL_COUNT, 0, 0);
         } else if (nextEventId > 0) {
-            getEvents(ch, nextEventId, 5);
+            epgRefills.request(ch.id, nextEventId, EPG_REFILL_COUNT, 0, 0);
         }
     }
 
-    private void onChannelUpdate(HTSMessage msg) {
+    private void onChannelUpdate(ChannelUpdateView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        final Channel ch = app.getChannel(msg.getLong("channelId"));
+        final Channel ch = app.getChannel(msg.getChannelId());
         if (ch == null) {
             return;
         }
 
-        ch.name = msg.getString("channelName", ch.name);
-        ch.number = msg.getInt("channelNumber", ch.number);
+        ch.name = msg.getChannelName(ch.name);
+        ch.number = msg.getChannelNumber(ch.number);
 
         // The default values will be set in case a server with a htsp API
         // version 12 or lower is used
-        ch.numberMinor = msg.getInt("channelNumberMinor", 0);
+        ch.numberMinor = msg.getChannelNumberMinor(0);
 
-        String icon = msg.getString("channelIcon", ch.icon);
-        ch.tags = msg.getIntList("tags", ch.tags);
+        String icon = msg.getChannelIcon(ch.icon);
+        ch.tags = msg.getTags(ch.tags);
 
         if (icon == null) {
             ch.icon = null;
@@ -371,69 +737,76 @@ public class HTSService extends Service implements HTSConnectionListener {
             getChannelIcon(ch);
         }
         // Remove programs that have ended
-        long currEventId = msg.getLong("eventId", 0);
-        long nextEventId = msg.getLong("nextEventId", 0);
+        long currEventId = msg.getEventId(0);
+        long nextEventId = msg.getNextEventId(0);
 
         ch.isTransmitting = currEventId != 0;
 
-        Iterator<Program> it = ch.epg.iterator();
         ArrayList<Program> tmp = new ArrayList<Program>();
-
-        while (it.hasNext() && currEventId > 0) {
-            Program p = it.next();
-            if (p.id != currEventId) {
-                tmp.add(p);
-            } else {
-                break;
+        // The program guide sync changes the programs on another thread
+        synchronized (ch.epg) {
+            Iterator<Program> it = ch.epg.iterator();
+            while (it.hasNext() && currEventId > 0) {
+                Program p = it.next();
+                if (p.id != currEventId) {
+                    tmp.add(p);
+                } else {
+                    break;
+                }
             }
+            ch.epg.removeAll(tmp);
         }
-        ch.epg.removeAll(tmp);
 
         for (Program p : tmp) {
             app.removeProgram(p);
         }
 
-        final long eventId = currEventId != 0 ? currEventId : nextEventId;
+        long eventId = currEventId != 0 ? currEventId : nextEventId;
         if (eventId > 0 && ch.epg.size() < 2) {
-            execService.schedule(new Runnable() {
-                public void run() {
-                    getEvents(ch, eventId, 5);
-                }
-            }, 30, TimeUnit.SECONDS);
+            // Most channels change their program at the same time, the
+            // scheduler spreads out and merges their requests
+            epgRefills.request(ch.id, eventId, EPG_REFILL_COUNT, EPG_REFILL_DELAY, EPG_REFILL_JITTER);
         } else {
             app.updateChannel(ch);
         }
     }
 
-    private void onChannelDelete(HTSMessage msg) {
+    private void onChannelDelete(ChannelDeleteView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        app.removeChannel(msg.getLong("channelId"));
+        app.removeChannel(msg.getChannelId());
     }
 
-    private void onDvrEntryAdd(HTSMessage msg) {
+    private void onDvrEntryAdd(DvrEntryAddView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
+        Recording existing = app.getRecording(msg.getId());
+        if (existing != null) {
+            // Sent again during a resync
+            app.markSynced(existing);
+            onDvrEntryUpdate(new DvrEntryUpdateView(msg.getMessage()));
+            return;
+        }
         Recording rec = new Recording();
-        rec.id = msg.getLong("id");
-
-        rec.eventId = msg.getLong("eventId", 0);
-        rec.autorecId = msg.getString("autorecId", "");
-        rec.timerecId = msg.getString("timerecId", "");
-        rec.start = msg.getDate("start");
-        rec.stop = msg.getDate("stop");
-        rec.startExtra = msg.getLong("startExtra");
-        rec.stopExtra = msg.getLong("stopExtra");
-        rec.retention = msg.getLong("retention");
-        rec.priority = msg.getLong("priority");
-        rec.contentType = msg.getLong("contentType");
-        rec.title = msg.getString("title", "");
-        rec.description = msg.getString("description", "");
-        rec.owner = msg.getString("owner", "");
-        rec.creator = msg.getString("creator", "");
-        rec.path = msg.getString("path", "");
-        rec.state = msg.getString("state", "");
-        rec.error = msg.getString("error", null);
-
-        rec.channel = app.getChannel(msg.getLong("channel", 0));
+        rec.id = msg.getId();
+
+        rec.eventId = msg.getEventId(0);
+        rec.autorecId = msg.getAutorecId("");
+        rec.timerecId = msg.getTimerecId("");
+        rec.start = msg.getStart();
+        rec.stop = msg.getStop();
+        rec.startExtra = msg.getStartExtra();
+        rec.stopExtra = msg.getStopExtra();
+        rec.retention = msg.getRetention();
+        rec.priority = msg.getPriority();
+        rec.contentType = msg.getContentType();
+        rec.title = msg.getTitle("");
+        rec.description = msg.getDescription("");
+        rec.owner = msg.getOwner("");
+        rec.creator = msg.getCreator("");
+        rec.path = msg.getPath("");
+        rec.state = msg.getState("");
+        rec.error = msg.getError(null);
+
+        rec.channel = app.getChannel(msg.getChannel(0));
         if (rec.channel != null) {
             rec.channel.recordings.add(rec);
         }
@@ -441,9 +814,9 @@ public class HTSService extends Service implements HTSConnectionListener {
         app.addRecording(rec);
     }
 
-    private void onDvrEntryUpdate(HTSMessage msg) {
+    private void onDvrEntryUpdate(DvrEntryUpdateView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        Recording rec = app.getRecording(msg.getLong("id"));
+        Recording rec = app.getRecording(msg.getId());
         if (rec == null) {
             return;
         }
@@ -451,23 +824,23 @@ public class HTSService extends Service implements HTSConnectionListener {
         // Get the current recording state to check if a notification shall be shown
         String currentRecState = rec.state;
 
-        rec.eventId = msg.getLong("eventId", rec.eventId);
-        rec.autorecId = msg.getString("autorecId", rec.autorecId);
-        rec.timerecId = msg.getString("timerecId", rec.timerecId);
-        rec.start = msg.getDate("start");
-        rec.stop = msg.getDate("stop");
-        rec.startExtra = msg.getLong("startExtra");
-        rec.stopExtra = msg.getLong("stopExtra");
-        rec.retention = msg.getLong("retention");
-        rec.priority = msg.getLong("priority");
-        rec.contentType = msg.getLong("contentType");
-        rec.title = msg.getString("title", rec.title);
-        rec.description = msg.getString("description", rec.description);
-        rec.owner = msg.getString("owner", rec.owner);
-        rec.creator = msg.getString("creator", rec.creator);
-        rec.path = msg.getString("path", rec.path);
-        rec.state = msg.getString("state", rec.state);
-        rec.error = msg.getString("error", rec.error);
+        rec.eventId = msg.getEventId(rec.eventId);
+        rec.autorecId = msg.getAutorecId(rec.autorecId);
+        rec.timerecId = msg.getTimerecId(rec.timerecId);
+        rec.start = msg.getStart();
+        rec.stop = msg.getStop();
+        rec.startExtra = msg.getStartExtra();
+        rec.stopExtra = msg.getStopExtra();
+        rec.retention = msg.getRetention();
+        rec.priority = msg.getPriority();
+        rec.contentType = msg.getContentType();
+        rec.title = msg.getTitle(rec.title);
+        rec.description = msg.getDescription(rec.description);
+        rec.owner = msg.getOwner(rec.owner);
+        rec.creator = msg.getCreator(rec.creator);
+        rec.path = msg.getPath(rec.path);
+        rec.state = msg.getState(rec.state);
+        rec.error = msg.getError(rec.error);
 
         app.updateRecording(rec);
 
@@ -492,69 +865,82 @@ public class HTSService extends Service implements HTSConnectionListener {
         }
     }
 
-    private void onDvrEntryDelete(HTSMessage msg) {
+    private void onDvrEntryDelete(DvrEntryDeleteView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        Recording rec = app.getRecording(msg.getLong("id"));
+        Recording rec = app.getRecording(msg.getId());
 
         if (rec == null || rec.channel == null) {
             return;
         }
 
         rec.channel.recordings.remove(rec);
-        for (Program p : rec.channel.epg) {
-            if (p.recording == rec) {
-                p.recording = null;
-                app.updateProgram(p);
-                break;
+        Program program = null;
+        synchronized (rec.channel.epg) {
+            for (Program p : rec.channel.epg) {
+                if (p.recording == rec) {
+                    p.recording = null;
+                    program = p;
+                    break;
+                }
             }
         }
+        if (program != null) {
+            app.updateProgram(program);
+        }
         app.removeRecording(rec);
     }
 
-    private void onTimerRecEntryAdd(HTSMessage msg) {
+    private void onTimerRecEntryAdd(TimerecEntryAddView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
+        TimerRecording existing = app.getTimerRecording(msg.getId(""));
+        if (existing != null) {
+            // Sent again during a resync
+            app.markSynced(existing);
+            onTimerRecEntryUpdate(new TimerecEntryUpdateView(msg.getMessage()));
+            return;
+        }
         TimerRecording rec = new TimerRecording();
-        rec.id = msg.getString("id", "");
-        rec.enabled = (msg.getLong("enabled", 0) == 0) ? false : true;
-        rec.daysOfWeek = msg.getLong("daysOfWeek", 0);
-        rec.retention = msg.getLong("retention", 0);
-        rec.priority = msg.getLong("priority", 0);
-        rec.start = msg.getLong("start");
-        rec.stop = msg.getLong("stop");
-        rec.title = msg.getString("title", "");
-        rec.name = msg.getString("name", "");
-        rec.directory = msg.getString("directory", "");
-        rec.owner = msg.getString("owner", "");
-        rec.creator = msg.getString("creator", "");
-        rec.channel = app.getChannel(msg.getLong("channel", 0));
+        rec.id = msg.getId("");
+        rec.enabled = (msg.getEnabled(0) == 0) ? false : true;
+        rec.daysOfWeek = msg.getDaysOfWeek(0);
+        rec.retention = msg.getRetention(0);
+        rec.priority = msg.getPriority(0);
+        rec.start = msg.getStart();
+        rec.stop = msg.getStop();
+        rec.title = msg.getTitle("");
+        rec.name = msg.getName("");
+        rec.directory = msg.getDirectory("");
+        rec.owner = msg.getOwner("");
+        rec.creator = msg.getCreator("");
+        rec.channel = app.getChannel(msg.getChannel(0));
         app.addTimerRecording(rec);
     }
 
-    private void onTimerRecEntryUpdate(HTSMessage msg) {
+    private void onTimerRecEntryUpdate(TimerecEntryUpdateView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        TimerRecording rec = app.getTimerRecording(msg.getString("id"));
+        TimerRecording rec = app.getTimerRecording(msg.getId());
         if (rec == null) {
             return;
         }
 
-        rec.enabled = (msg.getLong("enabled", 0) == 0) ? false : true;
-        rec.daysOfWeek = msg.getLong("daysOfWeek", rec.daysOfWeek);
-        rec.retention = msg.getLong("retention", rec.retention);
-        rec.priority = msg.getLong("priority", rec.priority);
-        rec.start = msg.getLong("start", rec.start);
-        rec.stop = msg.getLong("stop", rec.stop);
-        rec.title = msg.getString("title", rec.title);
-        rec.name = msg.getString("name", rec.name);
-        rec.directory = msg.getString("directory", rec.directory);
-        rec.owner = msg.getString("owner", rec.owner);
-        rec.creator = msg.getString("creator", rec.creator);
-        rec.channel = app.getChannel(msg.getLong("channel", 0));
+        rec.enabled = (msg.getEnabled(0) == 0) ? false : true;
+        rec.daysOfWeek = msg.getDaysOfWeek(rec.daysOfWeek);
+        rec.retention = msg.getRetention(rec.retention);
+        rec.priority = msg.getPriority(rec.priority);
+        rec.start = msg.getStart(rec.start);
+        rec.stop = msg.getStop(rec.stop);
+        rec.title = msg.getTitle(rec.title);
+        rec.name = msg.getName(rec.name);
+        rec.directory = msg.getDirectory(rec.directory);
+        rec.owner = msg.getOwner(rec.owner);
+        rec.creator = msg.getCreator(rec.creator);
+        rec.channel = app.getChannel(msg.getChannel(0));
         app.updateTimerRecording(rec);
     }
 
-    private void onTimerRecEntryDelete(HTSMessage msg) {
+    private void onTimerRecEntryDelete(TimerecEntryDeleteView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        TimerRecording rec = app.getTimerRecording(msg.getString("id"));
+        TimerRecording rec = app.getTimerRecording(msg.getId());
 
         if (rec == null || rec.channel == null) {
             return;
@@ -564,76 +950,84 @@ public class HTSService extends Service implements HTSConnectionListener {
         app.removeTimerRecording(rec);
     }
 
-    private void onInitialSyncCompleted(HTSMessage msg) {
+    private void onInitialSyncCompleted(InitialSyncCompletedView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
+        // All events of the sync have arrived, this is a barrier
+        finishEvents();
+        if (app.isResyncing()) {
+            app.finishResync();
+        }
+        lastMessageTime = System.currentTimeMillis();
+        synced = true;
+        if (!serverTimeKnown) {
+            getServerTimeOffset();
+        }
         app.setLoading(false);
         app.setConnectionState(Constants.ACTION_CONNECTION_STATE_OK);
         app.setProtocolVersion(connection.getProtocolVersion());
     }
 
-    private void onSubscriptionStart(HTSMessage msg) {
+    private void onSubscriptionStart(SubscriptionStartView msg) {
         Log.d(TAG, "onSubscriptionStart");
 
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        Subscription subscription = app.getSubscription(msg.getLong("subscriptionId"));
+        Subscription subscription = app.getSubscription(msg.getSubscriptionId());
         if (subscription == null) {
             return;
         }
 
-        for (Object obj : msg.getList("streams")) {
+        for (StreamView sub : msg.getStreams()) {
             Stream s = new Stream();
-            HTSMessage sub = (HTSMessage) obj;
-            s.index = sub.getInt("index");
-            s.type = sub.getString("type");
-            s.language = sub.getString("language", "");
-            s.width = sub.getInt("width", 0);
-            s.height = sub.getInt("height", 0);
-            s.duration = sub.getInt("duration", 0);
-            s.aspectNum = sub.getInt("aspect_num", 0);
-            s.aspectDen = sub.getInt("aspect_den", 0);
-            s.autioType = sub.getInt("autio_type", 0);
-            s.channels = sub.getInt("channels", 0);
-            s.rate = sub.getInt("rate", 0);
+            s.index = sub.getIndex();
+            s.type = sub.getType();
+            s.language = sub.getLanguage("");
+            s.width = sub.getWidth(0);
+            s.height = sub.getHeight(0);
+            s.duration = sub.getDuration(0);
+            s.aspectNum = sub.getAspectNum(0);
+            s.aspectDen = sub.getAspectDen(0);
+            s.autioType = sub.getAutioType(0);
+            s.channels = sub.getChannels(0);
+            s.rate = sub.getRate(0);
             subscription.streams.add(s);
 
             Log.d(TAG, "onSubscriptionStart, added stream " + s.index);
         }
 
-        if (msg.containsField("sourceinfo")) {
-            Object obj = msg.get("sourceinfo");
-            HTSMessage sub = (HTSMessage) obj;
+        if (msg.hasSourceinfo()) {
+            SourceinfoView sub = msg.getSourceinfo();
             SourceInfo si = new SourceInfo();
-            si.adapter = sub.getString("adapter", "");
-            si.mux = sub.getString("mux", "");
-            si.network = sub.getString("network", "");
-            si.provider = sub.getString("provider", "");
-            si.service = sub.getString("service", "");
+            si.adapter = sub.getAdapter("");
+            si.mux = sub.getMux("");
+            si.network = sub.getNetwork("");
+            si.provider = sub.getProvider("");
+            si.service = sub.getService("");
             subscription.sourceInfo = si;
 
             Log.d(TAG, "onSubscriptionStart, added sourceinfo " + si.adapter);
         }
     }
 
-    private void onSubscriptionStatus(HTSMessage msg) {
+    private void onSubscriptionStatus(SubscriptionStatusView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        Subscription s = app.getSubscription(msg.getLong("subscriptionId"));
+        Subscription s = app.getSubscription(msg.getSubscriptionId());
         if (s == null) {
             return;
         }
-        String status = msg.getString("status", "");
+        String status = msg.getStatus("");
         if (s.status == null ? status != null : !s.status.equals(status)) {
             s.status = status;
             app.updateSubscription(s);
         }
     }
 
-    private void onSubscriptionStop(HTSMessage msg) {
+    private void onSubscriptionStop(SubscriptionStopView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        Subscription s = app.getSubscription(msg.getLong("subscriptionId"));
+        Subscription s = app.getSubscription(msg.getSubscriptionId());
         if (s == null) {
             return;
         }
-        String status = msg.getString("status", "");
+        String status = msg.getStatus("");
         if (s.status == null ? status != null : !s.status.equals(status)) {
             s.status = status;
             app.updateSubscription(s);
@@ -641,50 +1035,50 @@ public class HTSService extends Service implements HTSConnectionListener {
         app.removeSubscription(s);
     }
 
-    private void onSubscriptionGrace(HTSMessage msg) {
+    private void onSubscriptionGrace(SubscriptionGraceView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        Subscription s = app.getSubscription(msg.getLong("subscriptionId"));
+        Subscription s = app.getSubscription(msg.getSubscriptionId());
         if (s == null) {
             return;
         }
-        long gt = msg.getLong("graceTimeout", 0);
+        long gt = msg.getGraceTimeout(0);
         if (s.graceTimeout != gt) {
             s.graceTimeout = gt;
             app.updateSubscription(s);
         }
     }
 
-    private void onSubscriptionSignalStatus(HTSMessage msg) {
+    private void onSubscriptionSignalStatus(SignalStatusView msg) {
         Log.d(TAG, "onSubscriptionSignalStatus");
 
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        Subscription s = app.getSubscription(msg.getLong("subscriptionId"));
+        Subscription s = app.getSubscription(msg.getSubscriptionId());
         if (s == null) {
             return;
         }
-        s.feStatus = msg.getString("feStatus");
-        s.feSNR = msg.getInt("feSNR", 0);
-        s.feSignal = msg.getInt("feSignal", 0);
-        s.feBER = msg.getInt("feBER", 0);
-        s.feUNC = msg.getInt("feUNC", 0);
+        s.feStatus = msg.getFeStatus();
+        s.feSNR = msg.getFeSNR(0);
+        s.feSignal = msg.getFeSignal(0);
+        s.feBER = msg.getFeBER(0);
+        s.feUNC = msg.getFeUNC(0);
     }
 
-    private void onMuxPacket(HTSMessage msg) {
+    private void onMuxPacket(MuxpktView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        Subscription sub = app.getSubscription(msg.getLong("subscriptionId"));
+        Subscription sub = app.getSubscription(msg.getSubscriptionId());
         if (sub == null) {
             return;
         }
 
         Packet packet = new Packet();
-        packet.dts = msg.getLong("dts", 0);
-        packet.pts = msg.getLong("pts", 0);
-        packet.duration = msg.getLong("duration");
-        packet.frametype = msg.getInt("frametype");
-        packet.payload = msg.getByteArray("payload");
+        packet.dts = msg.getDts(0);
+        packet.pts = msg.getPts(0);
+        packet.duration = msg.getDuration();
+        packet.frametype = msg.getFrametype();
+        packet.payload = msg.getPayload();
 
         for (Stream st : sub.streams) {
-            if (st.index == msg.getInt("stream")) {
+            if (st.index == msg.getStream()) {
                 packet.stream = st;
             }
         }
@@ -692,29 +1086,29 @@ public class HTSService extends Service implements HTSConnectionListener {
         app.broadcastPacket(packet);
     }
 
-    private void onQueueStatus(HTSMessage msg) {
+    private void onQueueStatus(QueueStatusView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        Subscription sub = app.getSubscription(msg.getLong("subscriptionId"));
+        Subscription sub = app.getSubscription(msg.getSubscriptionId());
         if (sub == null) {
             return;
         }
-        if (msg.containsField("delay")) {
-            BigInteger delay = msg.getBigInteger("delay");
+        if (msg.hasDelay()) {
+            BigInteger delay = msg.getDelay();
             delay = delay.divide(BigInteger.valueOf((1000)));
             sub.delay = delay.longValue();
         }
-        sub.droppedBFrames = msg.getLong("Bdrops", sub.droppedBFrames);
-        sub.droppedIFrames = msg.getLong("Idrops", sub.droppedIFrames);
-        sub.droppedPFrames = msg.getLong("Pdrops", sub.droppedPFrames);
-        sub.packetCount = msg.getLong("packets", sub.packetCount);
-        sub.queSize = msg.getLong("bytes", sub.queSize);
+        sub.droppedBFrames = msg.getBdrops(sub.droppedBFrames);
+        sub.droppedIFrames = msg.getIdrops(sub.droppedIFrames);
+        sub.droppedPFrames = msg.getPdrops(sub.droppedPFrames);
+        sub.packetCount = msg.getPackets(sub.packetCount);
+        sub.queSize = msg.getBytes(sub.queSize);
 
         app.updateSubscription(sub);
     }
 
-    private void onAutorecEntryDelete(HTSMessage msg) {
+    private void onAutorecEntryDelete(AutorecEntryDeleteView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        String id = msg.getString("id");
+        String id = msg.getId();
         if (id == null) {
             return;
         }
@@ -728,107 +1122,404 @@ public class HTSService extends Service implements HTSConnectionListener {
         }
     }
 
-    private void onAutorecEntryUpdate(HTSMessage msg) {
+    private void onAutorecEntryUpdate(AutorecEntryUpdateView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
-        SeriesRecording rec = app.getSeriesRecording(msg.getString("id"));
+        SeriesRecording rec = app.getSeriesRecording(msg.getId());
         if (rec == null) {
             return;
         }
 
-        rec.enabled = (msg.getLong("enabled", 0) == 0) ? false : true;
-        rec.maxDuration = msg.getLong("maxDuration");
-        rec.minDuration = msg.getLong("minDuration");
-        rec.retention = msg.getLong("retention");
-        rec.daysOfWeek = msg.getLong("daysOfWeek");
-        rec.approxTime = msg.getLong("approxTime");
-        rec.start = msg.getLong("start");
-        rec.startWindow = msg.getLong("startWindow");
-        rec.priority = msg.getLong("priority");
-        rec.startExtra = msg.getLong("startExtra");
-        rec.stopExtra = msg.getLong("stopExtra");
-        rec.title = msg.getString("title", rec.title);
-        rec.name = msg.getString("name", rec.name);
-        rec.directory = msg.getString("directory", rec.directory);
-        rec.owner = msg.getString("owner", rec.owner);
-        rec.creator = msg.getString("creator", rec.creator);
+        rec.enabled = (msg.getEnabled(0) == 0) ? false : true;
+        rec.maxDuration = msg.getMaxDuration();
+        rec.minDuration = msg.getMinDuration();
+        rec.retention = msg.getRetention();
+        rec.daysOfWeek = msg.getDaysOfWeek();
+        rec.approxTime = msg.getApproxTime();
+        rec.start = msg.getStart();
+        rec.startWindow = msg.getStartWindow();
+        rec.priority = msg.getPriority();
+        rec.startExtra = msg.getStartExtra();
+        rec.stopExtra = msg.getStopExtra();
+        rec.title = msg.getTitle(rec.title);
+        rec.name = msg.getName(rec.name);
+        rec.directory = msg.getDirectory(rec.directory);
+        rec.owner = msg.getOwner(rec.owner);
+        rec.creator = msg.getCreator(rec.creator);
         app.updateSeriesRecording(rec);
     }
 
-    private void onAutorecEntryAdd(HTSMessage msg) {
+    private void onAutorecEntryAdd(AutorecEntryAddView msg) {
         TVHClientApplication app = (TVHClientApplication) getApplication();
+        SeriesRecording existing = app.getSeriesRecording(msg.getId());
+        if (existing != null) {
+            // Sent again during a resync
+            app.markSynced(existing);
+            onAutorecEntryUpdate(new AutorecEntryUpdateView(msg.getMessage()));
+            return;
+        }
         SeriesRecording rec = new SeriesRecording();
-        rec.id = msg.getString("id");
-        rec.enabled = (msg.getLong("enabled", 0) == 0) ? false : true;
-        rec.maxDuration = msg.getLong("maxDuration");
-        rec.minDuration = msg.getLong("minDuration");
-        rec.retention = msg.getLong("retention");
-        rec.daysOfWeek = msg.getLong("daysOfWeek");
-        rec.approxTime = msg.getLong("approxTime");
-        rec.start = msg.getLong("start");
-        rec.startWindow = msg.getLong("startWindow");
-        rec.priority = msg.getLong("priority");
-        rec.startExtra = msg.getLong("startExtra");
-        rec.stopExtra = msg.getLong("stopExtra");
-        rec.title = msg.getString("title", "");
-        rec.name = msg.getString("name", "");
-        rec.directory = msg.getString("directory", "");
-        rec.owner = msg.getString("owner", "");
-        rec.creator = msg.getString("creator", "");
-        rec.channel = app.getChannel(msg.getLong("channel", 0));
+        rec.id = msg.getId();
+        rec.enabled = (msg.getEnabled(0) == 0) ? false : true;
+        rec.maxDuration = msg.getMaxDuration();
+        rec.minDuration = msg.getMinDuration();
+        rec.retention = msg.getRetention();
+        rec.daysOfWeek = msg.getDaysOfWeek();
+        rec.approxTime = msg.getApproxTime();
+        rec.start = msg.getStart();
+        rec.startWindow = msg.getStartWindow();
+        rec.priority = msg.getPriority();
+        rec.startExtra = msg.getStartExtra();
+        rec.stopExtra = msg.getStopExtra();
+        rec.title = msg.getTitle("");
+        rec.name = msg.getName("");
+        rec.directory = msg.getDirectory("");
+        rec.owner = msg.getOwner("");
+        rec.creator = msg.getCreator("");
+        rec.channel = app.getChannel(msg.getChannel(0));
         app.addSeriesRecording(rec);
     }
 
+    /**
+     * Collects the events of the program guide sync. They are applied in
+     * batches, which saves looking up the channels and updating the views
+     * for every single one of the thousands of events.
+     */
+    private void onEvent(HTSMessage msg) {
+        synchronized (eventBatch) {
+            eventBatch.add(msg);
+            if (eventBatch.size() >= EVENT_BATCH_SIZE) {
+                submitEvents();
+            } else if (!eventFlushScheduled) {
+                eventFlushScheduled = true;
+                execService.schedule(new Runnable() {
+                    public void run() {
+                        flushEvents();
+                    }
+                }, EVENT_BATCH_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void flushEvents() {
+        synchronized (eventBatch) {
+            eventFlushScheduled = false;
+            if (!eventBatch.isEmpty()) {
+                submitEvents();
+            }
+        }
+    }
+
+    /**
+     * Applies the events that have been collected so far and waits until
+     * they and all batches before them have been applied.
+     */
+    private void finishEvents() {
+        Future<?> applied;
+        synchronized (eventBatch) {
+            applied = submitEvents();
+        }
+        if (applied == null) {
+            return;
+        }
+        try {
+            applied.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            Log.e(TAG, "Can't apply the program guide events", ex.getCause());
+        }
+    }
+
+    /**
+     * Hands the collected events over to the event executor. Must be called
+     * with the lock of eventBatch held, so the batches are applied in the
+     * order they were collected.
+     * 
+     * @return the future of the batch or null if the service is stopped
+     */
+    private Future<?> submitEvents() {
+        if (eventExecutor.isShutdown()) {
+            eventBatch.clear();
+            return null;
+        }
+        final List<HTSMessage> batch = new ArrayList<HTSMessage>(eventBatch);
+        eventBatch.clear();
+        return eventExecutor.submit(new Runnable() {
+            public void run() {
+                try {
+                    applyEvents(batch);
+                } catch (RuntimeException ex) {
+                    Log.e(TAG, "Can't apply the program guide events", ex);
+                    throw ex;
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds, replaces and removes the programs of the events. Each channel
+     * is looked up and updated once per batch.
+     */
+    private void applyEvents(List<HTSMessage> batch) {
+        TVHClientApplication app = (TVHClientApplication) getApplication();
+        HashMap<Long, Channel> channels = new HashMap<Long, Channel>();
+        HashSet<Long> deleted = new HashSet<Long>();
+        HashSet<Channel> changed = new HashSet<Channel>();
+
+        for (HTSMessage msg : batch) {
+            if (EventDeleteView.METHOD.equals(msg.getMethod())) {
+                deleted.add(new EventDeleteView(msg).getEventId());
+                continue;
+            }
+            EventView ev = new EventView(msg);
+            long channelId = ev.getChannelId(0);
+            Channel ch = channels.get(channelId);
+            if (ch == null && !channels.containsKey(channelId)) {
+                ch = app.getChannel(channelId);
+                channels.put(channelId, ch);
+            }
+            if (ch == null || ev.getStart() == null || ev.getStop() == null) {
+                continue;
+            }
+
+            Program p = new Program();
+            p.id = ev.getEventId(0);
+            p.nextId = ev.getNextEventId(0);
+            p.description = ev.getDescription("");
+            p.summary = ev.getSummary("");
+            p.recording = app.getRecording(ev.getDvrId(0));
+            p.contentType = ev.getContentType(0);
+            p.title = ev.getTitle("");
+            p.start = ev.getStart();
+            p.stop = ev.getStop();
+            p.seriesInfo = buildSeriesInfo(ev);
+            p.starRating = ev.getStarRating(-1);
+            p.channel = ch;
+
+            // An event that is sent again after its delete in the same
+            // batch stays
+            deleted.remove(p.id);
+
+            // An update, or an event that is sent again during a resync,
+            // replaces the program with the same id
+            Program old;
+            boolean added;
+            synchronized (ch.epg) {
+                old = removeProgram(ch, p.id);
+                added = ch.epg.add(p);
+            }
+            if (added) {
+                if (old != null) {
+                    app.updateProgram(p);
+                } else {
+                    app.addProgram(p);
+                }
+            } else if (old != null) {
+                app.removeProgram(old);
+            }
+            changed.add(ch);
+        }
+
+        if (!deleted.isEmpty()) {
+            for (Channel ch : new ArrayList<Channel>(app.getChannels())) {
+                ArrayList<Program> removed = new ArrayList<Program>();
+                synchronized (ch.epg) {
+                    Iterator<Program> it = ch.epg.iterator();
+                    while (it.hasNext()) {
+                        Program p = it.next();
+                        if (deleted.contains(p.id)) {
+                            it.remove();
+                            removed.add(p);
+                        }
+                    }
+                }
+                for (Program p : removed) {
+                    app.removeProgram(p);
+                }
+                if (!removed.isEmpty()) {
+                    changed.add(ch);
+                }
+            }
+        }
+
+        for (Channel ch : changed) {
+            app.updateChannel(ch);
+        }
+    }
+
+    /**
+     * @return the program of the channel with the given id, which has been
+     *         removed from its program guide, or null
+     */
+    private Program removeProgram(Channel ch, long id) {
+        synchronized (ch.epg) {
+            Iterator<Program> it = ch.epg.iterator();
+            while (it.hasNext()) {
+                Program p = it.next();
+                if (p.id == id) {
+                    it.remove();
+                    return p;
+                }
+            }
+        }
+        return null;
+    }
+
     public void onMessage(HTSMessage msg) {
-        String method = msg.getMethod();
-        if (method.equals("tagAdd")) {
-            onTagAdd(msg);
-        } else if (method.equals("tagUpdate")) {
-            onTagUpdate(msg);
-        } else if (method.equals("tagDelete")) {
-            onTagDelete(msg);
-        } else if (method.equals("channelAdd")) {
-            onChannelAdd(msg);
-        } else if (method.equals("channelUpdate")) {
-            onChannelUpdate(msg);
-        } else if (method.equals("channelDelete")) {
-            onChannelDelete(msg);
-        } else if (method.equals("initialSyncCompleted")) {
-            onInitialSyncCompleted(msg);
-        } else if (method.equals("dvrEntryAdd")) {
-            onDvrEntryAdd(msg);
-        } else if (method.equals("dvrEntryUpdate")) {
-            onDvrEntryUpdate(msg);
-        } else if (method.equals("dvrEntryDelete")) {
-            onDvrEntryDelete(msg);
-        } else if (method.equals("timerecEntryAdd")) {
-            onTimerRecEntryAdd(msg);
-        } else if (method.equals("timerecEntryUpdate")) {
-            onTimerRecEntryUpdate(msg);
-        } else if (method.equals("timerecEntryDelete")) {
-            onTimerRecEntryDelete(msg);
-        } else if (method.equals("subscriptionStart")) {
-            onSubscriptionStart(msg);
-        } else if (method.equals("subscriptionStatus")) {
-            onSubscriptionStatus(msg);
-        } else if (method.equals("subscriptionStop")) {
-            onSubscriptionStop(msg);
-        } else if (method.equals("subscriptionGrace")) {
-            onSubscriptionGrace(msg);
-        } else if (method.equals("muxpkt")) {
-            onMuxPacket(msg);
-        } else if (method.equals("queueStatus")) {
-            onQueueStatus(msg);
-        } else if (method.equals("autorecEntryAdd")) {
-            onAutorecEntryAdd(msg);
-        } else if (method.equals("autorecEntryUpdate")) {
-            onAutorecEntryUpdate(msg);
-        } else if (method.equals("autorecEntryDelete")) {
-            onAutorecEntryDelete(msg);
-        } else if (method.equals("signalStatus")) {
-            onSubscriptionSignalStatus(msg);
-        } else {
-            Log.d(TAG, method.toString());
+        if (synced) {
+            lastMessageTime = System.currentTimeMillis();
         }
+        if (!methods.dispatch(msg)) {
+            Log.d(TAG, "Unhandled method " + msg.getMethod());
+        }
+    }
+
+    /**
+     * Handles the messages with the given method by the handler from now
+     * on, instead of the built in one if there is any. Lets plugins handle
+     * methods of newer servers.
+     * 
+     * @param method
+     * @param handler
+     */
+    public void registerMethod(String method, HTSMethodRegistry.MethodHandler handler) {
+        methods.register(method, handler);
+    }
+
+    /**
+     * @return how often the messages of each method have been handled, how
+     *         often that failed and how long it took
+     */
+    public List<HTSMethodRegistry.MethodStats> getMethodStats() {
+        return methods.getStats();
+    }
+
+    private void registerMethods() {
+        methods.register(TagAddView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onTagAdd(new TagAddView(msg));
+            }
+        });
+        methods.register(TagUpdateView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onTagUpdate(new TagUpdateView(msg));
+            }
+        });
+        methods.register(TagDeleteView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onTagDelete(new TagDeleteView(msg));
+            }
+        });
+        methods.register(ChannelAddView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onChannelAdd(new ChannelAddView(msg));
+            }
+        });
+        methods.register(ChannelUpdateView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onChannelUpdate(new ChannelUpdateView(msg));
+            }
+        });
+        methods.register(ChannelDeleteView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onChannelDelete(new ChannelDeleteView(msg));
+            }
+        });
+        methods.register(InitialSyncCompletedView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onInitialSyncCompleted(new InitialSyncCompletedView(msg));
+            }
+        });
+        methods.register(DvrEntryAddView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onDvrEntryAdd(new DvrEntryAddView(msg));
+            }
+        });
+        methods.register(DvrEntryUpdateView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onDvrEntryUpdate(new DvrEntryUpdateView(msg));
+            }
+        });
+        methods.register(DvrEntryDeleteView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onDvrEntryDelete(new DvrEntryDeleteView(msg));
+            }
+        });
+        methods.register(TimerecEntryAddView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onTimerRecEntryAdd(new TimerecEntryAddView(msg));
+            }
+        });
+        methods.register(TimerecEntryUpdateView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onTimerRecEntryUpdate(new TimerecEntryUpdateView(msg));
+            }
+        });
+        methods.register(TimerecEntryDeleteView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onTimerRecEntryDelete(new TimerecEntryDeleteView(msg));
+            }
+        });
+        methods.register(SubscriptionStartView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onSubscriptionStart(new SubscriptionStartView(msg));
+            }
+        });
+        methods.register(SubscriptionStatusView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onSubscriptionStatus(new SubscriptionStatusView(msg));
+            }
+        });
+        methods.register(SubscriptionStopView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onSubscriptionStop(new SubscriptionStopView(msg));
+            }
+        });
+        methods.register(SubscriptionGraceView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onSubscriptionGrace(new SubscriptionGraceView(msg));
+            }
+        });
+        methods.register(MuxpktView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onMuxPacket(new MuxpktView(msg));
+            }
+        });
+        methods.register(QueueStatusView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onQueueStatus(new QueueStatusView(msg));
+            }
+        });
+        methods.register(AutorecEntryAddView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onAutorecEntryAdd(new AutorecEntryAddView(msg));
+            }
+        });
+        methods.register(AutorecEntryUpdateView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onAutorecEntryUpdate(new AutorecEntryUpdateView(msg));
+            }
+        });
+        methods.register(AutorecEntryDeleteView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onAutorecEntryDelete(new AutorecEntryDeleteView(msg));
+            }
+        });
+        methods.register(SignalStatusView.METHOD, new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onSubscriptionSignalStatus(new SignalStatusView(msg));
+            }
+        });
+
+        // The program guide sync collects the events in batches
+        HTSMethodRegistry.MethodHandler eventHandler = new HTSMethodRegistry.MethodHandler() {
+            public void handle(HTSMessage msg) {
+                onEvent(msg);
+            }
+        };
+        methods.register(EventAddView.METHOD, eventHandler);
+        methods.register(EventUpdateView.METHOD, eventHandler);
+        methods.register(EventDeleteView.METHOD, eventHandler);
     }
 
     public String hashString(String s) {
@@ -856,7 +1547,7 @@ public class HTSService extends Service implements HTSConnectionListener {
         if (url.startsWith("http")) {
         	is = new BufferedInputStream(new URL(url).openStream());
         } else if (connection.getProtocolVersion() > 9){
-        	is = new HTSFileInputStream(connection, url);
+        	is = new HTSFileInputStream(route("fileRead"), url);
         } else {
         	Log.d(TAG, "Unhandled url: " + url);
         	return;
@@ -877,7 +1568,7 @@ public class HTSService extends Service implements HTSConnectionListener {
         if (url.startsWith("http")) {
             is = new BufferedInputStream(new URL(url).openStream());
         } else if (connection.getProtocolVersion() > 9) {
-            is = new HTSFileInputStream(connection, url);
+            is = new HTSFileInputStream(route("fileRead"), url);
         }
 
         // Set the sample size of the image. This is the number of pixels in
@@ -953,68 +1644,114 @@ public class HTSService extends Service implements HTSConnectionListener {
     }
 
     private void getEvents(final Channel ch, final long eventId, int cnt) {
+        getEvents(ch, eventId, cnt, null);
+    }
+
+    /**
+     * @param ch
+     * @param eventId
+     * @param cnt
+     * @param done
+     *            Run once the reply has been handled, may be null
+     * @return false if the request was not sent, done is never run then
+     */
+    private boolean getEvents(final Channel ch, final long eventId, int cnt, final Runnable done) {
         if (ch == null) {
+            return false;
+        }
+
+        GetEventsRequest request = new GetEventsRequest();
+        request.setEventId(eventId);
+        request.setNumFollowing(cnt);
+        return sendMessage(request, ch, new HTSResponseHandler() {
+            public void handleResponse(final HTSMessage response) {
+                inChannelOrder(ch, new Runnable() {
+                    public void run() {
+                        onEvents(ch, new EventsView(response));
+                        if (done != null) {
+                            done.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Runs the task in order with the messages about the channel that
+     * arrive on the control connection. Replies that arrive on the bulk
+     * connection are handed over to the workers of the control connection
+     * first, otherwise they could change the channel at the same time as a
+     * channelUpdate or event message.
+     *
+     * @param ch
+     * @param task
+     */
+    private void inChannelOrder(Channel ch, Runnable task) {
+        HTSConnection conn = connection;
+        if (conn == null || conn.isDispatcherThread()) {
+            task.run();
             return;
         }
+        try {
+            if (!conn.dispatchForChannel(ch.id, task)) {
+                Log.d(TAG, "Dropping reply for channel " + ch.id + ", the connection is closed");
+            }
+        } catch (IOException ex) {
+            Log.e(TAG, "Failed to hand over the reply for channel " + ch.id, ex);
+        }
+    }
 
-        HTSMessage request = new HTSMessage();
-        request.setMethod("getEvents");
-        request.putField("eventId", eventId);
-        request.putField("numFollowing", cnt);
-        connection.sendMessage(request, new HTSResponseHandler() {
-            public void handleResponse(HTSMessage response) {
-                if (!response.containsKey("events")) {
-                    return;
-                }
+    private void onEvents(Channel ch, EventsView reply) {
+        if (!reply.hasEvents()) {
+            return;
+        }
 
-                TVHClientApplication app = (TVHClientApplication) getApplication();
+        TVHClientApplication app = (TVHClientApplication) getApplication();
 
-                for (Object obj : response.getList("events")) {
-                    Program p = new Program();
-                    HTSMessage sub = (HTSMessage) obj;
-                    p.id = sub.getLong("eventId", 0);
-                    p.nextId = sub.getLong("nextEventId", 0);
-                    p.description = sub.getString("description", "");
-                    p.summary = sub.getString("summary", "");
-                    p.recording = app.getRecording(sub.getLong("dvrId", 0));
-                    p.contentType = sub.getInt("contentType", 0);
-                    p.title = sub.getString("title");
-                    p.start = sub.getDate("start");
-                    p.stop = sub.getDate("stop");
-                    p.seriesInfo = buildSeriesInfo(sub);
-                    p.starRating = sub.getInt("starRating", -1);
-                    p.channel = ch;
-
-                    if (ch.epg.add(p)) {
-                        app.addProgram(p);
-                    }
-                }
-                app.updateChannel(ch);
+        for (EventView sub : reply.getEvents()) {
+            Program p = new Program();
+            p.id = sub.getEventId(0);
+            p.nextId = sub.getNextEventId(0);
+            p.description = sub.getDescription("");
+            p.summary = sub.getSummary("");
+            p.recording = app.getRecording(sub.getDvrId(0));
+            p.contentType = sub.getContentType(0);
+            p.title = sub.getTitle();
+            p.start = sub.getStart();
+            p.stop = sub.getStop();
+            p.seriesInfo = buildSeriesInfo(sub);
+            p.starRating = sub.getStarRating(-1);
+            p.channel = ch;
+
+            if (ch.epg.add(p)) {
+                app.addProgram(p);
             }
-        });
+        }
+        app.updateChannel(ch);
     }
 
     private void getEvent(long eventId) {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("getEvent");
-        request.putField("eventId", eventId);
+        GetEventRequest request = new GetEventRequest();
+        request.setEventId(eventId);
 
-        connection.sendMessage(request, new HTSResponseHandler() {
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
+                EventView reply = new EventView(response);
                 TVHClientApplication app = (TVHClientApplication) getApplication();
-                Channel ch = app.getChannel(response.getLong("channelId"));
+                Channel ch = app.getChannel(reply.getChannelId());
                 Program p = new Program();
-                p.id = response.getLong("eventId");
-                p.nextId = response.getLong("nextEventId", 0);
-                p.description = response.getString("description", "");
-                p.summary = response.getString("summary", "");
-                p.recording = app.getRecording(response.getLong("dvrId", 0));
-                p.contentType = response.getInt("contentType", 0);
-                p.title = response.getString("title");
-                p.start = response.getDate("start");
-                p.stop = response.getDate("stop");
-                p.seriesInfo = buildSeriesInfo(response);
-                p.starRating = response.getInt("starRating", -1);
+                p.id = reply.getEventId();
+                p.nextId = reply.getNextEventId(0);
+                p.description = reply.getDescription("");
+                p.summary = reply.getSummary("");
+                p.recording = app.getRecording(reply.getDvrId(0));
+                p.contentType = reply.getContentType(0);
+                p.title = reply.getTitle();
+                p.start = reply.getStart();
+                p.stop = reply.getStop();
+                p.seriesInfo = buildSeriesInfo(reply);
+                p.starRating = reply.getStarRating(-1);
                 p.channel = ch;
 
                 if (ch.epg.add(p)) {
@@ -1025,40 +1762,40 @@ public class HTSService extends Service implements HTSConnectionListener {
         });
     }
 
-    private SeriesInfo buildSeriesInfo(HTSMessage msg) {
+    private SeriesInfo buildSeriesInfo(EventView msg) {
         SeriesInfo info = new SeriesInfo();
-        info.episodeCount = msg.getInt("episodeCount", 0);
-        info.episodeNumber = msg.getInt("episodeNumber", 0);
-        info.onScreen = msg.getString("episodeOnscreen", "");
-        info.partCount = msg.getInt("partCount", 0);
-        info.partNumber = msg.getInt("partNumber", 0);
-        info.seasonCount = msg.getInt("seasonCount", 0);
-        info.seasonNumber = msg.getInt("seasonNumber", 0);
+        info.episodeCount = msg.getEpisodeCount(0);
+        info.episodeNumber = msg.getEpisodeNumber(0);
+        info.onScreen = msg.getEpisodeOnscreen("");
+        info.partCount = msg.getPartCount(0);
+        info.partNumber = msg.getPartNumber(0);
+        info.seasonCount = msg.getSeasonCount(0);
+        info.seasonNumber = msg.getSeasonNumber(0);
         return info;
     }
 	
     private void epgQuery(final Channel ch, String query, long tagId) {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("epgQuery");
-        request.putField("query", query);
+        EpgQueryRequest request = new EpgQueryRequest();
+        request.setQuery(query);
 
         // The default values will be set in case a server with a htsp API
         // version 12 or lower is used
-        request.putField("minduration", 0);
-        request.putField("maxduration", Integer.MAX_VALUE);
+        request.setMinduration(0);
+        request.setMaxduration(Integer.MAX_VALUE);
 
         if (ch != null) {
-            request.putField("channelId", ch.id);
+            request.setChannelId(ch.id);
         }
         if (tagId > 0) {
-            request.putField("tagId", tagId);
+            request.setTagId(tagId);
         }
-        connection.sendMessage(request, new HTSResponseHandler() {
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
-                if (!response.containsKey("eventIds")) {
+                EventIdsView reply = new EventIdsView(response);
+                if (!reply.hasEventIds()) {
                     return;
                 }
-                for (Long id : response.getLongList("eventIds")) {
+                for (Long id : reply.getEventIds()) {
                     getEvent(id);
                 }
             }
@@ -1066,60 +1803,66 @@ public class HTSService extends Service implements HTSConnectionListener {
     }
 
     private void cancelDvrEntry(long id) {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("cancelDvrEntry");
-        request.putField("id", id);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        CancelDvrEntryRequest request = new CancelDvrEntryRequest();
+        request.setId(id);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
+                ResultView reply = new ResultView(response);
                 @SuppressWarnings("unused")
-                boolean success = response.getInt("success", 0) == 1;
+                boolean success = reply.getSuccess(0) == 1;
             }
         });
     }
 
     private void deleteDvrEntry(long id) {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("deleteDvrEntry");
-        request.putField("id", id);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        DeleteDvrEntryRequest request = new DeleteDvrEntryRequest();
+        request.setId(id);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
+                ResultView reply = new ResultView(response);
                 @SuppressWarnings("unused")
-                boolean success = response.getInt("success", 0) == 1;
+                boolean success = reply.getSuccess(0) == 1;
             }
         });
     }
 
     private void addDvrEntry(final Channel ch, final long eventId) {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("addDvrEntry");
-        request.putField("eventId", eventId);
-        request.putField("retention", 0);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        AddDvrEntryRequest request = new AddDvrEntryRequest();
+        request.setEventId(eventId);
+        request.setRetention(0);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
-                if (response.getInt("success", 0) == 1) {
-                    for (Program p : ch.epg) {
-                        if (p.id == eventId) {
-                            TVHClientApplication app = (TVHClientApplication) getApplication();
-                            p.recording = app.getRecording(response.getLong("id", 0));
-                            app.updateProgram(p);
-                            break;
+                ResultView reply = new ResultView(response);
+                if (reply.getSuccess(0) == 1) {
+                    TVHClientApplication app = (TVHClientApplication) getApplication();
+                    Program program = null;
+                    synchronized (ch.epg) {
+                        for (Program p : ch.epg) {
+                            if (p.id == eventId) {
+                                p.recording = app.getRecording(reply.getId(0));
+                                program = p;
+                                break;
+                            }
                         }
                     }
+                    if (program != null) {
+                        app.updateProgram(program);
+                    }
                 }
                 @SuppressWarnings("unused")
-                String error = response.getString("error", "");
+                String error = reply.getError("");
             }
         });
     }
 
     private void deleteTimerRecEntry(String id) {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("deleteTimerecEntry");
-        request.putField("id", id);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        DeleteTimerecEntryRequest request = new DeleteTimerecEntryRequest();
+        request.setId(id);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
+                ResultView reply = new ResultView(response);
                 @SuppressWarnings("unused")
-                boolean success = response.getInt("success", 0) == 1;
+                boolean success = reply.getSuccess(0) == 1;
             }
         });
     }
@@ -1142,25 +1885,25 @@ public class HTSService extends Service implements HTSConnectionListener {
                 long channelId, String configName, long retention, long daysOfWeek,
                 long priority, long enabled, String name, String directory) {
 
-        HTSMessage request = new HTSMessage();
-        request.setMethod("addTimerecEntry");
-        request.putField("title", title);
-        request.putField("start", start);
-        request.putField("stop", stop);
-        request.putField("channelId", channelId);
-        request.putField("configName", configName);
-        request.putField("retention", retention);
-        request.putField("daysOfWeek", daysOfWeek);
-        request.putField("priority", priority);
-        request.putField("enabled", enabled);
-        request.putField("name", name);
-        request.putField("directory", directory);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        AddTimerecEntryRequest request = new AddTimerecEntryRequest();
+        request.setTitle(title);
+        request.setStart(start);
+        request.setStop(stop);
+        request.setChannelId(channelId);
+        request.setConfigName(configName);
+        request.setRetention(retention);
+        request.setDaysOfWeek(daysOfWeek);
+        request.setPriority(priority);
+        request.setEnabled(enabled);
+        request.setName(name);
+        request.setDirectory(directory);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
+                ResultView reply = new ResultView(response);
                 @SuppressWarnings("unused")
-                boolean success = response.getInt("success", 0) == 1;
+                boolean success = reply.getSuccess(0) == 1;
                 @SuppressWarnings("unused")
-                String error = response.getString("error", "");
+                String error = reply.getError("");
             }
         });
     }
@@ -1173,15 +1916,14 @@ public class HTSService extends Service implements HTSConnectionListener {
         TVHClientApplication app = (TVHClientApplication) getApplication();
         app.addSubscription(subscription);
 
-        HTSMessage request = new HTSMessage();
-        request.setMethod("subscribe");
-        request.putField("channelId", channelId);
-        request.putField("maxWidth", maxWidth);
-        request.putField("maxHeight", maxHeight);
-        request.putField("audioCodec", aCodec);
-        request.putField("videoCodec", vCodec);
-        request.putField("subscriptionId", subscriptionId);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        SubscribeRequest request = new SubscribeRequest();
+        request.setChannelId(channelId);
+        request.setMaxWidth(maxWidth);
+        request.setMaxHeight(maxHeight);
+        request.setAudioCodec(aCodec);
+        request.setVideoCodec(vCodec);
+        request.setSubscriptionId(subscriptionId);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
                 //NOP
             }
@@ -1192,10 +1934,9 @@ public class HTSService extends Service implements HTSConnectionListener {
         TVHClientApplication app = (TVHClientApplication) getApplication();
         app.removeSubscription(subscriptionId);
 
-        HTSMessage request = new HTSMessage();
-        request.setMethod("unsubscribe");
-        request.putField("subscriptionId", subscriptionId);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        UnsubscribeRequest request = new UnsubscribeRequest();
+        request.setSubscriptionId(subscriptionId);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
                 //NOP
             }
@@ -1203,11 +1944,10 @@ public class HTSService extends Service implements HTSConnectionListener {
     }
 
     private void feedback(long subscriptionId, int speed) {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("feedback");
-        request.putField("subscriptionId", subscriptionId);
-        request.putField("speed", speed);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        FeedbackRequest request = new FeedbackRequest();
+        request.setSubscriptionId(subscriptionId);
+        request.setSpeed(speed);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
                 //NOP
             }
@@ -1215,13 +1955,13 @@ public class HTSService extends Service implements HTSConnectionListener {
     }
 
     private void getTicket(Channel ch) {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("getTicket");
-        request.putField("channelId", ch.id);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        GetTicketRequest request = new GetTicketRequest();
+        request.setChannelId(ch.id);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
-                String path = response.getString("path", "");
-                String ticket = response.getString("ticket", "");
+                TicketView reply = new TicketView(response);
+                String path = reply.getPath("");
+                String ticket = reply.getTicket("");
                 String webroot = connection.getWebRoot();
 
                 if (path != null && ticket != null) {
@@ -1233,13 +1973,13 @@ public class HTSService extends Service implements HTSConnectionListener {
     }
 
     private void getTicket(Recording rec) {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("getTicket");
-        request.putField("dvrId", rec.id);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        GetTicketRequest request = new GetTicketRequest();
+        request.setDvrId(rec.id);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
-                String path = response.getString("path", "");
-                String ticket = response.getString("ticket", "");
+                TicketView reply = new TicketView(response);
+                String path = reply.getPath("");
+                String ticket = reply.getTicket("");
 
                 if (path != null && ticket != null) {
                     TVHClientApplication app = (TVHClientApplication) getApplication();
@@ -1250,49 +1990,78 @@ public class HTSService extends Service implements HTSConnectionListener {
     }
     
     private void getDiscSpace() {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("getDiskSpace");
-        connection.sendMessage(request, new HTSResponseHandler() {
+        GetDiskSpaceRequest request = new GetDiskSpaceRequest();
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
+                DiskSpaceView reply = new DiskSpaceView(response);
                 TVHClientApplication app = (TVHClientApplication) getApplication();
-                app.updateStatus("freediskspace", response.getString("freediskspace", ""));
-                app.updateStatus("totaldiskspace", response.getString("totaldiskspace", ""));
+                app.updateStatus("freediskspace", reply.getFreediskspace(""));
+                app.updateStatus("totaldiskspace", reply.getTotaldiskspace(""));
             }
         });
     }
 
     private void getSystemTime() {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("getSysTime");
-        connection.sendMessage(request, new HTSResponseHandler() {
+        GetSysTimeRequest request = new GetSysTimeRequest();
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
+                SysTimeView reply = new SysTimeView(response);
                 TVHClientApplication app = (TVHClientApplication) getApplication();
-                app.updateStatus("time", response.getString("time", ""));
-                app.updateStatus("timezone", response.getString("timezone", ""));
+                app.updateStatus("time", reply.getTime(""));
+                app.updateStatus("timezone", reply.getTimezone(""));
             }
         });
     }
 
+    /**
+     * Gets the time of the server to be able to tell it the time of the last
+     * update on the next reconnect.
+     */
+    private void getServerTimeOffset() {
+        GetSysTimeRequest request = new GetSysTimeRequest();
+        final long sent = System.currentTimeMillis();
+        sendMessage(request, new HTSResponseHandler() {
+            public void handleResponse(HTSMessage response) {
+                long time = response.getLong("time", 0);
+                if (time > 0) {
+                    long now = System.currentTimeMillis();
+                    serverTimeOffset = time * 1000 - (sent + now) / 2;
+                    serverTimeKnown = true;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the server time in seconds of the last update that was
+     *         received from it, or 0 if it is not known
+     */
+    private long getLastUpdate() {
+        if (!serverTimeKnown || lastMessageTime == 0) {
+            return 0;
+        }
+        return Math.max(0, (lastMessageTime + serverTimeOffset) / 1000 - LAST_UPDATE_MARGIN);
+    }
+
     private void getDvrConfigs() {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("getDvrConfigs");
-        connection.sendMessage(request, new HTSResponseHandler() {
+        GetDvrConfigsRequest request = new GetDvrConfigsRequest();
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
-                if (!response.containsKey("dvrconfigs")) {
+                DvrConfigsView reply = new DvrConfigsView(response);
+                if (!reply.hasDvrconfigs()) {
                     return;
                 }
                 List<Profiles> pList = new ArrayList<Profiles>();
                 TVHClientApplication app = (TVHClientApplication) getApplication();
-                for (Object obj : response.getList("dvrconfigs")) {
-                    HTSMessage sub = (HTSMessage) obj;
+                for (ProfileView sub : reply.getDvrconfigs()) {
 
                     Profiles p = new Profiles();
-                    p.uuid = sub.getString("uuid");
-                    p.name = sub.getString("name");
+                    p.uuid = sub.getUuid();
+                    p.name = sub.getName();
                     if (p.name.length() == 0) {
                         p.name = Constants.REC_PROFILE_DEFAULT;
                     }
-                    p.comment = sub.getString("comment");
+                    p.comment = sub.getComment();
                     pList.add(p);
                 }
                 app.addDvrConfigs(pList);
@@ -1301,13 +2070,13 @@ public class HTSService extends Service implements HTSConnectionListener {
     }
 
     private void deleteAutorecEntry(final String id) {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("deleteAutorecEntry");
-        request.putField("id", id);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        DeleteAutorecEntryRequest request = new DeleteAutorecEntryRequest();
+        request.setId(id);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
+                ResultView reply = new ResultView(response);
                 @SuppressWarnings("unused")
-                boolean success = response.getInt("success", 0) == 1;
+                boolean success = reply.getSuccess(0) == 1;
             }
         });
     }
@@ -1332,25 +2101,25 @@ public class HTSService extends Service implements HTSConnectionListener {
             long minDuration, long retention, long daysOfWeek, long priority, long enabled,
             long startExtra, long stopExtra, String name, String directory) {
 
-        HTSMessage request = new HTSMessage();
-        request.setMethod("addAutorecEntry");
-        request.putField("title", title);
-        request.putField("configName", configName);
-        request.putField("channelId", channelId);
-        request.putField("minDuration", minDuration);
-        request.putField("maxDuration", maxDuration);
-        request.putField("retention", retention);
-        request.putField("daysOfWeek", daysOfWeek);
-        request.putField("priority", priority);
-        request.putField("enabled", enabled);
-        request.putField("startExtra", startExtra);
-        request.putField("stopExtra", stopExtra);
-        request.putField("name", name);
-        request.putField("directory", directory);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        AddAutorecEntryRequest request = new AddAutorecEntryRequest();
+        request.setTitle(title);
+        request.setConfigName(configName);
+        request.setChannelId(channelId);
+        request.setMinDuration(minDuration);
+        request.setMaxDuration(maxDuration);
+        request.setRetention(retention);
+        request.setDaysOfWeek(daysOfWeek);
+        request.setPriority(priority);
+        request.setEnabled(enabled);
+        request.setStartExtra(startExtra);
+        request.setStopExtra(stopExtra);
+        request.setName(name);
+        request.setDirectory(directory);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
+                ResultView reply = new ResultView(response);
                 @SuppressWarnings("unused")
-                boolean success = response.getInt("success", 0) == 1;
+                boolean success = reply.getSuccess(0) == 1;
             }
         });
     }
@@ -1358,23 +2127,22 @@ public class HTSService extends Service implements HTSConnectionListener {
     private void getDvrCutpoints(final Recording rec) {
         Log.d(TAG, "getDvrCutpoints, rec " + rec.title);
 
-        HTSMessage request = new HTSMessage();
-        request.setMethod("getDvrCutpoints");
-        request.putField("id", rec.id);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        GetDvrCutpointsRequest request = new GetDvrCutpointsRequest();
+        request.setId(rec.id);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
-                if (!response.containsKey("cutpoints")) {
+                CutpointsView reply = new CutpointsView(response);
+                if (!reply.hasCutpoints()) {
                     return;
                 }
                 // Clear all saved cut points before adding new ones.
                 rec.dvrCutPoints.clear();
 
-                for (Object obj : response.getList("cutpoints")) {
+                for (CutpointView sub : reply.getCutpoints()) {
                     DvrCutpoint dc = new DvrCutpoint();
-                    HTSMessage sub = (HTSMessage) obj;
-                    dc.start = sub.getInt("start");
-                    dc.end = sub.getInt("end");
-                    dc.type = sub.getInt("type");
+                    dc.start = sub.getStart();
+                    dc.end = sub.getEnd();
+                    dc.type = sub.getType();
                     rec.dvrCutPoints.add(dc);
 
                     Log.d(TAG, "getDvrCutpoints, added cut point for rec " + rec.title);
@@ -1389,10 +2157,9 @@ public class HTSService extends Service implements HTSConnectionListener {
     }
 
     private void getChannel(final Channel ch) {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("getChannel");
-        request.putField("channelId", ch.id);
-        connection.sendMessage(request, new HTSResponseHandler() {
+        GetChannelRequest request = new GetChannelRequest();
+        request.setChannelId(ch.id);
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
                 // TODO
                 
@@ -1401,22 +2168,21 @@ public class HTSService extends Service implements HTSConnectionListener {
     }
 
     private void getProfiles() {
-        HTSMessage request = new HTSMessage();
-        request.setMethod("getProfiles");
-        connection.sendMessage(request, new HTSResponseHandler() {
+        GetProfilesRequest request = new GetProfilesRequest();
+        sendMessage(request, new HTSResponseHandler() {
             public void handleResponse(HTSMessage response) {
-                if (!response.containsKey("profiles")) {
+                ProfilesView reply = new ProfilesView(response);
+                if (!reply.hasProfiles()) {
                     return;
                 }
                 List<Profiles> pList = new ArrayList<Profiles>();
                 TVHClientApplication app = (TVHClientApplication) getApplication();
-                for (Object obj : response.getList("profiles")) {
-                    HTSMessage sub = (HTSMessage) obj;
+                for (ProfileView sub : reply.getProfiles()) {
 
                     Profiles p = new Profiles();
-                    p.uuid = sub.getString("uuid");
-                    p.name = sub.getString("name");
-                    p.comment = sub.getString("comment");
+                    p.uuid = sub.getUuid();
+                    p.name = sub.getName();
+                    p.comment = sub.getComment();
                     pList.add(p);
                 }
                 app.addProfiles(pList);
@@ -0,0 +1,161 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the sequence numbers of the requests that wait for a reply, sorted
+ * into slots by the tick their deadline falls into. Each tick only the
+ * slot of that tick is looked at, so it does not matter how many requests
+ * are pending. Deadlines further away than one turn of the wheel stay in
+ * their slot until the wheel comes round often enough.
+ *
+ * Only sequence numbers are kept, not the futures. A reply that arrived
+ * in time therefore does not stay referenced by the wheel until the
+ * deadline of its request has passed.
+ *
+ * Requests can be scheduled from any thread. {@link #expire} must only be
+ * called from the selector thread.
+ */
+public class HTSTimeoutWheel {
+
+    public interface Listener {
+        /**
+         * Called from {@link #expire} for every request whose deadline has
+         * passed, whether its reply has arrived or not.
+         *
+         * @param seq
+         */
+        void onExpired(int seq);
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final int[][] seqs;
+    private final long[][] ticks;
+    private final int[] sizes;
+    private final ConcurrentLinkedQueue<HTSResponseFuture> added;
+
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMillis
+     *            Resolution of the deadlines in milliseconds
+     * @param slots
+     *            Number of slots, rounded up to a power of two
+     */
+    public HTSTimeoutWheel(long tickMillis, int slots) {
+        int n = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        mask = n - 1;
+        seqs = new int[n][];
+        ticks = new long[n][];
+        sizes = new int[n];
+        for (int i = 0; i < n; i++) {
+            seqs[i] = new int[4];
+            ticks[i] = new long[4];
+        }
+        added = new ConcurrentLinkedQueue<HTSResponseFuture>();
+        currentTick = System.nanoTime() / tickNanos;
+    }
+
+    /**
+     * Adds the request of the future. Can be called from any thread, the
+     * request is put into its slot on the next call of {@link #expire}.
+     *
+     * @param future
+     */
+    public void schedule(HTSResponseFuture future) {
+        added.offer(future);
+    }
+
+    /**
+     * @return true if no request is waiting for its deadline
+     */
+    public boolean isEmpty() {
+        return size == 0 && added.isEmpty();
+    }
+
+    /**
+     * Reports all requests whose deadline lies in a tick that has passed
+     * completely and removes them from the wheel.
+     *
+     * @param now
+     *            The current time as given by System.nanoTime()
+     * @param listener
+     */
+    public void expire(long now, Listener listener) {
+        HTSResponseFuture future;
+        while ((future = added.poll()) != null) {
+            long tick = Math.max(future.getDeadline() / tickNanos, currentTick);
+            add((int) tick & mask, future.getSeq(), tick);
+        }
+
+        long nowTick = now / tickNanos;
+        for (; currentTick < nowTick; currentTick++) {
+            int slot = (int) currentTick & mask;
+            int[] s = seqs[slot];
+            long[] t = ticks[slot];
+            int kept = 0;
+            for (int i = 0; i < sizes[slot]; i++) {
+                if (t[i] <= currentTick) {
+                    size--;
+                    listener.onExpired(s[i]);
+                } else {
+                    // Due in one of the next turns of the wheel
+                    s[kept] = s[i];
+                    t[kept] = t[i];
+                    kept++;
+                }
+            }
+            sizes[slot] = kept;
+
+            // Nothing is pending, the idle ticks need not be walked
+            if (size == 0) {
+                currentTick = nowTick;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Forgets all requests.
+     */
+    public void clear() {
+        added.clear();
+        Arrays.fill(sizes, 0);
+        size = 0;
+    }
+
+    private void add(int slot, int seq, long tick) {
+        int n = sizes[slot];
+        if (n == seqs[slot].length) {
+            seqs[slot] = Arrays.copyOf(seqs[slot], n * 2);
+            ticks[slot] = Arrays.copyOf(ticks[slot], n * 2);
+        }
+        seqs[slot][n] = seq;
+        ticks[slot][n] = tick;
+        sizes[slot] = n + 1;
+        size++;
+    }
+}
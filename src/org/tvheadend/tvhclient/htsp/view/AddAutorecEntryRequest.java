@@ -0,0 +1,101 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+
+/**
+ * The addAutorecEntry request.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class AddAutorecEntryRequest extends HTSMessage {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String METHOD = "addAutorecEntry";
+
+    public AddAutorecEntryRequest() {
+        setMethod(METHOD);
+    }
+
+    public AddAutorecEntryRequest setTitle(String value) {
+        putField("title", value);
+        return this;
+    }
+
+    public AddAutorecEntryRequest setConfigName(String value) {
+        putField("configName", value);
+        return this;
+    }
+
+    public AddAutorecEntryRequest setChannelId(long value) {
+        putField("channelId", value);
+        return this;
+    }
+
+    public AddAutorecEntryRequest setMinDuration(long value) {
+        putField("minDuration", value);
+        return this;
+    }
+
+    public AddAutorecEntryRequest setMaxDuration(long value) {
+        putField("maxDuration", value);
+        return this;
+    }
+
+    public AddAutorecEntryRequest setRetention(long value) {
+        putField("retention", value);
+        return this;
+    }
+
+    public AddAutorecEntryRequest setDaysOfWeek(long value) {
+        putField("daysOfWeek", value);
+        return this;
+    }
+
+    public AddAutorecEntryRequest setPriority(long value) {
+        putField("priority", value);
+        return this;
+    }
+
+    public AddAutorecEntryRequest setEnabled(long value) {
+        putField("enabled", value);
+        return this;
+    }
+
+    public AddAutorecEntryRequest setStartExtra(long value) {
+        putField("startExtra", value);
+        return this;
+    }
+
+    public AddAutorecEntryRequest setStopExtra(long value) {
+        putField("stopExtra", value);
+        return this;
+    }
+
+    public AddAutorecEntryRequest setName(String value) {
+        putField("name", value);
+        return this;
+    }
+
+    public AddAutorecEntryRequest setDirectory(String value) {
+        putField("directory", value);
+        return this;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+
+/**
+ * The addDvrEntry request.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class AddDvrEntryRequest extends HTSMessage {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String METHOD = "addDvrEntry";
+
+    public AddDvrEntryRequest() {
+        setMethod(METHOD);
+    }
+
+    public AddDvrEntryRequest setEventId(long value) {
+        putField("eventId", value);
+        return this;
+    }
+
+    public AddDvrEntryRequest setRetention(long value) {
+        putField("retention", value);
+        return this;
+    }
+}
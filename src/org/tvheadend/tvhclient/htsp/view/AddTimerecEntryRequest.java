@@ -0,0 +1,91 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+
+/**
+ * The addTimerecEntry request.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class AddTimerecEntryRequest extends HTSMessage {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String METHOD = "addTimerecEntry";
+
+    public AddTimerecEntryRequest() {
+        setMethod(METHOD);
+    }
+
+    public AddTimerecEntryRequest setTitle(String value) {
+        putField("title", value);
+        return this;
+    }
+
+    public AddTimerecEntryRequest setStart(long value) {
+        putField("start", value);
+        return this;
+    }
+
+    public AddTimerecEntryRequest setStop(long value) {
+        putField("stop", value);
+        return this;
+    }
+
+    public AddTimerecEntryRequest setChannelId(long value) {
+        putField("channelId", value);
+        return this;
+    }
+
+    public AddTimerecEntryRequest setConfigName(String value) {
+        putField("configName", value);
+        return this;
+    }
+
+    public AddTimerecEntryRequest setRetention(long value) {
+        putField("retention", value);
+        return this;
+    }
+
+    public AddTimerecEntryRequest setDaysOfWeek(long value) {
+        putField("daysOfWeek", value);
+        return this;
+    }
+
+    public AddTimerecEntryRequest setPriority(long value) {
+        putField("priority", value);
+        return this;
+    }
+
+    public AddTimerecEntryRequest setEnabled(long value) {
+        putField("enabled", value);
+        return this;
+    }
+
+    public AddTimerecEntryRequest setName(String value) {
+        putField("name", value);
+        return this;
+    }
+
+    public AddTimerecEntryRequest setDirectory(String value) {
+        putField("directory", value);
+        return this;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the autorecEntryUpdate message.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class AutorecEntryUpdateView extends HTSMessageView {
+
+    public static final String METHOD = "autorecEntryUpdate";
+
+    private static final String[] FIELDS = {
+        "id",
+        "enabled",
+        "maxDuration",
+        "minDuration",
+        "retention",
+        "daysOfWeek",
+        "approxTime",
+        "start",
+        "startWindow",
+        "priority",
+        "startExtra",
+        "stopExtra",
+        "title",
+        "name",
+        "directory",
+        "owner",
+        "creator",
+        "channel",
+    };
+
+    public AutorecEntryUpdateView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasId() {
+        return has(0);
+    }
+
+    public String getId() {
+        return getString(0);
+    }
+
+    public String getId(String std) {
+        return getString(0, std);
+    }
+
+    public boolean hasEnabled() {
+        return has(1);
+    }
+
+    public long getEnabled() {
+        return getLong(1);
+    }
+
+    public long getEnabled(long std) {
+        return getLong(1, std);
+    }
+
+    public boolean hasMaxDuration() {
+        return has(2);
+    }
+
+    public long getMaxDuration() {
+        return getLong(2);
+    }
+
+    public long getMaxDuration(long std) {
+        return getLong(2, std);
+    }
+
+    public boolean hasMinDuration() {
+        return has(3);
+    }
+
+    public long getMinDuration() {
+        return getLong(3);
+    }
+
+    public long getMinDuration(long std) {
+        return getLong(3, std);
+    }
+
+    public boolean hasRetention() {
+        return has(4);
+    }
+
+    public long getRetention() {
+        return getLong(4);
+    }
+
+    public long getRetention(long std) {
+        return getLong(4, std);
+    }
+
+    public boolean hasDaysOfWeek() {
+        return has(5);
+    }
+
+    public long getDaysOfWeek() {
+        return getLong(5);
+    }
+
+    public long getDaysOfWeek(long std) {
+        return getLong(5, std);
+    }
+
+    public boolean hasApproxTime() {
+        return has(6);
+    }
+
+    public long getApproxTime() {
+        return getLong(6);
+    }
+
+    public long getApproxTime(long std) {
+        return getLong(6, std);
+    }
+
+    public boolean hasStart() {
+        return has(7);
+    }
+
+    public long getStart() {
+        return getLong(7);
+    }
+
+    public long getStart(long std) {
+        return getLong(7, std);
+    }
+
+    public boolean hasStartWindow() {
+        return has(8);
+    }
+
+    public long getStartWindow() {
+        return getLong(8);
+    }
+
+    public long getStartWindow(long std) {
+        return getLong(8, std);
+    }
+
+    public boolean hasPriority() {
+        return has(9);
+    }
+
+    public long getPriority() {
+        return getLong(9);
+    }
+
+    public long getPriority(long std) {
+        return getLong(9, std);
+    }
+
+    public boolean hasStartExtra() {
+        return has(10);
+    }
+
+    public long getStartExtra() {
+        return getLong(10);
+    }
+
+    public long getStartExtra(long std) {
+        return getLong(10, std);
+    }
+
+    public boolean hasStopExtra() {
+        return has(11);
+    }
+
+    public long getStopExtra() {
+        return getLong(11);
+    }
+
+    public long getStopExtra(long std) {
+        return getLong(11, std);
+    }
+
+    public boolean hasTitle() {
+        return has(12);
+    }
+
+    public String getTitle() {
+        return getString(12);
+    }
+
+    public String getTitle(String std) {
+        return getString(12, std);
+    }
+
+    public boolean hasName() {
+        return has(13);
+    }
+
+    public String getName() {
+        return getString(13);
+    }
+
+    public String getName(String std) {
+        return getString(13, std);
+    }
+
+    public boolean hasDirectory() {
+        return has(14);
+    }
+
+    public String getDirectory() {
+        return getString(14);
+    }
+
+    public String getDirectory(String std) {
+        return getString(14, std);
+    }
+
+    public boolean hasOwner() {
+        return has(15);
+    }
+
+    public String getOwner() {
+        return getString(15);
+    }
+
+    public String getOwner(String std) {
+        return getString(15, std);
+    }
+
+    public boolean hasCreator() {
+        return has(16);
+    }
+
+    public String getCreator() {
+        return getString(16);
+    }
+
+    public String getCreator(String std) {
+        return getString(16, std);
+    }
+
+    public boolean hasChannel() {
+        return has(17);
+    }
+
+    public long getChannel() {
+        return getLong(17);
+    }
+
+    public long getChannel(long std) {
+        return getLong(17, std);
+    }
+}
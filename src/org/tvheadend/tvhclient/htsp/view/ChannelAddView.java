@@ -0,0 +1,153 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import java.util.List;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the channelAdd message.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class ChannelAddView extends HTSMessageView {
+
+    public static final String METHOD = "channelAdd";
+
+    private static final String[] FIELDS = {
+        "channelId",
+        "channelName",
+        "channelNumber",
+        "channelNumberMinor",
+        "channelIcon",
+        "tags",
+        "eventId",
+        "nextEventId",
+    };
+
+    public ChannelAddView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasChannelId() {
+        return has(0);
+    }
+
+    public long getChannelId() {
+        return getLong(0);
+    }
+
+    public long getChannelId(long std) {
+        return getLong(0, std);
+    }
+
+    public boolean hasChannelName() {
+        return has(1);
+    }
+
+    public String getChannelName() {
+        return getString(1);
+    }
+
+    public String getChannelName(String std) {
+        return getString(1, std);
+    }
+
+    public boolean hasChannelNumber() {
+        return has(2);
+    }
+
+    public int getChannelNumber() {
+        return getInt(2);
+    }
+
+    public int getChannelNumber(int std) {
+        return getInt(2, std);
+    }
+
+    /**
+     * Only sent by servers with HTSP version 13 or later.
+     */
+    public boolean hasChannelNumberMinor() {
+        return has(3);
+    }
+
+    /**
+     * Only sent by servers with HTSP version 13 or later.
+     */
+    public int getChannelNumberMinor() {
+        return getInt(3);
+    }
+
+    /**
+     * Only sent by servers with HTSP version 13 or later.
+     */
+    public int getChannelNumberMinor(int std) {
+        return getInt(3, std);
+    }
+
+    public boolean hasChannelIcon() {
+        return has(4);
+    }
+
+    public String getChannelIcon() {
+        return getString(4);
+    }
+
+    public String getChannelIcon(String std) {
+        return getString(4, std);
+    }
+
+    public boolean hasTags() {
+        return has(5);
+    }
+
+    public List<Integer> getTags() {
+        return getIntList(5);
+    }
+
+    public List<Integer> getTags(List<Integer> std) {
+        return getIntList(5, std);
+    }
+
+    public boolean hasEventId() {
+        return has(6);
+    }
+
+    public long getEventId() {
+        return getLong(6);
+    }
+
+    public long getEventId(long std) {
+        return getLong(6, std);
+    }
+
+    public boolean hasNextEventId() {
+        return has(7);
+    }
+
+    public long getNextEventId() {
+        return getLong(7);
+    }
+
+    public long getNextEventId(long std) {
+        return getLong(7, std);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the cutpoint map.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class CutpointView extends HTSMessageView {
+
+    private static final String[] FIELDS = {
+        "start",
+        "end",
+        "type",
+    };
+
+    public CutpointView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasStart() {
+        return has(0);
+    }
+
+    public int getStart() {
+        return getInt(0);
+    }
+
+    public int getStart(int std) {
+        return getInt(0, std);
+    }
+
+    public boolean hasEnd() {
+        return has(1);
+    }
+
+    public int getEnd() {
+        return getInt(1);
+    }
+
+    public int getEnd(int std) {
+        return getInt(1, std);
+    }
+
+    public boolean hasType() {
+        return has(2);
+    }
+
+    public int getType() {
+        return getInt(2);
+    }
+
+    public int getType(int std) {
+        return getInt(2, std);
+    }
+}
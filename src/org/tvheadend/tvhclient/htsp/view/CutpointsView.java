@@ -0,0 +1,52 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the cutpoints map.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class CutpointsView extends HTSMessageView {
+
+    private static final String[] FIELDS = {
+        "cutpoints",
+    };
+
+    public CutpointsView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasCutpoints() {
+        return has(0);
+    }
+
+    public List<CutpointView> getCutpoints() {
+        List<CutpointView> list = new ArrayList<CutpointView>();
+        for (HTSMessage map : getMapList(0)) {
+            list.add(new CutpointView(map));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import java.util.Date;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the dvrEntryAdd message.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class DvrEntryAddView extends HTSMessageView {
+
+    public static final String METHOD = "dvrEntryAdd";
+
+    private static final String[] FIELDS = {
+        "id",
+        "channel",
+        "eventId",
+        "autorecId",
+        "timerecId",
+        "start",
+        "stop",
+        "startExtra",
+        "stopExtra",
+        "retention",
+        "priority",
+        "contentType",
+        "title",
+        "description",
+        "owner",
+        "creator",
+        "path",
+        "state",
+        "error",
+    };
+
+    public DvrEntryAddView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasId() {
+        return has(0);
+    }
+
+    public long getId() {
+        return getLong(0);
+    }
+
+    public long getId(long std) {
+        return getLong(0, std);
+    }
+
+    public boolean hasChannel() {
+        return has(1);
+    }
+
+    public long getChannel() {
+        return getLong(1);
+    }
+
+    public long getChannel(long std) {
+        return getLong(1, std);
+    }
+
+    public boolean hasEventId() {
+        return has(2);
+    }
+
+    public long getEventId() {
+        return getLong(2);
+    }
+
+    public long getEventId(long std) {
+        return getLong(2, std);
+    }
+
+    public boolean hasAutorecId() {
+        return has(3);
+    }
+
+    public String getAutorecId() {
+        return getString(3);
+    }
+
+    public String getAutorecId(String std) {
+        return getString(3, std);
+    }
+
+    public boolean hasTimerecId() {
+        return has(4);
+    }
+
+    public String getTimerecId() {
+        return getString(4);
+    }
+
+    public String getTimerecId(String std) {
+        return getString(4, std);
+    }
+
+    public boolean hasStart() {
+        return has(5);
+    }
+
+    public Date getStart() {
+        return getDate(5);
+    }
+
+    public boolean hasStop() {
+        return has(6);
+    }
+
+    public Date getStop() {
+        return getDate(6);
+    }
+
+    public boolean hasStartExtra() {
+        return has(7);
+    }
+
+    public long getStartExtra() {
+        return getLong(7);
+    }
+
+    public long getStartExtra(long std) {
+        return getLong(7, std);
+    }
+
+    public boolean hasStopExtra() {
+        return has(8);
+    }
+
+    public long getStopExtra() {
+        return getLong(8);
+    }
+
+    public long getStopExtra(long std) {
+        return getLong(8, std);
+    }
+
+    public boolean hasRetention() {
+        return has(9);
+    }
+
+    public long getRetention() {
+        return getLong(9);
+    }
+
+    public long getRetention(long std) {
+        return getLong(9, std);
+    }
+
+    public boolean hasPriority() {
+        return has(10);
+    }
+
+    public long getPriority() {
+        return getLong(10);
+    }
+
+    public long getPriority(long std) {
+        return getLong(10, std);
+    }
+
+    public boolean hasContentType() {
+        return has(11);
+    }
+
+    public long getContentType() {
+        return getLong(11);
+    }
+
+    public long getContentType(long std) {
+        return getLong(11, std);
+    }
+
+    public boolean hasTitle() {
+        return has(12);
+    }
+
+    public String getTitle() {
+        return getString(12);
+    }
+
+    public String getTitle(String std) {
+        return getString(12, std);
+    }
+
+    public boolean hasDescription() {
+        return has(13);
+    }
+
+    public String getDescription() {
+        return getString(13);
+    }
+
+    public String getDescription(String std) {
+        return getString(13, std);
+    }
+
+    public boolean hasOwner() {
+        return has(14);
+    }
+
+    public String getOwner() {
+        return getString(14);
+    }
+
+    public String getOwner(String std) {
+        return getString(14, std);
+    }
+
+    public boolean hasCreator() {
+        return has(15);
+    }
+
+    public String getCreator() {
+        return getString(15);
+    }
+
+    public String getCreator(String std) {
+        return getString(15, std);
+    }
+
+    public boolean hasPath() {
+        return has(16);
+    }
+
+    public String getPath() {
+        return getString(16);
+    }
+
+    public String getPath(String std) {
+        return getString(16, std);
+    }
+
+    public boolean hasState() {
+        return has(17);
+    }
+
+    public String getState() {
+        return getString(17);
+    }
+
+    public String getState(String std) {
+        return getString(17, std);
+    }
+
+    public boolean hasError() {
+        return has(18);
+    }
+
+    public String getError() {
+        return getString(18);
+    }
+
+    public String getError(String std) {
+        return getString(18, std);
+    }
+}
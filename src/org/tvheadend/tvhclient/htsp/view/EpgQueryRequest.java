@@ -0,0 +1,67 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+
+/**
+ * The epgQuery request.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class EpgQueryRequest extends HTSMessage {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String METHOD = "epgQuery";
+
+    public EpgQueryRequest() {
+        setMethod(METHOD);
+    }
+
+    public EpgQueryRequest setQuery(String value) {
+        putField("query", value);
+        return this;
+    }
+
+    public EpgQueryRequest setChannelId(long value) {
+        putField("channelId", value);
+        return this;
+    }
+
+    public EpgQueryRequest setTagId(long value) {
+        putField("tagId", value);
+        return this;
+    }
+
+    /**
+     * Only known to servers with HTSP version 13 or later.
+     */
+    public EpgQueryRequest setMinduration(long value) {
+        putField("minduration", value);
+        return this;
+    }
+
+    /**
+     * Only known to servers with HTSP version 13 or later.
+     */
+    public EpgQueryRequest setMaxduration(long value) {
+        putField("maxduration", value);
+        return this;
+    }
+}
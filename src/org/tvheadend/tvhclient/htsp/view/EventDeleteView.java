@@ -0,0 +1,51 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the eventDelete message.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class EventDeleteView extends HTSMessageView {
+
+    public static final String METHOD = "eventDelete";
+
+    private static final String[] FIELDS = {
+        "eventId",
+    };
+
+    public EventDeleteView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasEventId() {
+        return has(0);
+    }
+
+    public long getEventId() {
+        return getLong(0);
+    }
+
+    public long getEventId(long std) {
+        return getLong(0, std);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import java.util.List;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the eventIds map.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class EventIdsView extends HTSMessageView {
+
+    private static final String[] FIELDS = {
+        "eventIds",
+    };
+
+    public EventIdsView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasEventIds() {
+        return has(0);
+    }
+
+    public List<Long> getEventIds() {
+        return getLongList(0);
+    }
+
+    public List<Long> getEventIds(List<Long> std) {
+        return getLongList(0, std);
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import java.util.Date;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the eventUpdate message.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class EventUpdateView extends HTSMessageView {
+
+    public static final String METHOD = "eventUpdate";
+
+    private static final String[] FIELDS = {
+        "eventId",
+        "channelId",
+        "nextEventId",
+        "start",
+        "stop",
+        "title",
+        "summary",
+        "description",
+        "contentType",
+        "dvrId",
+        "starRating",
+        "episodeCount",
+        "episodeNumber",
+        "episodeOnscreen",
+        "partCount",
+        "partNumber",
+        "seasonCount",
+        "seasonNumber",
+    };
+
+    public EventUpdateView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasEventId() {
+        return has(0);
+    }
+
+    public long getEventId() {
+        return getLong(0);
+    }
+
+    public long getEventId(long std) {
+        return getLong(0, std);
+    }
+
+    public boolean hasChannelId() {
+        return has(1);
+    }
+
+    public long getChannelId() {
+        return getLong(1);
+    }
+
+    public long getChannelId(long std) {
+        return getLong(1, std);
+    }
+
+    public boolean hasNextEventId() {
+        return has(2);
+    }
+
+    public long getNextEventId() {
+        return getLong(2);
+    }
+
+    public long getNextEventId(long std) {
+        return getLong(2, std);
+    }
+
+    public boolean hasStart() {
+        return has(3);
+    }
+
+    public Date getStart() {
+        return getDate(3);
+    }
+
+    public boolean hasStop() {
+        return has(4);
+    }
+
+    public Date getStop() {
+        return getDate(4);
+    }
+
+    public boolean hasTitle() {
+        return has(5);
+    }
+
+    public String getTitle() {
+        return getString(5);
+    }
+
+    public String getTitle(String std) {
+        return getString(5, std);
+    }
+
+    public boolean hasSummary() {
+        return has(6);
+    }
+
+    public String getSummary() {
+        return getString(6);
+    }
+
+    public String getSummary(String std) {
+        return getString(6, std);
+    }
+
+    public boolean hasDescription() {
+        return has(7);
+    }
+
+    public String getDescription() {
+        return getString(7);
+    }
+
+    public String getDescription(String std) {
+        return getString(7, std);
+    }
+
+    public boolean hasContentType() {
+        return has(8);
+    }
+
+    public int getContentType() {
+        return getInt(8);
+    }
+
+    public int getContentType(int std) {
+        return getInt(8, std);
+    }
+
+    public boolean hasDvrId() {
+        return has(9);
+    }
+
+    public long getDvrId() {
+        return getLong(9);
+    }
+
+    public long getDvrId(long std) {
+        return getLong(9, std);
+    }
+
+    public boolean hasStarRating() {
+        return has(10);
+    }
+
+    public int getStarRating() {
+        return getInt(10);
+    }
+
+    public int getStarRating(int std) {
+        return getInt(10, std);
+    }
+
+    public boolean hasEpisodeCount() {
+        return has(11);
+    }
+
+    public int getEpisodeCount() {
+        return getInt(11);
+    }
+
+    public int getEpisodeCount(int std) {
+        return getInt(11, std);
+    }
+
+    public boolean hasEpisodeNumber() {
+        return has(12);
+    }
+
+    public int getEpisodeNumber() {
+        return getInt(12);
+    }
+
+    public int getEpisodeNumber(int std) {
+        return getInt(12, std);
+    }
+
+    public boolean hasEpisodeOnscreen() {
+        return has(13);
+    }
+
+    public String getEpisodeOnscreen() {
+        return getString(13);
+    }
+
+    public String getEpisodeOnscreen(String std) {
+        return getString(13, std);
+    }
+
+    public boolean hasPartCount() {
+        return has(14);
+    }
+
+    public int getPartCount() {
+        return getInt(14);
+    }
+
+    public int getPartCount(int std) {
+        return getInt(14, std);
+    }
+
+    public boolean hasPartNumber() {
+        return has(15);
+    }
+
+    public int getPartNumber() {
+        return getInt(15);
+    }
+
+    public int getPartNumber(int std) {
+        return getInt(15, std);
+    }
+
+    public boolean hasSeasonCount() {
+        return has(16);
+    }
+
+    public int getSeasonCount() {
+        return getInt(16);
+    }
+
+    public int getSeasonCount(int std) {
+        return getInt(16, std);
+    }
+
+    public boolean hasSeasonNumber() {
+        return has(17);
+    }
+
+    public int getSeasonNumber() {
+        return getInt(17);
+    }
+
+    public int getSeasonNumber(int std) {
+        return getInt(17, std);
+    }
+}
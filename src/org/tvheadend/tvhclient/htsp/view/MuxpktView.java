@@ -0,0 +1,125 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the muxpkt message.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class MuxpktView extends HTSMessageView {
+
+    public static final String METHOD = "muxpkt";
+
+    private static final String[] FIELDS = {
+        "subscriptionId",
+        "stream",
+        "dts",
+        "pts",
+        "duration",
+        "frametype",
+        "payload",
+    };
+
+    public MuxpktView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasSubscriptionId() {
+        return has(0);
+    }
+
+    public long getSubscriptionId() {
+        return getLong(0);
+    }
+
+    public long getSubscriptionId(long std) {
+        return getLong(0, std);
+    }
+
+    public boolean hasStream() {
+        return has(1);
+    }
+
+    public int getStream() {
+        return getInt(1);
+    }
+
+    public int getStream(int std) {
+        return getInt(1, std);
+    }
+
+    public boolean hasDts() {
+        return has(2);
+    }
+
+    public long getDts() {
+        return getLong(2);
+    }
+
+    public long getDts(long std) {
+        return getLong(2, std);
+    }
+
+    public boolean hasPts() {
+        return has(3);
+    }
+
+    public long getPts() {
+        return getLong(3);
+    }
+
+    public long getPts(long std) {
+        return getLong(3, std);
+    }
+
+    public boolean hasDuration() {
+        return has(4);
+    }
+
+    public long getDuration() {
+        return getLong(4);
+    }
+
+    public long getDuration(long std) {
+        return getLong(4, std);
+    }
+
+    public boolean hasFrametype() {
+        return has(5);
+    }
+
+    public int getFrametype() {
+        return getInt(5);
+    }
+
+    public int getFrametype(int std) {
+        return getInt(5, std);
+    }
+
+    public boolean hasPayload() {
+        return has(6);
+    }
+
+    public byte[] getPayload() {
+        return getByteArray(6);
+    }
+}
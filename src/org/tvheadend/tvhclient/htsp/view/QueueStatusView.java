@@ -0,0 +1,127 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import java.math.BigInteger;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the queueStatus message.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class QueueStatusView extends HTSMessageView {
+
+    public static final String METHOD = "queueStatus";
+
+    private static final String[] FIELDS = {
+        "subscriptionId",
+        "packets",
+        "bytes",
+        "delay",
+        "Bdrops",
+        "Pdrops",
+        "Idrops",
+    };
+
+    public QueueStatusView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasSubscriptionId() {
+        return has(0);
+    }
+
+    public long getSubscriptionId() {
+        return getLong(0);
+    }
+
+    public long getSubscriptionId(long std) {
+        return getLong(0, std);
+    }
+
+    public boolean hasPackets() {
+        return has(1);
+    }
+
+    public long getPackets() {
+        return getLong(1);
+    }
+
+    public long getPackets(long std) {
+        return getLong(1, std);
+    }
+
+    public boolean hasBytes() {
+        return has(2);
+    }
+
+    public long getBytes() {
+        return getLong(2);
+    }
+
+    public long getBytes(long std) {
+        return getLong(2, std);
+    }
+
+    public boolean hasDelay() {
+        return has(3);
+    }
+
+    public BigInteger getDelay() {
+        return getBigInteger(3);
+    }
+
+    public boolean hasBdrops() {
+        return has(4);
+    }
+
+    public long getBdrops() {
+        return getLong(4);
+    }
+
+    public long getBdrops(long std) {
+        return getLong(4, std);
+    }
+
+    public boolean hasPdrops() {
+        return has(5);
+    }
+
+    public long getPdrops() {
+        return getLong(5);
+    }
+
+    public long getPdrops(long std) {
+        return getLong(5, std);
+    }
+
+    public boolean hasIdrops() {
+        return has(6);
+    }
+
+    public long getIdrops() {
+        return getLong(6);
+    }
+
+    public long getIdrops(long std) {
+        return getLong(6, std);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the signalStatus message.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class SignalStatusView extends HTSMessageView {
+
+    public static final String METHOD = "signalStatus";
+
+    private static final String[] FIELDS = {
+        "subscriptionId",
+        "feStatus",
+        "feSNR",
+        "feSignal",
+        "feBER",
+        "feUNC",
+    };
+
+    public SignalStatusView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasSubscriptionId() {
+        return has(0);
+    }
+
+    public long getSubscriptionId() {
+        return getLong(0);
+    }
+
+    public long getSubscriptionId(long std) {
+        return getLong(0, std);
+    }
+
+    public boolean hasFeStatus() {
+        return has(1);
+    }
+
+    public String getFeStatus() {
+        return getString(1);
+    }
+
+    public String getFeStatus(String std) {
+        return getString(1, std);
+    }
+
+    public boolean hasFeSNR() {
+        return has(2);
+    }
+
+    public int getFeSNR() {
+        return getInt(2);
+    }
+
+    public int getFeSNR(int std) {
+        return getInt(2, std);
+    }
+
+    public boolean hasFeSignal() {
+        return has(3);
+    }
+
+    public int getFeSignal() {
+        return getInt(3);
+    }
+
+    public int getFeSignal(int std) {
+        return getInt(3, std);
+    }
+
+    public boolean hasFeBER() {
+        return has(4);
+    }
+
+    public int getFeBER() {
+        return getInt(4);
+    }
+
+    public int getFeBER(int std) {
+        return getInt(4, std);
+    }
+
+    public boolean hasFeUNC() {
+        return has(5);
+    }
+
+    public int getFeUNC() {
+        return getInt(5);
+    }
+
+    public int getFeUNC(int std) {
+        return getInt(5, std);
+    }
+}
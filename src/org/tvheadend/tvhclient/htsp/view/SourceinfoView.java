@@ -0,0 +1,101 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the sourceinfo map.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class SourceinfoView extends HTSMessageView {
+
+    private static final String[] FIELDS = {
+        "adapter",
+        "mux",
+        "network",
+        "provider",
+        "service",
+    };
+
+    public SourceinfoView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasAdapter() {
+        return has(0);
+    }
+
+    public String getAdapter() {
+        return getString(0);
+    }
+
+    public String getAdapter(String std) {
+        return getString(0, std);
+    }
+
+    public boolean hasMux() {
+        return has(1);
+    }
+
+    public String getMux() {
+        return getString(1);
+    }
+
+    public String getMux(String std) {
+        return getString(1, std);
+    }
+
+    public boolean hasNetwork() {
+        return has(2);
+    }
+
+    public String getNetwork() {
+        return getString(2);
+    }
+
+    public String getNetwork(String std) {
+        return getString(2, std);
+    }
+
+    public boolean hasProvider() {
+        return has(3);
+    }
+
+    public String getProvider() {
+        return getString(3);
+    }
+
+    public String getProvider(String std) {
+        return getString(3, std);
+    }
+
+    public boolean hasService() {
+        return has(4);
+    }
+
+    public String getService() {
+        return getString(4);
+    }
+
+    public String getService(String std) {
+        return getString(4, std);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the stream map.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class StreamView extends HTSMessageView {
+
+    private static final String[] FIELDS = {
+        "index",
+        "type",
+        "language",
+        "width",
+        "height",
+        "duration",
+        "aspect_num",
+        "aspect_den",
+        "autio_type",
+        "channels",
+        "rate",
+    };
+
+    public StreamView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasIndex() {
+        return has(0);
+    }
+
+    public int getIndex() {
+        return getInt(0);
+    }
+
+    public int getIndex(int std) {
+        return getInt(0, std);
+    }
+
+    public boolean hasType() {
+        return has(1);
+    }
+
+    public String getType() {
+        return getString(1);
+    }
+
+    public String getType(String std) {
+        return getString(1, std);
+    }
+
+    public boolean hasLanguage() {
+        return has(2);
+    }
+
+    public String getLanguage() {
+        return getString(2);
+    }
+
+    public String getLanguage(String std) {
+        return getString(2, std);
+    }
+
+    public boolean hasWidth() {
+        return has(3);
+    }
+
+    public int getWidth() {
+        return getInt(3);
+    }
+
+    public int getWidth(int std) {
+        return getInt(3, std);
+    }
+
+    public boolean hasHeight() {
+        return has(4);
+    }
+
+    public int getHeight() {
+        return getInt(4);
+    }
+
+    public int getHeight(int std) {
+        return getInt(4, std);
+    }
+
+    public boolean hasDuration() {
+        return has(5);
+    }
+
+    public int getDuration() {
+        return getInt(5);
+    }
+
+    public int getDuration(int std) {
+        return getInt(5, std);
+    }
+
+    public boolean hasAspectNum() {
+        return has(6);
+    }
+
+    public int getAspectNum() {
+        return getInt(6);
+    }
+
+    public int getAspectNum(int std) {
+        return getInt(6, std);
+    }
+
+    public boolean hasAspectDen() {
+        return has(7);
+    }
+
+    public int getAspectDen() {
+        return getInt(7);
+    }
+
+    public int getAspectDen(int std) {
+        return getInt(7, std);
+    }
+
+    public boolean hasAutioType() {
+        return has(8);
+    }
+
+    public int getAutioType() {
+        return getInt(8);
+    }
+
+    public int getAutioType(int std) {
+        return getInt(8, std);
+    }
+
+    public boolean hasChannels() {
+        return has(9);
+    }
+
+    public int getChannels() {
+        return getInt(9);
+    }
+
+    public int getChannels(int std) {
+        return getInt(9, std);
+    }
+
+    public boolean hasRate() {
+        return has(10);
+    }
+
+    public int getRate() {
+        return getInt(10);
+    }
+
+    public int getRate(int std) {
+        return getInt(10, std);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the subscriptionStart message.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class SubscriptionStartView extends HTSMessageView {
+
+    public static final String METHOD = "subscriptionStart";
+
+    private static final String[] FIELDS = {
+        "subscriptionId",
+        "streams",
+        "sourceinfo",
+    };
+
+    public SubscriptionStartView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasSubscriptionId() {
+        return has(0);
+    }
+
+    public long getSubscriptionId() {
+        return getLong(0);
+    }
+
+    public long getSubscriptionId(long std) {
+        return getLong(0, std);
+    }
+
+    public boolean hasStreams() {
+        return has(1);
+    }
+
+    public List<StreamView> getStreams() {
+        List<StreamView> list = new ArrayList<StreamView>();
+        for (HTSMessage map : getMapList(1)) {
+            list.add(new StreamView(map));
+        }
+        return list;
+    }
+
+    public boolean hasSourceinfo() {
+        return has(2);
+    }
+
+    public SourceinfoView getSourceinfo() {
+        HTSMessage map = getMap(2);
+        return map != null ? new SourceinfoView(map) : null;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the tagUpdate message.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class TagUpdateView extends HTSMessageView {
+
+    public static final String METHOD = "tagUpdate";
+
+    private static final String[] FIELDS = {
+        "tagId",
+        "tagName",
+        "tagIcon",
+    };
+
+    public TagUpdateView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasTagId() {
+        return has(0);
+    }
+
+    public long getTagId() {
+        return getLong(0);
+    }
+
+    public long getTagId(long std) {
+        return getLong(0, std);
+    }
+
+    public boolean hasTagName() {
+        return has(1);
+    }
+
+    public String getTagName() {
+        return getString(1);
+    }
+
+    public String getTagName(String std) {
+        return getString(1, std);
+    }
+
+    public boolean hasTagIcon() {
+        return has(2);
+    }
+
+    public String getTagIcon() {
+        return getString(2);
+    }
+
+    public String getTagIcon(String std) {
+        return getString(2, std);
+    }
+}
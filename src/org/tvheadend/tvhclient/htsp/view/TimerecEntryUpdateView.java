@@ -0,0 +1,207 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.htsp.view;
+
+import org.tvheadend.tvhclient.htsp.HTSMessage;
+import org.tvheadend.tvhclient.htsp.HTSMessageView;
+
+/**
+ * Typed access to the timerecEntryUpdate message.
+ * Generated from tools/htsp/htsp.schema, do not edit.
+ */
+public class TimerecEntryUpdateView extends HTSMessageView {
+
+    public static final String METHOD = "timerecEntryUpdate";
+
+    private static final String[] FIELDS = {
+        "id",
+        "enabled",
+        "daysOfWeek",
+        "retention",
+        "priority",
+        "start",
+        "stop",
+        "title",
+        "name",
+        "directory",
+        "owner",
+        "creator",
+        "channel",
+    };
+
+    public TimerecEntryUpdateView(HTSMessage msg) {
+        super(msg, FIELDS);
+    }
+
+    public boolean hasId() {
+        return has(0);
+    }
+
+    public String getId() {
+        return getString(0);
+    }
+
+    public String getId(String std) {
+        return getString(0, std);
+    }
+
+    public boolean hasEnabled() {
+        return has(1);
+    }
+
+    public long getEnabled() {
+        return getLong(1);
+    }
+
+    public long getEnabled(long std) {
+        return getLong(1, std);
+    }
+
+    public boolean hasDaysOfWeek() {
+        return has(2);
+    }
+
+    public long getDaysOfWeek() {
+        return getLong(2);
+    }
+
+    public long getDaysOfWeek(long std) {
+        return getLong(2, std);
+    }
+
+    public boolean hasRetention() {
+        return has(3);
+    }
+
+    public long getRetention() {
+        return getLong(3);
+    }
+
+    public long getRetention(long std) {
+        return getLong(3, std);
+    }
+
+    public boolean hasPriority() {
+        return has(4);
+    }
+
+    public long getPriority() {
+        return getLong(4);
+    }
+
+    public long getPriority(long std) {
+        return getLong(4, std);
+    }
+
+    public boolean hasStart() {
+        return has(5);
+    }
+
+    public long getStart() {
+        return getLong(5);
+    }
+
+    public long getStart(long std) {
+        return getLong(5, std);
+    }
+
+    public boolean hasStop() {
+        return has(6);
+    }
+
+    public long getStop() {
+        return getLong(6);
+    }
+
+    public long getStop(long std) {
+        return getLong(6, std);
+    }
+
+    public boolean hasTitle() {
+        return has(7);
+    }
+
+    public String getTitle() {
+        return getString(7);
+    }
+
+    public String getTitle(String std) {
+        return getString(7, std);
+    }
+
+    public boolean hasName() {
+        return has(8);
+    }
+
+    public String getName() {
+        return getString(8);
+    }
+
+    public String getName(String std) {
+        return getString(8, std);
+    }
+
+    public boolean hasDirectory() {
+        return has(9);
+    }
+
+    public String getDirectory() {
+        return getString(9);
+    }
+
+    public String getDirectory(String std) {
+        return getString(9, std);
+    }
+
+    public boolean hasOwner() {
+        return has(10);
+    }
+
+    public String getOwner() {
+        return getString(10);
+    }
+
+    public String getOwner(String std) {
+        return getString(10, std);
+    }
+
+    public boolean hasCreator() {
+        return has(11);
+    }
+
+    public String getCreator() {
+        return getString(11);
+    }
+
+    public String getCreator(String std) {
+        return getString(11, std);
+    }
+
+    public boolean hasChannel() {
+        return has(12);
+    }
+
+    public long getChannel() {
+        return getLong(12);
+    }
+
+    public long getChannel(long std) {
+        return getLong(12, std);
+    }
+}
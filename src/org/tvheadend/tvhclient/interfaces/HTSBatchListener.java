@@ -0,0 +1,20 @@
+package org.tvheadend.tvhclient.interfaces;
+
+import org.tvheadend.tvhclient.model.ChangeSet;
+
+/**
+ * A listener that takes the changes of the tags, channels, programs,
+ * recordings and subscriptions in batches. Instead of one call of
+ * onMessage for each of them it gets one call of onChanges per frame with
+ * all objects that have been added, updated or removed during it. All
+ * other actions, like the loading state or the connection state, still
+ * arrive through onMessage.
+ */
+public interface HTSBatchListener extends HTSListener {
+
+    /**
+     * Called on the UI thread with the changes of the last frame. Objects
+     * that have been added and removed again during the frame are left out.
+     */
+    public void onChanges(ChangeSet changes);
+}
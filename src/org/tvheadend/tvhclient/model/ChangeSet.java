@@ -0,0 +1,110 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The objects of the model that have been added, updated or removed within
+ * a short time. Each object is in one of the sets at most. An object that
+ * is added and updated counts as added, one that is added and removed
+ * again is left out.
+ */
+public class ChangeSet {
+
+    private final Set<Object> added = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private final Set<Object> updated = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private final Set<Object> removed = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+    public void add(Object obj) {
+        if (removed.remove(obj)) {
+            // Removed and added again, like during a resync
+            updated.add(obj);
+        } else {
+            added.add(obj);
+        }
+    }
+
+    public void update(Object obj) {
+        if (!added.contains(obj) && !removed.contains(obj)) {
+            updated.add(obj);
+        }
+    }
+
+    public void remove(Object obj) {
+        if (!added.remove(obj)) {
+            updated.remove(obj);
+            removed.add(obj);
+        }
+    }
+
+    public Set<Object> getAdded() {
+        return Collections.unmodifiableSet(added);
+    }
+
+    public Set<Object> getUpdated() {
+        return Collections.unmodifiableSet(updated);
+    }
+
+    public Set<Object> getRemoved() {
+        return Collections.unmodifiableSet(removed);
+    }
+
+    public <T> List<T> getAdded(Class<T> type) {
+        return filter(added, type);
+    }
+
+    public <T> List<T> getUpdated(Class<T> type) {
+        return filter(updated, type);
+    }
+
+    public <T> List<T> getRemoved(Class<T> type) {
+        return filter(removed, type);
+    }
+
+    /**
+     * @param type
+     * @return true if any object of the given type has changed
+     */
+    public boolean contains(Class<?> type) {
+        return !getAdded(type).isEmpty() || !getUpdated(type).isEmpty() || !getRemoved(type).isEmpty();
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+    }
+
+    public int size() {
+        return added.size() + updated.size() + removed.size();
+    }
+
+    private static <T> List<T> filter(Set<Object> set, Class<T> type) {
+        List<T> list = new ArrayList<T>();
+        for (Object obj : set) {
+            if (type.isInstance(obj)) {
+                list.add(type.cast(obj));
+            }
+        }
+        return list;
+    }
+}
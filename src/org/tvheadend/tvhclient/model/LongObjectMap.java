@@ -0,0 +1,217 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.tvheadend.tvhclient.model;
+
+import java.util.Arrays;
+
+/**
+ * A map from long ids to objects that keeps the keys in a plain array, so
+ * looking up an id neither boxes it nor follows a chain of entries. The
+ * slots are probed linearly from the hash of the key, removing a key moves
+ * the following keys of its run back instead of leaving a marker.
+ *
+ * Not synchronized, the callers guard it with the lock of the list it
+ * indexes.
+ */
+public class LongObjectMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Marks a free slot. The key 0 is kept outside of the table.
+    private static final long FREE = 0;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    private boolean hasZero;
+    private Object zeroValue;
+
+    public LongObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expected
+     *            The number of keys the map holds without growing
+     */
+    public LongObjectMap(int expected) {
+        int capacity = MIN_CAPACITY;
+        // At most half of the slots are used
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == FREE) {
+            return hasZero ? (V) zeroValue : null;
+        }
+        long[] k = keys;
+        int i = slot(key);
+        while (true) {
+            long found = k[i];
+            if (found == key) {
+                return (V) values[i];
+            }
+            if (found == FREE) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE) {
+            return hasZero;
+        }
+        int i = slot(key);
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return the value that was mapped to the key before or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == FREE) {
+            V old = (V) zeroValue;
+            if (!hasZero) {
+                hasZero = true;
+                size++;
+            }
+            zeroValue = value;
+            return old;
+        }
+        int i = slot(key);
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return the value that was mapped to the key or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if (key == FREE) {
+            if (!hasZero) {
+                return null;
+            }
+            V old = (V) zeroValue;
+            hasZero = false;
+            zeroValue = null;
+            size--;
+            return old;
+        }
+        int i = slot(key);
+        while (keys[i] != key) {
+            if (keys[i] == FREE) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+        V old = (V) values[i];
+        size--;
+
+        // Move the following keys of the run into the gap if their own slot
+        // is not between the gap and where they are now
+        int gap = i;
+        while (true) {
+            i = (i + 1) & mask;
+            long k = keys[i];
+            if (k == FREE) {
+                break;
+            }
+            int home = slot(k);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = k;
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        keys[gap] = FREE;
+        values[gap] = null;
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        Arrays.fill(values, null);
+        hasZero = false;
+        zeroValue = null;
+        size = 0;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key != FREE) {
+                int i = slot(key);
+                while (keys[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
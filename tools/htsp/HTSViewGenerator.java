@@ -0,0 +1,440 @@
+/*
+ *  Copyright (C) 2011 John Törnblom
+ *
+ * This file is part of TVHGuide.
+ *
+ * TVHGuide is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * TVHGuide is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates the typed HTSP message views and requests from htsp.schema.
+ *
+ * Usage: HTSViewGenerator <schema> <HTSMessage.java> <output directory>
+ */
+public class HTSViewGenerator {
+
+    private static final String PACKAGE = "org.tvheadend.tvhclient.htsp.view";
+
+    // The sources in this tree use DOS line endings
+    private static final String NL = "\r\n";
+
+    private static final String HEADER = "/*" + NL
+            + " *  Copyright (C) 2011 John Törnblom" + NL
+            + " *" + NL
+            + " * This file is part of TVHGuide." + NL
+            + " *" + NL
+            + " * TVHGuide is free software: you can redistribute it and/or modify" + NL
+            + " * it under the terms of the GNU General Public License as published by" + NL
+            + " * the Free Software Foundation, either version 3 of the License, or" + NL
+            + " * (at your option) any later version." + NL
+            + " *" + NL
+            + " * TVHGuide is distributed in the hope that it will be useful," + NL
+            + " * but WITHOUT ANY WARRANTY; without even the implied warranty of" + NL
+            + " * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the" + NL
+            + " * GNU General Public License for more details." + NL
+            + " *" + NL
+            + " * You should have received a copy of the GNU General Public License" + NL
+            + " * along with TVHGuide.  If not, see <http://www.gnu.org/licenses/>." + NL
+            + " */" + NL;
+
+    private static class Field {
+        String type;
+        String element;
+        String name;
+        int since;
+    }
+
+    private static class Message {
+        String kind;
+        String name;
+        List<Field> fields = new ArrayList<Field>();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: HTSViewGenerator <schema> <HTSMessage.java> <output directory>");
+            System.exit(2);
+        }
+
+        List<Message> messages = new ArrayList<Message>();
+        int version = parse(new File(args[0]), messages);
+
+        int protocolVersion = readProtocolVersion(new File(args[1]));
+        if (version != protocolVersion) {
+            System.err.println(args[0] + " describes HTSP version " + version
+                    + " but HTSMessage.HTSP_VERSION is " + protocolVersion
+                    + ", update the schema first");
+            System.exit(1);
+        }
+
+        File dir = new File(args[2]);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+
+        // Everything in the output directory is generated, remove classes
+        // of messages that have been dropped from the schema
+        for (File f : dir.listFiles()) {
+            if (f.getName().endsWith(".java") && !f.delete()) {
+                throw new IOException("Can't delete " + f);
+            }
+        }
+
+        for (Message m : messages) {
+            String cls = className(m);
+            String code = m.kind.equals("request") ? request(m) : view(m, messages);
+            write(new File(dir, cls + ".java"), code);
+        }
+        System.out.println("Generated " + messages.size() + " classes in " + dir);
+    }
+
+    private static int parse(File file, List<Message> messages) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        int version = -1;
+        Message current = null;
+        int lineNo = 0;
+
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+
+                String[] words = line.trim().split("\\s+");
+                boolean indented = Character.isWhitespace(line.charAt(0));
+
+                if (!indented && words[0].equals("version") && words.length == 2) {
+                    version = Integer.parseInt(words[1]);
+
+                } else if (!indented && words.length == 2 && (words[0].equals("message")
+                        || words[0].equals("map") || words[0].equals("request"))) {
+                    current = new Message();
+                    current.kind = words[0];
+                    current.name = words[1];
+                    messages.add(current);
+
+                } else if (indented && current != null && (words.length == 2
+                        || (words.length == 4 && words[2].equals("since")))) {
+                    current.fields.add(parseField(words, file, lineNo));
+
+                } else {
+                    throw new IOException(file + ":" + lineNo + ": can't parse '" + line.trim() + "'");
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        if (version < 0) {
+            throw new IOException(file + ": no version given");
+        }
+        return version;
+    }
+
+    private static Field parseField(String[] words, File file, int lineNo) throws IOException {
+        Field f = new Field();
+        f.type = words[0];
+        f.name = words[1];
+
+        int lt = f.type.indexOf('<');
+        if (lt > 0 && f.type.endsWith(">")) {
+            f.element = f.type.substring(lt + 1, f.type.length() - 1);
+            f.type = f.type.substring(0, lt);
+            if (!f.type.equals("list") && !f.type.equals("map")) {
+                throw new IOException(file + ":" + lineNo + ": only list and map take a map name");
+            }
+        }
+        if (!f.type.matches("long|int|date|bigint|str|bin|map|list|intlist|longlist")) {
+            throw new IOException(file + ":" + lineNo + ": unknown type " + f.type);
+        }
+        if (words.length == 4) {
+            f.since = Integer.parseInt(words[3]);
+        }
+        return f;
+    }
+
+    private static int readProtocolVersion(File file) throws IOException {
+        Pattern p = Pattern.compile("HTSP_VERSION\\s*=\\s*(\\d+)");
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Matcher m = p.matcher(line);
+                if (m.find()) {
+                    return Integer.parseInt(m.group(1));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        throw new IOException("No HTSP_VERSION in " + file);
+    }
+
+    private static String className(Message m) {
+        return capitalize(javaName(m.name)) + (m.kind.equals("request") ? "Request" : "View");
+    }
+
+    private static String viewName(String map, List<Message> messages) throws IOException {
+        for (Message m : messages) {
+            if (m.kind.equals("map") && m.name.equals(map)) {
+                return className(m);
+            }
+        }
+        throw new IOException("No map named " + map + " in the schema");
+    }
+
+    private static String view(Message m, List<Message> messages) throws IOException {
+        String cls = className(m);
+        StringBuilder imports = new StringBuilder();
+        StringBuilder body = new StringBuilder();
+
+        boolean usesList = false;
+        boolean usesArrayList = false;
+        boolean usesDate = false;
+        boolean usesBigInteger = false;
+
+        if (m.kind.equals("message")) {
+            body.append("    public static final String METHOD = \"").append(m.name).append("\";").append(NL);
+            body.append(NL);
+        }
+
+        body.append("    private static final String[] FIELDS = {").append(NL);
+        for (Field f : m.fields) {
+            body.append("        \"").append(f.name).append("\",").append(NL);
+        }
+        body.append("    };").append(NL);
+        body.append(NL);
+        body.append("    public ").append(cls).append("(HTSMessage msg) {").append(NL);
+        body.append("        super(msg, FIELDS);").append(NL);
+        body.append("    }").append(NL);
+
+        for (int i = 0; i < m.fields.size(); i++) {
+            Field f = m.fields.get(i);
+            String prop = capitalize(javaName(f.name));
+            String since = f.since > 0
+                    ? "    /**" + NL + "     * Only sent by servers with HTSP version " + f.since + " or later." + NL + "     */" + NL
+                    : "";
+
+            body.append(NL);
+            body.append(since);
+            body.append("    public boolean has").append(prop).append("() {").append(NL);
+            body.append("        return has(").append(i).append(");").append(NL);
+            body.append("    }").append(NL);
+
+            if (f.type.equals("long") || f.type.equals("int")) {
+                getter(body, since, f.type, prop, "", "get" + capitalize(f.type) + "(" + i + ")");
+                getter(body, since, f.type, prop, f.type + " std", "get" + capitalize(f.type) + "(" + i + ", std)");
+            } else if (f.type.equals("date")) {
+                usesDate = true;
+                getter(body, since, "Date", prop, "", "getDate(" + i + ")");
+            } else if (f.type.equals("bigint")) {
+                usesBigInteger = true;
+                getter(body, since, "BigInteger", prop, "", "getBigInteger(" + i + ")");
+            } else if (f.type.equals("str")) {
+                getter(body, since, "String", prop, "", "getString(" + i + ")");
+                getter(body, since, "String", prop, "String std", "getString(" + i + ", std)");
+            } else if (f.type.equals("bin")) {
+                getter(body, since, "byte[]", prop, "", "getByteArray(" + i + ")");
+            } else if (f.type.equals("intlist")) {
+                usesList = true;
+                getter(body, since, "List<Integer>", prop, "", "getIntList(" + i + ")");
+                getter(body, since, "List<Integer>", prop, "List<Integer> std", "getIntList(" + i + ", std)");
+            } else if (f.type.equals("longlist")) {
+                usesList = true;
+                getter(body, since, "List<Long>", prop, "", "getLongList(" + i + ")");
+                getter(body, since, "List<Long>", prop, "List<Long> std", "getLongList(" + i + ", std)");
+            } else if (f.type.equals("map") && f.element == null) {
+                getter(body, since, "HTSMessage", prop, "", "getMap(" + i + ")");
+            } else if (f.type.equals("list") && f.element == null) {
+                usesList = true;
+                getter(body, since, "List<?>", prop, "", "getList(" + i + ")");
+            } else if (f.type.equals("map")) {
+                String v = viewName(f.element, messages);
+                body.append(NL);
+                body.append(since);
+                body.append("    public ").append(v).append(" get").append(prop).append("() {").append(NL);
+                body.append("        HTSMessage map = getMap(").append(i).append(");").append(NL);
+                body.append("        return map != null ? new ").append(v).append("(map) : null;").append(NL);
+                body.append("    }").append(NL);
+            } else {
+                String v = viewName(f.element, messages);
+                usesList = true;
+                usesArrayList = true;
+                body.append(NL);
+                body.append(since);
+                body.append("    public List<").append(v).append("> get").append(prop).append("() {").append(NL);
+                body.append("        List<").append(v).append("> list = new ArrayList<").append(v).append(">();").append(NL);
+                body.append("        for (HTSMessage map : getMapList(").append(i).append(")) {").append(NL);
+                body.append("            list.add(new ").append(v).append("(map));").append(NL);
+                body.append("        }").append(NL);
+                body.append("        return list;").append(NL);
+                body.append("    }").append(NL);
+            }
+        }
+
+        if (usesBigInteger) {
+            imports.append("import java.math.BigInteger;").append(NL);
+        }
+        if (usesArrayList) {
+            imports.append("import java.util.ArrayList;").append(NL);
+        }
+        if (usesDate) {
+            imports.append("import java.util.Date;").append(NL);
+        }
+        if (usesList) {
+            imports.append("import java.util.List;").append(NL);
+        }
+        if (imports.length() > 0) {
+            imports.append(NL);
+        }
+        imports.append("import org.tvheadend.tvhclient.htsp.HTSMessage;").append(NL);
+        imports.append("import org.tvheadend.tvhclient.htsp.HTSMessageView;").append(NL);
+
+        String what = m.kind.equals("message")
+                ? "the " + m.name + " message"
+                : "the " + m.name + " map";
+        return HEADER
+                + "package " + PACKAGE + ";" + NL
+                + NL
+                + imports
+                + NL
+                + "/**" + NL
+                + " * Typed access to " + what + "." + NL
+                + " * Generated from tools/htsp/htsp.schema, do not edit." + NL
+                + " */" + NL
+                + "public class " + cls + " extends HTSMessageView {" + NL
+                + NL
+                + body
+                + "}" + NL;
+    }
+
+    private static void getter(StringBuilder body, String since, String type, String prop,
+            String params, String expr) {
+        body.append(NL);
+        body.append(since);
+        body.append("    public ").append(type).append(" get").append(prop)
+                .append("(").append(params).append(") {").append(NL);
+        body.append("        return ").append(expr).append(";").append(NL);
+        body.append("    }").append(NL);
+    }
+
+    private static String request(Message m) throws IOException {
+        String cls = className(m);
+        StringBuilder body = new StringBuilder();
+
+        body.append("    private static final long serialVersionUID = 1L;").append(NL);
+        body.append(NL);
+        body.append("    public static final String METHOD = \"").append(m.name).append("\";").append(NL);
+        body.append(NL);
+        body.append("    public ").append(cls).append("() {").append(NL);
+        body.append("        setMethod(METHOD);").append(NL);
+        body.append("    }").append(NL);
+
+        for (Field f : m.fields) {
+            String prop = capitalize(javaName(f.name));
+            String type;
+            String value = "value";
+            if (f.type.equals("long")) {
+                type = "long";
+            } else if (f.type.equals("int")) {
+                type = "int";
+                value = "(long) value";
+            } else if (f.type.equals("str")) {
+                type = "String";
+            } else {
+                throw new IOException("Request " + m.name + ": " + f.type + " fields are not supported");
+            }
+
+            body.append(NL);
+            if (f.since > 0) {
+                body.append("    /**").append(NL);
+                body.append("     * Only known to servers with HTSP version ").append(f.since).append(" or later.").append(NL);
+                body.append("     */").append(NL);
+            }
+            body.append("    public ").append(cls).append(" set").append(prop)
+                    .append("(").append(type).append(" value) {").append(NL);
+            body.append("        putField(\"").append(f.name).append("\", ").append(value).append(");").append(NL);
+            body.append("        return this;").append(NL);
+            body.append("    }").append(NL);
+        }
+
+        return HEADER
+                + "package " + PACKAGE + ";" + NL
+                + NL
+                + "import org.tvheadend.tvhclient.htsp.HTSMessage;" + NL
+                + NL
+                + "/**" + NL
+                + " * The " + m.name + " request." + NL
+                + " * Generated from tools/htsp/htsp.schema, do not edit." + NL
+                + " */" + NL
+                + "public class " + cls + " extends HTSMessage {" + NL
+                + NL
+                + body
+                + "}" + NL;
+    }
+
+    /**
+     * Turns field names like aspect_num or Bdrops into aspectNum and bdrops.
+     */
+    private static String javaName(String name) {
+        StringBuilder sb = new StringBuilder();
+        boolean upper = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '_') {
+                upper = true;
+            } else if (upper) {
+                sb.append(Character.toUpperCase(c));
+                upper = false;
+            } else if (sb.length() == 0) {
+                sb.append(Character.toLowerCase(c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String capitalize(String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+
+    private static void write(File file, String code) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(code);
+        } finally {
+            out.close();
+        }
+    }
+}